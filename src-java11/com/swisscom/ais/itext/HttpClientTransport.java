@@ -0,0 +1,186 @@
+/**
+ * Sends the requests with the HTTP client of Java 11 and later
+ *
+ * Created:
+ * 18.10.26 KW42 09:40
+ * </p>
+ * Last Modification:
+ * 18.10.26 KW42 09:40
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Sends requests with java.net.http.HttpClient. Requests to servers which support HTTP/2 share one connection
+ * (multiplexing), with HTTP/1.1 servers the client keeps the connections alive. Asynchronous requests do not occupy a
+ * thread while they wait for the response. The client manages its connections itself, MAX_CONNECTIONS and
+ * CONNECTION_IDLE_TIMEOUT and CONNECTION_WAIT_TIMEOUT are not used. This class needs Java 11 or later and is in its own source folder; Soap
+ * uses it by default if it is on the class path and falls back to the connection pool otherwise. Select it explicitly
+ * with TRANSPORT=httpclient in the properties file
+ */
+public class HttpClientTransport implements Transport {
+
+    /**
+     * Connection used to get the SSLContext
+     */
+    private Connect _connect;
+
+    /**
+     * Timeout in milli seconds to connect, 0 to use the default of the system
+     */
+    private int _timeout;
+
+    /**
+     * Threads of the client, e.g. to complete the asynchronous requests
+     */
+    private ExecutorService _executor = Executors.newCachedThreadPool(new NamedThreadFactory("ais-httpclient"));
+
+    /**
+     * The client, created with the first request
+     */
+    private HttpClient _client;
+
+    /**
+     * SSLContext the client was created with
+     */
+    private SSLContext _sslContext;
+
+    /**
+     * Constructor to set relevant parameters
+     *
+     * @param connect Connection used to get the SSLContext
+     * @param timeout Timeout in milli seconds to connect, 0 to use the default of the system
+     */
+    public HttpClientTransport(@Nonnull Connect connect, int timeout) {
+        this._connect = connect;
+        this._timeout = timeout;
+    }
+
+    @Override
+    @Nonnull
+    public InputStream send(@Nonnull String url, @Nonnull RequestBody body, @Nonnull String contentType)
+            throws IOException, GeneralSecurityException, InterruptedException {
+
+        HttpResponse<InputStream> response = getClient().send(createRequest(url, body, contentType),
+                HttpResponse.BodyHandlers.ofInputStream());
+        return getBody(response);
+    }
+
+    @Override
+    @Nonnull
+    public CompletableFuture<InputStream> sendAsync(@Nonnull String url, @Nonnull RequestBody body,
+                                                    @Nonnull String contentType) {
+
+        try {
+            return getClient().sendAsync(createRequest(url, body, contentType), HttpResponse.BodyHandlers.ofInputStream())
+                    .thenApply(new Function<HttpResponse<InputStream>, InputStream>() {
+                        @Override
+                        public InputStream apply(HttpResponse<InputStream> response) {
+                            try {
+                                return getBody(response);
+                            } catch (IOException e) {
+                                throw new CompletionException(e);
+                            }
+                        }
+                    });
+        } catch (Exception e) {
+            CompletableFuture<InputStream> future = new CompletableFuture<InputStream>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    @Override
+    public void close() {
+        // The client has no close method before Java 21, its connections are closed when it is not used anymore
+        _executor.shutdown();
+    }
+
+    /**
+     * Get the client. It is created with the first request, so the SSLContext is only built if a request is sent. If
+     * the certificate or key files changed Connect builds a new SSLContext and a new client is created with it, the
+     * requests of the old client still complete
+     *
+     * @return The client
+     * @throws GeneralSecurityException If the SSLContext can not be created
+     */
+    private synchronized HttpClient getClient() throws GeneralSecurityException {
+        SSLContext sslContext = _connect.getSSLContext();
+        if (_client == null || sslContext != _sslContext) {
+            HttpClient.Builder builder = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .sslContext(sslContext)
+                    .executor(_executor);
+            if (_timeout > 0) {
+                builder.connectTimeout(Duration.ofMillis(_timeout));
+            }
+            _client = builder.build();
+            _sslContext = sslContext;
+        }
+        return _client;
+    }
+
+    /**
+     * Create a POST request. The body is written to a buffer first, so the request can be repeated
+     *
+     * @param url         Url of server where to send the request
+     * @param body        Request body
+     * @param contentType Content type of request body
+     * @return Request
+     * @throws IOException If the body can not be written
+     */
+    private HttpRequest createRequest(@Nonnull String url, @Nonnull RequestBody body, @Nonnull String contentType)
+            throws IOException {
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        body.writeTo(buffer);
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(buffer.toByteArray()))
+                .build();
+    }
+
+    /**
+     * Get the body of a response
+     *
+     * @param response Response with the body as stream
+     * @return Response body
+     * @throws IOException If the server did not answer with status 200
+     */
+    private static InputStream getBody(@Nonnull HttpResponse<InputStream> response) throws IOException {
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("Server returned HTTP response code: " + response.statusCode() + " for URL: " + response.uri());
+        }
+        return response.body();
+    }
+}
@@ -0,0 +1,399 @@
+/**
+ * Splits a batch of documents into chunks which are signed with one request each
+ *
+ * Created:
+ * 17.10.26 KW42 19:05
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 19:05
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signs a large number of documents in chunks instead of one single batch request. Several chunks are in flight at
+ * the same time. Small chunks waste round trips, large chunks hold many prepared documents in memory and wait for the
+ * slowest step. The time of the signed chunks is split into a fixed time per request and a time per document, the
+ * chunk size is then tuned so that a chunk takes about the target time, but at least long enough that the fixed time
+ * per request is not more than a fifth of the chunk time. A new chunk is only started if the estimated memory of all
+ * chunks in flight stays within the memory budget. The budget is shared by all batches which are signed at the same
+ * time, e.g. by the requests of the sign server, and by the documents which are signed without chunks.
+ */
+public class BatchPlanner {
+
+    /**
+     * Weight of the previous chunks when a chunk was signed
+     */
+    private static final double DECAY = 0.8;
+
+    /**
+     * Minimal ratio of the time per document to the fixed time per request of a chunk
+     */
+    private static final double AMORTIZATION = 4;
+
+    /**
+     * Signs the documents of one chunk
+     */
+    public interface ChunkSigner {
+
+        /**
+         * Sign the documents of a chunk with one request
+         *
+         * @param from Index of the first document of the chunk
+         * @param to   Index after the last document of the chunk
+         * @throws Exception If the documents could not be signed
+         */
+        void sign(int from, int to) throws Exception;
+    }
+
+    /**
+     * Maximal number of documents per chunk
+     */
+    private int _maxChunkSize;
+
+    /**
+     * Maximal number of chunks in flight
+     */
+    private int _concurrency;
+
+    /**
+     * Time in milli seconds one chunk should take
+     */
+    private long _targetTime;
+
+    /**
+     * Maximal estimated memory in bytes of all chunks in flight
+     */
+    private long _memoryBudget;
+
+    /**
+     * Lock for the estimated memory in flight, it is notified when memory is released
+     */
+    private final Object _memoryLock = new Object();
+
+    /**
+     * Estimated memory in bytes of all chunks in flight of all batches
+     */
+    private long _inFlightSize;
+
+    /**
+     * Number of chunks in flight of all batches
+     */
+    private int _inFlightChunks;
+
+    /**
+     * Number of documents of the next chunk
+     */
+    private int _chunkSize;
+
+    /**
+     * Weighted number of signed chunks
+     */
+    private double _weight;
+
+    /**
+     * Weighted sum of the number of documents of the signed chunks
+     */
+    private double _sumDocuments;
+
+    /**
+     * Weighted sum of the time of the signed chunks
+     */
+    private double _sumTime;
+
+    /**
+     * Weighted sum of the squared number of documents of the signed chunks
+     */
+    private double _sumDocumentsSquared;
+
+    /**
+     * Weighted sum of the number of documents times the time of the signed chunks
+     */
+    private double _sumDocumentsTime;
+
+    /**
+     * Threads which sign the chunks. There are not more threads than chunks in flight
+     */
+    private ThreadPoolExecutor _executor;
+
+    /**
+     * Constructor to set relevant parameters
+     *
+     * @param chunkSize    Number of documents of the first chunk
+     * @param maxChunkSize Maximal number of documents per chunk
+     * @param concurrency  Maximal number of chunks in flight
+     * @param targetTime   Time in milli seconds one chunk should take
+     * @param memoryBudget Maximal estimated memory in bytes of all chunks in flight
+     */
+    public BatchPlanner(int chunkSize, int maxChunkSize, int concurrency, long targetTime, long memoryBudget) {
+        this._maxChunkSize = Math.max(1, maxChunkSize);
+        this._chunkSize = Math.max(1, Math.min(chunkSize, _maxChunkSize));
+        this._concurrency = Math.max(1, concurrency);
+        this._targetTime = targetTime;
+        this._memoryBudget = memoryBudget;
+
+        _executor = new ThreadPoolExecutor(_concurrency, _concurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("ais-batch"));
+        _executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sign documents in chunks. The documents are split in the given order. If a chunk fails no further chunks are
+     * started, the chunks in flight are completed and the first error is thrown. If the memory budget is used by other
+     * batches the call waits until memory is released
+     *
+     * @param documentSizes Estimated memory in bytes which is needed to sign each document
+     * @param signer        Signs the documents of one chunk
+     * @throws Exception If a chunk could not be signed
+     */
+    public void run(@Nonnull long[] documentSizes, @Nonnull final ChunkSigner signer) throws Exception {
+
+        CompletionService<Chunk> completionService = new ExecutorCompletionService<Chunk>(_executor);
+        Exception failure = null;
+        int next = 0;
+        int inFlight = 0;
+
+        while ((failure == null && next < documentSizes.length) || inFlight > 0) {
+
+            // Start chunks as long as the number of chunks and the memory budget allow it
+            while (failure == null && next < documentSizes.length && inFlight < _concurrency) {
+                int to = Math.min(documentSizes.length, next + getChunkSize());
+                long size = 0;
+                for (int i = next; i < to; i++) {
+                    size += documentSizes[i];
+                }
+                while (to - next > 1 && size > getFreeMemory()) {
+                    size -= documentSizes[--to];
+                }
+                // Without own chunks in flight wait until the other batches release memory
+                if (inFlight > 0) {
+                    if (!tryReserveMemory(size)) {
+                        break;
+                    }
+                } else {
+                    reserveMemory(size);
+                }
+
+                final Chunk chunk = new Chunk(next, to, size);
+                completionService.submit(new Callable<Chunk>() {
+                    public Chunk call() {
+                        long start = System.currentTimeMillis();
+                        try {
+                            signer.sign(chunk.from, chunk.to);
+                        } catch (Exception e) {
+                            chunk.failure = e;
+                        } finally {
+                            releaseMemory(chunk.size);
+                        }
+                        chunk.time = System.currentTimeMillis() - start;
+                        return chunk;
+                    }
+                });
+                if (Soap._debugMode) {
+                    System.out.println("\nStarted chunk of documents " + (chunk.from + 1) + "-" + chunk.to + " of "
+                            + documentSizes.length + " (estimated memory: " + size / 1024 + " KB)");
+                }
+
+                inFlight++;
+                next = to;
+            }
+
+            Chunk chunk = completionService.take().get();
+            inFlight--;
+
+            if (chunk.failure != null) {
+                if (failure == null) {
+                    failure = chunk.failure;
+                } else {
+                    failure.addSuppressed(chunk.failure);
+                }
+            } else {
+                update(chunk);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Stop the threads which sign the chunks. The chunks in flight are completed first
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting for the chunks
+     */
+    public void shutdown() throws InterruptedException {
+        _executor.shutdown();
+        _executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Wait until the estimated memory of documents fits into the memory budget and reserve it. Documents which are
+     * signed without chunks reserve their memory with this method. A size which exceeds the budget is reserved as soon
+     * as nothing else is in flight
+     *
+     * @param size Estimated memory in bytes
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public void reserveMemory(long size) throws InterruptedException {
+        synchronized (_memoryLock) {
+            while (!tryReserveMemory(size)) {
+                _memoryLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Release memory which was reserved before
+     *
+     * @param size Estimated memory in bytes
+     */
+    public void releaseMemory(long size) {
+        synchronized (_memoryLock) {
+            _inFlightSize -= size;
+            _inFlightChunks--;
+            _memoryLock.notifyAll();
+        }
+    }
+
+    /**
+     * Reserve the estimated memory of documents if it fits into the memory budget or if nothing else is in flight
+     *
+     * @param size Estimated memory in bytes
+     * @return True if the memory was reserved
+     */
+    private boolean tryReserveMemory(long size) {
+        synchronized (_memoryLock) {
+            if (_inFlightChunks > 0 && _inFlightSize + size > _memoryBudget) {
+                return false;
+            }
+            _inFlightSize += size;
+            _inFlightChunks++;
+            return true;
+        }
+    }
+
+    /**
+     * Get the memory of the budget which is not reserved
+     *
+     * @return Memory in bytes
+     */
+    private long getFreeMemory() {
+        synchronized (_memoryLock) {
+            return _memoryBudget - _inFlightSize;
+        }
+    }
+
+    /**
+     * Get number of documents of the next chunk
+     *
+     * @return Chunk size
+     */
+    public synchronized int getChunkSize() {
+        return _chunkSize;
+    }
+
+    /**
+     * Update the times with a signed chunk and set the size of the next chunk. The time per request and per document
+     * are fitted by linear regression over the signed chunks, recent chunks have a higher weight. As long as the chunk
+     * sizes do not differ enough, the whole time is taken as time per document. The chunk size is at most doubled or
+     * halved per chunk
+     *
+     * @param chunk Signed chunk
+     */
+    private synchronized void update(@Nonnull Chunk chunk) {
+        int documents = chunk.to - chunk.from;
+        _weight = DECAY * _weight + 1;
+        _sumDocuments = DECAY * _sumDocuments + documents;
+        _sumTime = DECAY * _sumTime + chunk.time;
+        _sumDocumentsSquared = DECAY * _sumDocumentsSquared + (double) documents * documents;
+        _sumDocumentsTime = DECAY * _sumDocumentsTime + (double) documents * chunk.time;
+
+        double meanDocuments = _sumDocuments / _weight;
+        double meanTime = _sumTime / _weight;
+        double variance = _sumDocumentsSquared / _weight - meanDocuments * meanDocuments;
+        double covariance = _sumDocumentsTime / _weight - meanDocuments * meanTime;
+
+        double timePerDocument = meanTime / meanDocuments;
+        double timePerRequest = 0;
+        if (variance >= 1 && covariance > 0) {
+            timePerDocument = covariance / variance;
+            timePerRequest = Math.max(0, meanTime - timePerDocument * meanDocuments);
+        }
+        timePerDocument = Math.max(timePerDocument, 1);
+
+        double chunkSize = Math.max((_targetTime - timePerRequest) / timePerDocument, AMORTIZATION * timePerRequest / timePerDocument);
+        chunkSize = Math.max(_chunkSize / 2, Math.min(chunkSize, 2L * _chunkSize));
+        _chunkSize = (int) Math.max(1, Math.min(Math.round(chunkSize), _maxChunkSize));
+
+        if (Soap._debugMode) {
+            System.out.println("\nSigned chunk of documents " + (chunk.from + 1) + "-" + chunk.to + " in " + chunk.time
+                    + " ms (" + Math.round(timePerRequest) + " ms per request, " + Math.round(timePerDocument)
+                    + " ms per document), next chunk size: " + _chunkSize);
+        }
+    }
+
+    /**
+     * Documents which are signed with one request
+     */
+    private static class Chunk {
+
+        /**
+         * Index of the first document
+         */
+        final int from;
+
+        /**
+         * Index after the last document
+         */
+        final int to;
+
+        /**
+         * Estimated memory in bytes
+         */
+        final long size;
+
+        /**
+         * Time in milli seconds the chunk took
+         */
+        long time;
+
+        /**
+         * Error if the chunk could not be signed
+         */
+        Exception failure;
+
+        /**
+         * Constructor for this class
+         *
+         * @param from Index of the first document
+         * @param to   Index after the last document
+         * @param size Estimated memory in bytes
+         */
+        Chunk(int from, int to, long size) {
+            this.from = from;
+            this.to = to;
+            this.size = size;
+        }
+    }
+}
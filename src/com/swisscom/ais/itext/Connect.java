@@ -35,15 +35,27 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.net.ssl.*;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.net.*;
 import java.security.*;
 import java.security.cert.*;
 import java.security.cert.Certificate;
+import java.security.interfaces.RSAKey;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Connect {
 
@@ -77,6 +89,23 @@ public class Connect {
      */
     private int _timeout;
 
+    /**
+     * Socket factories which are already built, keyed by configuration (client certificate, private key, server
+     * certificate). They are shared by all instances of this class and all requests using the same configuration
+     */
+    private static final ConcurrentMap<String, CachedSocketFactory> _socketFactories =
+            new ConcurrentHashMap<String, CachedSocketFactory>();
+
+    /**
+     * Number of times a SSLContext was built
+     */
+    private static final AtomicLong _contextBuilds = new AtomicLong();
+
+    /**
+     * Number of times an already built SSLContext was reused
+     */
+    private static final AtomicLong _contextReuses = new AtomicLong();
+
     /**
      * Constructor to set relevant parameters and add security provider
      *
@@ -96,7 +125,9 @@ public class Connect {
         this._timeout = timeout;
         _debugMode = debug;
 
-        Security.addProvider(new BouncyCastleProvider());
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
     }
 
     /**
@@ -110,15 +141,128 @@ public class Connect {
     @Nullable
     public URLConnection getConnection() throws KeyManagementException, NoSuchAlgorithmException, IOException {
 
-        KeyManager[] keyManagers = createKeyManagers();
-        TrustManager[] trustManagers = createTrustManagers();
-        SSLSocketFactory factory = initItAll(keyManagers, trustManagers);
-        URLConnection con = createConnectionObject(_url, factory);
+        return getConnection(_url);
+    }
+
+    /**
+     * Get a connection object for the given url. The socket factory is taken from the cache if the configured
+     * certificate and key files did not change since it was built.
+     *
+     * @param url URL of the server where to connect
+     * @return A URLConnection to the URL. If it is a https connection return type will be a HttpsURLConnection
+     * @throws KeyManagementException   If SSLContext can not be initialized
+     * @throws NoSuchAlgorithmException If no provider supports a TrustManagerFactorySpi implementation for the specified protocol
+     * @throws IOException              If the string specifies an unknown protocol or if an I/O exception occurs
+     */
+    @Nullable
+    public URLConnection getConnection(@Nonnull String url) throws KeyManagementException, NoSuchAlgorithmException, IOException {
+
+        URLConnection con = createConnectionObject(url, getSocketFactory());
         con.setConnectTimeout(_timeout);
 
         return con;
     }
 
+    /**
+     * Get the socket factory for this configuration. The SSLContext is only built if there is no cached one yet or if
+     * one of the certificate or key files was modified on disk since it was built.
+     *
+     * @return The SSL socket factory
+     * @throws KeyManagementException   If SSLContext can not be initialized
+     * @throws NoSuchAlgorithmException If no provider supports a TrustManagerFactorySpi implementation for the specified protocol
+     */
+    @Nonnull
+    public SSLSocketFactory getSocketFactory() throws KeyManagementException, NoSuchAlgorithmException {
+        return getCachedSocketFactory().factory;
+    }
+
+    /**
+     * Get the SSLContext for this configuration, e.g. for a HTTP client. The same cached SSLContext as for the socket
+     * factory is used
+     *
+     * @return The SSLContext
+     * @throws KeyManagementException   If SSLContext can not be initialized
+     * @throws NoSuchAlgorithmException If no provider supports a TrustManagerFactorySpi implementation for the specified protocol
+     */
+    @Nonnull
+    public SSLContext getSSLContext() throws KeyManagementException, NoSuchAlgorithmException {
+        return getCachedSocketFactory().context;
+    }
+
+    /**
+     * Get the cached SSLContext and socket factory or build them if the certificate or key files changed
+     *
+     * @return Cached SSLContext and socket factory
+     * @throws KeyManagementException   If SSLContext can not be initialized
+     * @throws NoSuchAlgorithmException If no provider supports a TrustManagerFactorySpi implementation for the specified protocol
+     */
+    @Nonnull
+    private CachedSocketFactory getCachedSocketFactory() throws KeyManagementException, NoSuchAlgorithmException {
+
+        String key = _clientCert + File.pathSeparator + _privateKey + File.pathSeparator + _serverCert;
+        String stamp = getFileStamp();
+
+        CachedSocketFactory cached = _socketFactories.get(key);
+        if (cached != null && cached.stamp.equals(stamp)) {
+            _contextReuses.incrementAndGet();
+            return cached;
+        }
+
+        synchronized (_socketFactories) {
+            cached = _socketFactories.get(key);
+            if (cached != null && cached.stamp.equals(stamp)) {
+                _contextReuses.incrementAndGet();
+                return cached;
+            }
+
+            if (_debugMode) {
+                System.out.println(cached == null ? "Building SSLContext for " + _clientCert :
+                        "Certificate or key file changed, rebuilding SSLContext for " + _clientCert);
+            }
+
+            KeyManager[] keyManagers = createKeyManagers();
+            TrustManager[] trustManagers = createTrustManagers();
+            cached = new CachedSocketFactory(initItAll(keyManagers, trustManagers), stamp);
+            _socketFactories.put(key, cached);
+            _contextBuilds.incrementAndGet();
+
+            return cached;
+        }
+    }
+
+    /**
+     * Get the number of times a SSLContext was built
+     *
+     * @return Number of built SSLContexts
+     */
+    public static long getContextBuildCount() {
+        return _contextBuilds.get();
+    }
+
+    /**
+     * Get the number of times an already built SSLContext was reused
+     *
+     * @return Number of reused SSLContexts
+     */
+    public static long getContextReuseCount() {
+        return _contextReuses.get();
+    }
+
+    /**
+     * Create a stamp of the certificate and key files. The stamp changes if one of the files is modified on disk.
+     *
+     * @return Last modification time and length of all files as String
+     */
+    private String getFileStamp() {
+
+        StringBuilder stamp = new StringBuilder();
+        for (String path : new String[]{_clientCert, _privateKey, _serverCert}) {
+            File file = new File(path);
+            stamp.append(file.lastModified()).append('/').append(file.length()).append(';');
+        }
+        return stamp.toString();
+    }
+
     /**
      * Creates a connection object
      *
@@ -139,98 +283,282 @@ public class Connect {
     }
 
     /**
-     * Inits SSLContext and create a SocketFactoryObject
+     * Inits SSLContext
      *
      * @param keyManagers   Sources of authentication keys
      * @param trustManagers Sources of peer authentication trust decisions
-     * @return A SocketFactory object
+     * @return The initialized SSLContext
      * @throws NoSuchAlgorithmException If no provider supports a TrustManagerFactorySpi implementation for the specified protocol
      * @throws KeyManagementException   If SSLContext can not be initialized
      */
-    private SSLSocketFactory initItAll(@Nonnull KeyManager[] keyManagers, @Nonnull TrustManager[] trustManagers) throws NoSuchAlgorithmException, KeyManagementException {
+    private SSLContext initItAll(@Nonnull KeyManager[] keyManagers, @Nonnull TrustManager[] trustManagers) throws NoSuchAlgorithmException, KeyManagementException {
 
         SSLContext context = SSLContext.getInstance("TLS");
         context.init(keyManagers, trustManagers, null);
-        SSLSocketFactory socketFactory = context.getSocketFactory();
-        return socketFactory;
+        return context;
     }
 
     /**
      * Create KeyManagers to handle keys
      *
      * @return Array with KeyManager objects
+     * @throws KeyManagementException If private key or client certificate can not be read
      */
-    private KeyManager[] createKeyManagers() {
+    private KeyManager[] createKeyManagers() throws KeyManagementException {
 
-        KeyManager[] managers = new KeyManager[]{new Connect(_url, _privateKey, _serverCert, _clientCert, _timeout,
-                _debugMode).new AliasKeyManager(_clientCert, _privateKey, _serverCert, _debugMode)};
+        KeyManager[] managers = new KeyManager[]{new AliasKeyManager(_clientCert, _privateKey, _serverCert, _debugMode)};
 
         return managers;
     }
 
     /**
-     * Create TrustManagers to check validation of server certificates. Here TrustManagers will not check if a client is trusted
+     * Create TrustManagers to check validation of server certificates against the configured server (root CA)
+     * certificates. Here TrustManagers will not check if a client is trusted
      *
      * @return Array with Trustmanager object
+     * @throws KeyManagementException If the server certificates can not be read
      */
-    @Nullable
-    private TrustManager[] createTrustManagers() {
+    @Nonnull
+    private TrustManager[] createTrustManagers() throws KeyManagementException {
+
+        TrustManager[] trustManagers = new TrustManager[]{new CachingTrustManager(_serverCert, _debugMode)};
+
+        return trustManagers;
+    }
+
+    /**
+     * A socket factory together with the stamp of the files it was built from
+     */
+    private static class CachedSocketFactory {
+
+        /**
+         * The SSLContext
+         */
+        private final SSLContext context;
+
+        /**
+         * The SSL socket factory of the SSLContext
+         */
+        private final SSLSocketFactory factory;
+
+        /**
+         * Stamp of the certificate and key files when the factory was built
+         */
+        private final String stamp;
 
-        TrustManager[] trustAllCerts = new TrustManager[]{new X509TrustManager() {
+        /**
+         * Constructor for this class. Sets variables
+         *
+         * @param context The SSLContext
+         * @param stamp   Stamp of the certificate and key files
+         */
+        private CachedSocketFactory(@Nonnull SSLContext context, @Nonnull String stamp) {
+            this.context = context;
+            this.factory = context.getSocketFactory();
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Validates server certificate chains with PKIX against the certificates of the server certificate file. Chains
+     * which were validated successfully are cached by their fingerprint, so repeated handshakes with the same servers
+     * do not validate the path again. The cache is bounded and an entry expires after a fixed time or when one of the
+     * certificates of the chain expires, whichever comes first.
+     */
+    private static class CachingTrustManager implements X509TrustManager {
+
+        /**
+         * Maximal number of cached chains
+         */
+        private static final int CACHE_SIZE = 32;
+
+        /**
+         * Time in milli seconds after which a cached chain has to be validated again
+         */
+        private static final long CACHE_TTL = 60 * 60 * 1000;
+
+        /**
+         * Trust anchors from the server certificate file
+         */
+        private Set<TrustAnchor> _trustAnchors;
+
+        /**
+         * Certificates from the server certificate file
+         */
+        private X509Certificate[] _trustedCertificates;
 
-            X509Certificate[] trustedIssuers = null;
+        /**
+         * If value is set to true debug information will be print out otherwise not
+         */
+        private boolean _debugMode;
+
+        /**
+         * Expiry time of validated chains, keyed by fingerprint of the chain. Least recently used entries are removed first
+         */
+        private final Map<String, Long> _validatedChains = new LinkedHashMap<String, Long>(CACHE_SIZE, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
 
             @Override
-            public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
-                //not relevant here
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > CACHE_SIZE;
             }
+        };
 
-            @Override
-            public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+        /**
+         * Constructor for this class. Reads the trusted certificates
+         *
+         * @param serverCert Path of file with the trusted (root CA) certificates of the server
+         * @param debugMode  If set to true debug information will be print out otherwise not
+         * @throws KeyManagementException If the file can not be read or contains no certificate
+         */
+        public CachingTrustManager(@Nonnull String serverCert, boolean debugMode) throws KeyManagementException {
 
-                if (chain == null || chain.length < 2) {
-                    throw new CertificateException("Error when validating server certificate");
+            this._debugMode = debugMode;
+
+            Collection<? extends Certificate> certificates;
+            try {
+                FileInputStream fis = new FileInputStream(serverCert);
+                try {
+                    certificates = CertificateFactory.getInstance("X.509").generateCertificates(fis);
+                } finally {
+                    fis.close();
                 }
+            } catch (Exception e) {
+                throw new KeyManagementException("Could not read server certificates " + serverCert, e);
+            }
 
-                X509Certificate certToVerify = chain[0];
-                CertificateFactory cf = CertificateFactory.getInstance("X.509");
-                CertPath cp = cf.generateCertPath(Arrays.asList(new X509Certificate[]{certToVerify}));
+            if (certificates.isEmpty()) {
+                throw new KeyManagementException("No certificate found in " + serverCert);
+            }
 
-                TrustAnchor trustAnchor = new TrustAnchor(chain[1], null);
+            _trustAnchors = new HashSet<TrustAnchor>();
+            _trustedCertificates = new X509Certificate[certificates.size()];
+            int i = 0;
+            for (Certificate certificate : certificates) {
+                _trustedCertificates[i++] = (X509Certificate) certificate;
+                _trustAnchors.add(new TrustAnchor((X509Certificate) certificate, null));
+            }
+        }
 
-                CertPathValidator cpv = null;
-                try {
-                    cpv = CertPathValidator.getInstance("PKIX");
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+            //not relevant here
+        }
 
-                    PKIXParameters pkixParams = new PKIXParameters(Collections.singleton(trustAnchor));
-                    pkixParams.setRevocationEnabled(false);
+        /**
+         * Check if the server certificate chain is trusted. A chain which was validated before is taken from the cache
+         *
+         * @param chain    Certificate chain of the server
+         * @param authType Key exchange algorithm
+         * @throws CertificateException If the chain can not be validated against the trusted certificates
+         */
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
 
-                    CertPathValidatorResult validated = cpv.validate(cp, pkixParams);
+            if (chain == null || chain.length == 0) {
+                throw new CertificateException("Error when validating server certificate");
+            }
+
+            String fingerprint = getFingerprint(chain);
+            long now = System.currentTimeMillis();
 
-                    if (validated == null) {
-                        throw new CertificateException("Error when validating server certificate");
+            synchronized (_validatedChains) {
+                Long expiry = _validatedChains.get(fingerprint);
+                if (expiry != null) {
+                    if (now < expiry) {
+                        return;
                     }
+                    _validatedChains.remove(fingerprint);
+                }
+            }
+
+            validate(chain);
 
-                    trustedIssuers = chain;
+            long expiry = now + CACHE_TTL;
+            for (X509Certificate certificate : chain) {
+                expiry = Math.min(expiry, certificate.getNotAfter().getTime());
+            }
 
-                } catch (Exception e) {
-                    throw new CertificateException("Error when validating server certificate");
+            synchronized (_validatedChains) {
+                _validatedChains.put(fingerprint, expiry);
+            }
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return _trustedCertificates.clone();
+        }
+
+        /**
+         * Validate the chain with PKIX. The path ends before the first certificate which is a trusted certificate
+         *
+         * @param chain Certificate chain of the server
+         * @throws CertificateException If the chain can not be validated against the trusted certificates
+         */
+        private void validate(@Nonnull X509Certificate[] chain) throws CertificateException {
+
+            List<X509Certificate> path = new ArrayList<X509Certificate>();
+            for (X509Certificate certificate : chain) {
+                if (Arrays.asList(_trustedCertificates).contains(certificate)) {
+                    break;
                 }
+                path.add(certificate);
             }
 
-            @Override
-            public X509Certificate[] getAcceptedIssuers() {
-                return trustedIssuers;
+            if (path.isEmpty()) {
+                // the server certificate itself is trusted
+                chain[0].checkValidity();
+                return;
+            }
+
+            try {
+                CertificateFactory cf = CertificateFactory.getInstance("X.509");
+                CertPath cp = cf.generateCertPath(path);
+
+                CertPathValidator cpv = CertPathValidator.getInstance("PKIX");
+                PKIXParameters pkixParams = new PKIXParameters(_trustAnchors);
+                pkixParams.setRevocationEnabled(false);
+
+                cpv.validate(cp, pkixParams);
+            } catch (Exception e) {
+                if (_debugMode) {
+                    System.out.println("Server certificate " + chain[0].getSubjectX500Principal() + " is not trusted: " + e.getMessage());
+                }
+                throw new CertificateException("Error when validating server certificate", e);
             }
-        }};
 
-        return trustAllCerts;
+            if (_debugMode) {
+                System.out.println("Validated server certificate " + chain[0].getSubjectX500Principal());
+            }
+        }
+
+        /**
+         * Create fingerprint of a certificate chain
+         *
+         * @param chain Certificate chain
+         * @return Hex encoded SHA-256 hash over the encoded certificates
+         * @throws CertificateException If a certificate can not be encoded
+         */
+        private String getFingerprint(@Nonnull X509Certificate[] chain) throws CertificateException {
+
+            try {
+                MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+                for (X509Certificate certificate : chain) {
+                    messageDigest.update(certificate.getEncoded());
+                }
+                return new BigInteger(1, messageDigest.digest()).toString(16);
+            } catch (NoSuchAlgorithmException e) {
+                throw new CertificateException(e);
+            }
+        }
     }
 
     /**
      * Instances manage which certificate-based key pairs are used to authenticate the local side of a secure socket.
+     * The private key and certificate chain are read and decoded once when the key manager is created, every later
+     * handshake is served from memory.
      */
-    private class AliasKeyManager implements X509KeyManager {
+    private static class AliasKeyManager implements X509KeyManager {
 
         /**
          * Path of certificate for a client to authenticate to a server
@@ -253,20 +581,43 @@ public class Connect {
         private boolean _debugMode;
 
         /**
-         * Constructor for this class. Sets variables
+         * Client certificate chain, decoded from the client certificate file
+         */
+        private X509Certificate[] _certificateChain;
+
+        /**
+         * Private key, decoded from the private key file
+         */
+        private PrivateKey _key;
+
+        /**
+         * Constructor for this class. Sets variables, reads the private key and the client certificate and checks
+         * that they belong together
          *
          * @param clientCert     Path of certificate to authenticate to a server
          * @param privateKeyName Path of private key
          * @param serverCert     Path of certificate from server to authenticate it
          * @param debugMode      If set to true debug information will be print out otherwise not
+         * @throws KeyManagementException If private key or certificate can not be read or do not match
          */
         public AliasKeyManager(@Nonnull String clientCert, @Nonnull String privateKeyName,
-                               @Nonnull String serverCert, boolean debugMode) {
+                               @Nonnull String serverCert, boolean debugMode) throws KeyManagementException {
 
             this.clientCert = clientCert;
             this._privateKeyName = privateKeyName;
             this._serverCert = serverCert;
             this._debugMode = debugMode;
+
+            try {
+                this._certificateChain = readCertificateChain(clientCert);
+                this._key = readPrivateKey(privateKeyName);
+            } catch (Exception e) {
+                if (_debugMode)
+                    e.printStackTrace();
+                throw new KeyManagementException("Could not read client certificate " + clientCert + " or private key " + privateKeyName, e);
+            }
+
+            checkKeyMatchesCertificate();
         }
 
         /**
@@ -294,23 +645,14 @@ public class Connect {
         }
 
         /**
-         * Create X509 certificate chain from client certificate to authenticate against a server
+         * Get X509 certificate chain from client certificate to authenticate against a server
          *
-         * @param clientCertFilePath Path of client certificate
-         * @return Array with X509 certificates. Null if chain can not be created of client certificate
+         * @param alias Path of client certificate
+         * @return Array with X509 certificates. Null if alias is not the client certificate
          */
         @Nullable
-        public X509Certificate[] getCertificateChain(String clientCertFilePath) {
-
-            try {
-                CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
-                Certificate certificate = certificateFactory.generateCertificate(new FileInputStream(clientCertFilePath));
-                return new X509Certificate[]{(X509Certificate) certificate};
-            } catch (Exception e) {
-                if (_debugMode)
-                    e.printStackTrace();
-                return null;
-            }
+        public X509Certificate[] getCertificateChain(String alias) {
+            return clientCert.equals(alias) ? _certificateChain : null;
         }
 
         /**
@@ -335,56 +677,107 @@ public class Connect {
             return new String[]{clientCert};
         }
 
+        /**
+         * Get the private key which belongs to the client certificate
+         *
+         * @param alias Path of client certificate
+         * @return PrivateKey. Null if alias is not the client certificate
+         */
+        @Nullable
+        public PrivateKey getPrivateKey(String alias) {
+            return clientCert.equals(alias) ? _key : null;
+        }
+
+        /**
+         * Create X509 certificate chain from client certificate file
+         *
+         * @param clientCertFilePath Path of client certificate
+         * @return Array with X509 certificates
+         * @throws CertificateException If certificate can not be parsed
+         * @throws IOException          If certificate file can not be read
+         */
+        @Nonnull
+        private X509Certificate[] readCertificateChain(@Nonnull String clientCertFilePath) throws CertificateException, IOException {
+
+            FileInputStream fis = new FileInputStream(clientCertFilePath);
+            try {
+                CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+                Certificate certificate = certificateFactory.generateCertificate(fis);
+                return new X509Certificate[]{(X509Certificate) certificate};
+            } finally {
+                fis.close();
+            }
+        }
+
         /**
          * Create private key from file. Creating the key depends on the type. An existing X509 key file can be immediately
          * convert to a PrivateKey object. If source file is a RSA key it is necessary to create a PEMKeyPair first and
-         * afterwards convert to PrivateKey object
+         * afterwards convert to PrivateKey object. An encrypted key is decrypted with the system property keystore.password
          *
          * @param privateKeyPath Path of private key
-         * @return PrivateKey if key can be generated otherwise null
+         * @return PrivateKey
+         * @throws Exception If key can not be read, decrypted or converted
          */
-        @Nullable
-        public PrivateKey getPrivateKey(String privateKeyPath) {
+        @Nonnull
+        private PrivateKey readPrivateKey(@Nonnull String privateKeyPath) throws Exception {
 
+            BufferedReader br = new BufferedReader(new FileReader(privateKeyPath));
+            PEMParser pemParser = new PEMParser(br);
             try {
-                BufferedReader br = new BufferedReader(new FileReader(_privateKeyName));
-
                 //if we read a X509 key we will get immediately PrivatekeyInfo if key is a RSA key it is necessary to
                 //create a PEMKeyPair first
-                PrivateKeyInfo privateKeyInfo = null;
-                PEMParser pemParser = null;
-                try {
-                    pemParser = new PEMParser(br);
-                    privateKeyInfo = (PrivateKeyInfo) pemParser.readObject();
-                } catch (Exception e) {
-                    br.close();
-                    br = new BufferedReader(new FileReader(_privateKeyName));
-                    pemParser = new PEMParser(br);
-                    Object pemKeyPair = pemParser.readObject();
-                    if (pemKeyPair instanceof PEMEncryptedKeyPair) {
-                        String password=System.getProperty("keystore.password");
-                        PEMDecryptorProvider decryptionProv = new JcePEMDecryptorProviderBuilder().build(password.toCharArray());
-                        PEMKeyPair decryptedKeyPair = ((PEMEncryptedKeyPair) pemKeyPair).decryptKeyPair(decryptionProv);
-                        privateKeyInfo = decryptedKeyPair.getPrivateKeyInfo();
-                    }
-                    else {
-                        privateKeyInfo = ((PEMKeyPair)pemKeyPair).getPrivateKeyInfo();
+                Object pemObject = pemParser.readObject();
+                PrivateKeyInfo privateKeyInfo;
+                if (pemObject instanceof PrivateKeyInfo) {
+                    privateKeyInfo = (PrivateKeyInfo) pemObject;
+                } else if (pemObject instanceof PEMEncryptedKeyPair) {
+                    String password = System.getProperty("keystore.password");
+                    if (password == null) {
+                        throw new KeyManagementException("Private key is encrypted but system property keystore.password is not set");
                     }
+                    PEMDecryptorProvider decryptionProv = new JcePEMDecryptorProviderBuilder().build(password.toCharArray());
+                    PEMKeyPair decryptedKeyPair = ((PEMEncryptedKeyPair) pemObject).decryptKeyPair(decryptionProv);
+                    privateKeyInfo = decryptedKeyPair.getPrivateKeyInfo();
+                } else if (pemObject instanceof PEMKeyPair) {
+                    privateKeyInfo = ((PEMKeyPair) pemObject).getPrivateKeyInfo();
+                } else {
+                    throw new KeyManagementException("No private key found in " + privateKeyPath);
                 }
 
+                JcaPEMKeyConverter jcaPEMKeyConverter = new JcaPEMKeyConverter();
+                return jcaPEMKeyConverter.getPrivateKey(privateKeyInfo);
+            } finally {
                 pemParser.close();
                 br.close();
+            }
+        }
 
-                JcaPEMKeyConverter jcaPEMKeyConverter = new JcaPEMKeyConverter();
-                java.security.PrivateKey privateKey = jcaPEMKeyConverter.getPrivateKey(privateKeyInfo);
+        /**
+         * Check that private key and client certificate belong together and that the certificate is currently valid
+         *
+         * @throws KeyManagementException If key and certificate do not match or the certificate is not valid
+         */
+        private void checkKeyMatchesCertificate() throws KeyManagementException {
 
-                return privateKey;
+            X509Certificate certificate = _certificateChain[0];
+            PublicKey publicKey = certificate.getPublicKey();
 
-            } catch (Exception e) {
-                if (_debugMode)
-                    e.printStackTrace();
+            if (!publicKey.getAlgorithm().equals(_key.getAlgorithm())) {
+                throw new KeyManagementException("Private key " + _privateKeyName + " (" + _key.getAlgorithm() +
+                        ") does not match client certificate " + clientCert + " (" + publicKey.getAlgorithm() + ")");
+            }
 
-                return null;
+            if (publicKey instanceof RSAKey && _key instanceof RSAKey &&
+                    !((RSAKey) publicKey).getModulus().equals(((RSAKey) _key).getModulus())) {
+                throw new KeyManagementException("Private key " + _privateKeyName + " does not match client certificate " + clientCert);
+            }
+
+            try {
+                certificate.checkValidity();
+            } catch (CertificateException e) {
+                if (_debugMode) {
+                    System.out.println("Client certificate " + clientCert + " is not valid: " + e.getMessage());
+                }
             }
         }
     }
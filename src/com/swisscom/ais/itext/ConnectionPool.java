@@ -0,0 +1,991 @@
+/**
+ * Pool of persistent (keep-alive) HTTP connections to the server
+ *
+ * Created:
+ * 17.10.26 KW42 09:12
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 09:12
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps HTTP/1.1 connections to the server open and reuses them for further requests. The number of connections per
+ * endpoint is bounded, idle connections are closed after a timeout and every connection is checked before it is reused.
+ * This is the default transport on Java 8, where the HTTP client of Java 11 is not available.
+ * <p/>
+ * A connection is reused only if it is idle for less than CONNECTION_IDLE_TIMEOUT and less than the keep-alive timeout
+ * announced by the server, and if the server did not close it. A server may still close an idle connection just while
+ * a request is sent on it. If this happens before the request was written the request is sent again on a new
+ * connection, if the connection is closed while waiting for the response the request fails, because the server may
+ * have processed it.
+ */
+public class ConnectionPool implements Transport {
+
+    /**
+     * Connection used to get the SSL socket factory
+     */
+    private Connect _connect;
+
+    /**
+     * Maximal number of connections per endpoint
+     */
+    private int _maxConnections;
+
+    /**
+     * Time in milli seconds after which an idle connection will be closed
+     */
+    private long _idleTimeout;
+
+    /**
+     * Connection timeout in milli seconds
+     */
+    private int _timeout;
+
+    /**
+     * Time in milli seconds a request waits for a free connection, 0 to wait until one is free
+     */
+    private long _waitTimeout;
+
+    /**
+     * Endpoints with their idle connections, keyed by scheme, host and port
+     */
+    private final ConcurrentMap<String, Endpoint> _endpoints = new ConcurrentHashMap<String, Endpoint>();
+
+    /**
+     * Number of requests which reused an open connection
+     */
+    private final AtomicLong _hits = new AtomicLong();
+
+    /**
+     * Number of requests which had to open a new connection
+     */
+    private final AtomicLong _misses = new AtomicLong();
+
+    /**
+     * Number of TLS handshakes
+     */
+    private final AtomicLong _handshakes = new AtomicLong();
+
+    /**
+     * Threads for asynchronous requests. There are not more threads than connections per endpoint
+     */
+    private ThreadPoolExecutor _executor;
+
+    /**
+     * Constructor to set relevant parameters
+     *
+     * @param connect        Connection used to get the SSL socket factory
+     * @param maxConnections Maximal number of connections per endpoint
+     * @param idleTimeout    Time in milli seconds after which an idle connection will be closed
+     * @param timeout        Connection timeout in milli seconds
+     * @param waitTimeout    Time in milli seconds a request waits for a free connection, 0 to wait until one is free
+     */
+    public ConnectionPool(@Nonnull Connect connect, int maxConnections, long idleTimeout, int timeout, long waitTimeout) {
+        this._connect = connect;
+        this._maxConnections = Math.max(1, maxConnections);
+        this._idleTimeout = idleTimeout;
+        this._timeout = timeout;
+        this._waitTimeout = waitTimeout;
+
+        _executor = new ThreadPoolExecutor(_maxConnections, _maxConnections, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("ais-connection"));
+        _executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Send a POST request to the server. The returned stream contains the response body, the connection will be given
+     * back to the pool when the stream was read completely and closed.
+     *
+     * @param urlString   Url of server where to send the request
+     * @param body        Request body
+     * @param contentType Content type of request body
+     * @return Response body
+     * @throws IOException              If sending the request or reading the response failed or server did not answer with status 200
+     * @throws GeneralSecurityException If the SSL socket factory can not be created
+     * @throws InterruptedException     If waiting for a free connection was interrupted
+     */
+    @Override
+    @Nonnull
+    public InputStream send(@Nonnull String urlString, @Nonnull RequestBody body, @Nonnull String contentType)
+            throws IOException, GeneralSecurityException, InterruptedException {
+
+        URL url = new URL(urlString);
+        Endpoint endpoint = getEndpoint(url);
+
+        if (_waitTimeout <= 0) {
+            endpoint.permits.acquire();
+        } else if (!endpoint.permits.tryAcquire(_waitTimeout, TimeUnit.MILLISECONDS)) {
+            throw new IOException("No free connection to " + endpoint.key + " within " + _waitTimeout
+                    + " ms (CONNECTION_WAIT_TIMEOUT)");
+        }
+
+        ResponseStream response = null;
+        try {
+            PooledConnection connection = endpoint.checkOut();
+            boolean reused = connection != null;
+            if (reused) {
+                _hits.incrementAndGet();
+            } else {
+                connection = open(url);
+                _misses.incrementAndGet();
+            }
+
+            try {
+                response = exchange(endpoint, connection, url, body, contentType);
+            } catch (StaleConnectionException e) {
+                connection.close();
+                if (!reused) {
+                    throw e;
+                }
+                // the server closed the reused connection before any byte of the request was sent, so the request
+                // could not have been processed. Try once more with a new one
+                _misses.incrementAndGet();
+                connection = open(url);
+                response = exchange(endpoint, connection, url, body, contentType);
+            }
+        } finally {
+            // the permit is released by the response stream when it is closed
+            if (response == null) {
+                endpoint.permits.release();
+            }
+        }
+
+        if (response.status != 200) {
+            response.discard();
+            throw new IOException("Server returned HTTP response code: " + response.status + " for URL: " + url);
+        }
+        return response;
+    }
+
+    /**
+     * Send a POST request to the server on a thread of the pool. Requests wait for a free connection in the order they
+     * were sent
+     *
+     * @param url         Url of server where to send the request
+     * @param body        Request body
+     * @param contentType Content type of request body
+     * @return Future which is completed with the response body or with the exception of the request
+     */
+    @Override
+    @Nonnull
+    public CompletableFuture<InputStream> sendAsync(@Nonnull final String url, @Nonnull final RequestBody body,
+                                                    @Nonnull final String contentType) {
+
+        final CompletableFuture<InputStream> future = new CompletableFuture<InputStream>();
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(send(url, body, contentType));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Get number of requests which reused an open connection
+     *
+     * @return Number of pool hits
+     */
+    public long getHits() {
+        return _hits.get();
+    }
+
+    /**
+     * Get number of requests which had to open a new connection
+     *
+     * @return Number of pool misses
+     */
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    /**
+     * Get number of TLS handshakes
+     *
+     * @return Number of handshakes
+     */
+    public long getHandshakes() {
+        return _handshakes.get();
+    }
+
+    /**
+     * Close all idle connections and stop the threads for asynchronous requests
+     */
+    @Override
+    public void close() {
+        _executor.shutdown();
+        for (Endpoint endpoint : _endpoints.values()) {
+            endpoint.closeIdle(0);
+        }
+    }
+
+    /**
+     * Get endpoint for url. Creates a new endpoint if there is none yet
+     *
+     * @param url Url of server
+     * @return Endpoint for scheme, host and port of url
+     */
+    private Endpoint getEndpoint(@Nonnull URL url) {
+
+        String key = url.getProtocol() + "://" + url.getHost() + ":" + getPort(url);
+        Endpoint endpoint = _endpoints.get(key);
+        if (endpoint == null) {
+            Endpoint created = new Endpoint(key);
+            endpoint = _endpoints.putIfAbsent(key, created);
+            if (endpoint == null) {
+                endpoint = created;
+            }
+        }
+        return endpoint;
+    }
+
+    /**
+     * Write request to connection and read status line and headers of the response. The body is sent with its length,
+     * it is a few KB of hashes. Sign requests are not idempotent: only if writing the head on a reused connection fails
+     * the request may be sent again on another connection
+     *
+     * @param endpoint    Endpoint the connection belongs to
+     * @param connection  Connection to use
+     * @param url         Url of server
+     * @param body        Request body
+     * @param contentType Content type of request body
+     * @return Response body
+     * @throws IOException If sending the request or reading the response failed
+     */
+    private ResponseStream exchange(@Nonnull Endpoint endpoint, @Nonnull PooledConnection connection, @Nonnull URL url,
+                                 @Nonnull RequestBody body, @Nonnull String contentType) throws IOException {
+
+        String path = url.getFile().length() > 0 ? url.getFile() : "/";
+        int port = getPort(url);
+
+        // Some proxies and firewalls reject request bodies without length
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        body.writeTo(content);
+
+        String host = port == url.getDefaultPort() ? url.getHost() : url.getHost() + ":" + port;
+
+        StringBuilder head = new StringBuilder();
+        head.append("POST ").append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(host).append("\r\n");
+        head.append("User-Agent: Java/").append(System.getProperty("java.version")).append("\r\n");
+        head.append("Content-Type: ").append(contentType).append("\r\n");
+        head.append("Content-Length: ").append(content.size()).append("\r\n");
+        head.append("\r\n");
+
+        int status;
+        Map<String, String> headers;
+        boolean headSent = false;
+        try {
+            OutputStream out = connection.out;
+            // The head is sent on its own: the server can not process a request without its body, so a failure
+            // until here means that the connection was closed before the request was sent
+            out.write(head.toString().getBytes("ISO-8859-1"));
+            out.flush();
+            headSent = true;
+
+            content.writeTo(out);
+            out.flush();
+
+            do {
+                String statusLine = readLine(connection.in);
+                if (statusLine == null) {
+                    throw new IOException("Connection closed by server");
+                }
+                status = parseStatus(statusLine);
+                headers = readHeaders(connection.in);
+            } while (status == 100);
+        } catch (IOException e) {
+            connection.close();
+            if (connection.used && !headSent) {
+                throw new StaleConnectionException(e.getMessage());
+            }
+            // The server may have received the request, it is not sent again
+            throw e;
+        }
+        connection.used = true;
+        connection.keepAliveTimeout = getKeepAliveTimeout(headers.get("keep-alive"));
+
+        boolean keepAlive = !"close".equalsIgnoreCase(headers.get("connection"));
+        InputStream bodyStream;
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            bodyStream = new ChunkedInputStream(connection.in);
+        } else if (headers.get("content-length") != null) {
+            bodyStream = new FixedLengthInputStream(connection.in, Long.parseLong(headers.get("content-length").trim()));
+        } else {
+            bodyStream = connection.in;
+            keepAlive = false;
+        }
+
+        return new ResponseStream(bodyStream, endpoint, connection, status, keepAlive);
+    }
+
+    /**
+     * Open a new connection to the server. Proxies are selected with the default ProxySelector
+     *
+     * @param url Url of server
+     * @return New connection
+     * @throws IOException              If the connection can not be opened
+     * @throws GeneralSecurityException If the SSL socket factory can not be created
+     */
+    private PooledConnection open(@Nonnull URL url) throws IOException, GeneralSecurityException {
+
+        String host = url.getHost();
+        int port = getPort(url);
+
+        Proxy proxy = Proxy.NO_PROXY;
+        try {
+            List<Proxy> proxies = ProxySelector.getDefault().select(url.toURI());
+            if (proxies != null && !proxies.isEmpty()) {
+                proxy = proxies.get(0);
+            }
+        } catch (Exception e) {
+            // no proxy selector or invalid uri, connect directly
+        }
+
+        Socket socket;
+        if (proxy.type() == Proxy.Type.HTTP) {
+            socket = new Socket();
+            socket.connect(proxy.address(), _timeout);
+            openTunnel(socket, host, port);
+        } else if (proxy.type() == Proxy.Type.SOCKS) {
+            socket = new Socket(proxy);
+            socket.connect(InetSocketAddress.createUnresolved(host, port), _timeout);
+        } else {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), _timeout);
+        }
+
+        if ("https".equalsIgnoreCase(url.getProtocol())) {
+            SSLSocket sslSocket = (SSLSocket) _connect.getSocketFactory().createSocket(socket, host, port, true);
+            SSLParameters sslParameters = sslSocket.getSSLParameters();
+            sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+            sslSocket.setSSLParameters(sslParameters);
+            sslSocket.startHandshake();
+            _handshakes.incrementAndGet();
+            socket = sslSocket;
+        }
+
+        return new PooledConnection(socket);
+    }
+
+    /**
+     * Open a tunnel through a HTTP proxy
+     *
+     * @param socket Socket connected to the proxy
+     * @param host   Host of the server
+     * @param port   Port of the server
+     * @throws IOException If the proxy refused the tunnel
+     */
+    private void openTunnel(@Nonnull Socket socket, @Nonnull String host, int port) throws IOException {
+
+        String request = "CONNECT " + host + ":" + port + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\n\r\n";
+        socket.getOutputStream().write(request.getBytes("ISO-8859-1"));
+        socket.getOutputStream().flush();
+
+        InputStream in = socket.getInputStream();
+        String statusLine = readLine(in);
+        int status = statusLine == null ? -1 : parseStatus(statusLine);
+        readHeaders(in);
+        if (status != 200) {
+            socket.close();
+            throw new IOException("Proxy refused tunnel to " + host + ":" + port + ": " + statusLine);
+        }
+    }
+
+    /**
+     * Get port of url or the default port of the protocol
+     *
+     * @param url Url of server
+     * @return Port
+     */
+    private static int getPort(@Nonnull URL url) {
+        return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+    /**
+     * Get the time the server keeps an idle connection open from the Keep-Alive header, e.g. timeout=5
+     *
+     * @param keepAlive Value of the Keep-Alive header or null
+     * @return Time in milli seconds or 0 if the server did not announce it
+     */
+    private static long getKeepAliveTimeout(String keepAlive) {
+        if (keepAlive == null) {
+            return 0;
+        }
+        for (String parameter : keepAlive.split(",")) {
+            String[] nameValue = parameter.split("=", 2);
+            if (nameValue.length == 2 && "timeout".equalsIgnoreCase(nameValue[0].trim())) {
+                try {
+                    return Math.max(1, Long.parseLong(nameValue[1].trim())) * 1000;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Parse status code from a HTTP status line
+     *
+     * @param statusLine Status line e.g. HTTP/1.1 200 OK
+     * @return Status code
+     * @throws IOException If the status line is invalid
+     */
+    private static int parseStatus(@Nonnull String statusLine) throws IOException {
+        String[] parts = statusLine.split(" ");
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid HTTP status line: " + statusLine);
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid HTTP status line: " + statusLine);
+        }
+    }
+
+    /**
+     * Read HTTP headers until the empty line
+     *
+     * @param in Stream to read from
+     * @return Headers with lower case names
+     * @throws IOException If reading failed
+     */
+    private static Map<String, String> readHeaders(@Nonnull InputStream in) throws IOException {
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH), line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Read a line terminated by CRLF or LF
+     *
+     * @param in Stream to read from
+     * @return Line without line terminator or null if end of stream was reached before any character
+     * @throws IOException If reading failed
+     */
+    private static String readLine(@Nonnull InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    /**
+     * Connections of one endpoint
+     */
+    private class Endpoint {
+
+        /**
+         * Scheme, host and port of endpoint
+         */
+        private final String key;
+
+        /**
+         * Permits for open connections, bounds the number of connections
+         */
+        private final Semaphore permits = new Semaphore(_maxConnections, true);
+
+        /**
+         * Idle connections, the most recently used first
+         */
+        private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+
+        /**
+         * Constructor for this class. Sets variables
+         *
+         * @param key Scheme, host and port of endpoint
+         */
+        private Endpoint(@Nonnull String key) {
+            this.key = key;
+        }
+
+        /**
+         * Take an idle connection which is still usable. Connections which are idle too long or were closed by the
+         * server will be closed. A connection is not used in the last second of the keep-alive timeout of the server,
+         * so the server does not close it while the request is sent
+         *
+         * @return Idle connection or null if there is none
+         */
+        private PooledConnection checkOut() {
+            while (true) {
+                PooledConnection connection;
+                synchronized (idle) {
+                    connection = idle.pollFirst();
+                }
+                if (connection == null) {
+                    return null;
+                }
+                long idle = System.currentTimeMillis() - connection.lastUsed;
+                long maxIdle = connection.keepAliveTimeout > 0 ? Math.min(_idleTimeout, connection.keepAliveTimeout - 1000) : _idleTimeout;
+                if (idle < maxIdle && connection.isUsable()) {
+                    return connection;
+                }
+                connection.close();
+            }
+        }
+
+        /**
+         * Give a connection back to the pool and close connections which are idle too long
+         *
+         * @param connection Connection which is not used anymore
+         */
+        private void checkIn(@Nonnull PooledConnection connection) {
+            connection.lastUsed = System.currentTimeMillis();
+            synchronized (idle) {
+                idle.addFirst(connection);
+            }
+            closeIdle(_idleTimeout);
+        }
+
+        /**
+         * Close connections which are idle for at least the given time
+         *
+         * @param maxIdle Time in milli seconds
+         */
+        private void closeIdle(long maxIdle) {
+            long now = System.currentTimeMillis();
+            synchronized (idle) {
+                Iterator<PooledConnection> iterator = idle.iterator();
+                while (iterator.hasNext()) {
+                    PooledConnection connection = iterator.next();
+                    if (now - connection.lastUsed >= maxIdle) {
+                        iterator.remove();
+                        connection.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * An open connection to the server
+     */
+    private static class PooledConnection {
+
+        /**
+         * Socket of connection
+         */
+        private final Socket socket;
+
+        /**
+         * Buffered input stream of socket
+         */
+        private final InputStream in;
+
+        /**
+         * Buffered output stream of socket, so the request is sent with as few packets as possible
+         */
+        private final OutputStream out;
+
+        /**
+         * Time when the connection was used the last time
+         */
+        private long lastUsed;
+
+        /**
+         * True if a response was already received on this connection
+         */
+        private boolean used;
+
+        /**
+         * Time in milli seconds the server keeps the idle connection open, 0 if the server did not announce it
+         */
+        private long keepAliveTimeout;
+
+        /**
+         * Constructor for this class. Sets variables
+         *
+         * @param socket Connected socket
+         * @throws IOException If input stream of socket can not be created
+         */
+        private PooledConnection(@Nonnull Socket socket) throws IOException {
+            this.socket = socket;
+            this.socket.setTcpNoDelay(true);
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        /**
+         * Check if connection is still open. The server must not send anything on an idle connection, so if there is
+         * data to read or the stream is at its end the connection can not be used anymore
+         *
+         * @return True if connection can be used for another request
+         */
+        private boolean isUsable() {
+            if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+                return false;
+            }
+            try {
+                if (in.available() > 0) {
+                    return false;
+                }
+                socket.setSoTimeout(1);
+                try {
+                    // end of stream or unexpected data
+                    in.read();
+                    return false;
+                } catch (SocketTimeoutException e) {
+                    return true;
+                } finally {
+                    socket.setSoTimeout(0);
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Close connection
+         */
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * Response body. Gives the connection back to the pool when it was read completely and closed
+     */
+    private class ResponseStream extends FilterInputStream {
+
+        /**
+         * Endpoint the connection belongs to
+         */
+        private final Endpoint endpoint;
+
+        /**
+         * Connection of response
+         */
+        private final PooledConnection connection;
+
+        /**
+         * HTTP status code of response
+         */
+        private final int status;
+
+        /**
+         * True if the connection can be reused after the response was read
+         */
+        private final boolean keepAlive;
+
+        /**
+         * True if the end of the response body was reached
+         */
+        private boolean eof;
+
+        /**
+         * True if stream was already closed
+         */
+        private boolean closed;
+
+        /**
+         * Constructor for this class. Sets variables
+         *
+         * @param in         Stream with response body
+         * @param endpoint   Endpoint the connection belongs to
+         * @param connection Connection of response
+         * @param status     HTTP status code of response
+         * @param keepAlive  True if the connection can be reused after the response was read
+         */
+        private ResponseStream(@Nonnull InputStream in, @Nonnull Endpoint endpoint, @Nonnull PooledConnection connection,
+                               int status, boolean keepAlive) {
+            super(in);
+            this.endpoint = endpoint;
+            this.connection = connection;
+            this.status = status;
+            this.keepAlive = keepAlive;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                eof = true;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                eof = true;
+            }
+            return n;
+        }
+
+        /**
+         * Read the rest of a small response body so the connection can be reused, then close the stream
+         */
+        private void discard() {
+            try {
+                byte[] buffer = new byte[8192];
+                long remaining = 64 * 1024;
+                int n;
+                while (remaining > 0 && (n = read(buffer, 0, buffer.length)) != -1) {
+                    remaining -= n;
+                }
+            } catch (IOException e) {
+                // connection will be closed
+            }
+            close();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (eof && keepAlive) {
+                endpoint.checkIn(connection);
+            } else {
+                connection.close();
+            }
+            endpoint.permits.release();
+        }
+    }
+
+    /**
+     * Response body with a known length
+     */
+    private static class FixedLengthInputStream extends FilterInputStream {
+
+        /**
+         * Number of bytes which are not read yet
+         */
+        private long remaining;
+
+        /**
+         * Constructor for this class. Sets variables
+         *
+         * @param in     Stream of connection
+         * @param length Length of response body
+         */
+        private FixedLengthInputStream(@Nonnull InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Connection closed before end of response");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                throw new IOException("Connection closed before end of response");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // the connection is closed by the response stream
+        }
+    }
+
+    /**
+     * Response body with chunked transfer encoding
+     */
+    private static class ChunkedInputStream extends FilterInputStream {
+
+        /**
+         * Number of bytes which are not read yet from the current chunk
+         */
+        private long remaining;
+
+        /**
+         * True if the last chunk was read
+         */
+        private boolean eof;
+
+        /**
+         * Constructor for this class. Sets variables
+         *
+         * @param in Stream of connection
+         */
+        private ChunkedInputStream(@Nonnull InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Connection closed before end of response");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                throw new IOException("Connection closed before end of response");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return eof ? 0 : (int) Math.min(in.available(), remaining);
+        }
+
+        /**
+         * Read the size of the next chunk if the current one was read completely
+         *
+         * @return False if the last chunk was read
+         * @throws IOException If the chunk size is invalid
+         */
+        private boolean nextChunk() throws IOException {
+            if (eof) {
+                return false;
+            }
+            if (remaining > 0) {
+                return true;
+            }
+            String line = readLine(in);
+            if (line != null && line.length() == 0) {
+                // CRLF after the data of the previous chunk
+                line = readLine(in);
+            }
+            if (line == null) {
+                throw new IOException("Connection closed before end of response");
+            }
+            int extension = line.indexOf(';');
+            try {
+                remaining = Long.parseLong((extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk size: " + line);
+            }
+            if (remaining == 0) {
+                readHeaders(in);
+                eof = true;
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // the connection is closed by the response stream
+        }
+    }
+
+    /**
+     * Signals that a reused connection was closed by the server before the request was sent
+     */
+    private static class StaleConnectionException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor for this class
+         *
+         * @param message Error message
+         */
+        private StaleConnectionException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Outcome of signing one document of a batch
+ *
+ * Created:
+ * 17.10.26 KW42 20:50
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 20:50
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Records whether a document was signed and, if not, why. Each document of a batch has its own outcome, so a batch
+ * where only some documents failed still signs all others.
+ */
+public class DocumentOutcome {
+
+    /**
+     * Path of the input document
+     */
+    private final String inputFilePath;
+
+    /**
+     * Path of the signed document
+     */
+    private final String outputFilePath;
+
+    /**
+     * True if the document was signed, false if it failed or is not done yet
+     */
+    private volatile boolean signed;
+
+    /**
+     * True if the document was signed or failed
+     */
+    private volatile boolean done;
+
+    /**
+     * Number of requests which contained the document
+     */
+    private volatile int attempts;
+
+    /**
+     * Result major of the response which did not contain a signature for the document
+     */
+    private volatile String resultMajor;
+
+    /**
+     * Result minor of the response which did not contain a signature for the document
+     */
+    private volatile String resultMinor;
+
+    /**
+     * Reason why the document was not signed
+     */
+    private volatile String message;
+
+    /**
+     * Error why the document was not signed
+     */
+    private volatile Exception error;
+
+    /**
+     * Constructor for this class
+     *
+     * @param inputFilePath  Path of the input document
+     * @param outputFilePath Path of the signed document
+     */
+    DocumentOutcome(@Nonnull String inputFilePath, @Nonnull String outputFilePath) {
+        this.inputFilePath = inputFilePath;
+        this.outputFilePath = outputFilePath;
+    }
+
+    /**
+     * Count a request which contained the document
+     */
+    void attempt() {
+        attempts++;
+    }
+
+    /**
+     * Mark the document as signed
+     */
+    void signed() {
+        signed = true;
+        done = true;
+    }
+
+    /**
+     * Mark the document as failed because the response did not contain a signature for it
+     *
+     * @param resultMajor Result major of the response
+     * @param resultMinor Result minor of the response
+     * @param message     Result message of the response
+     */
+    void failed(@Nullable String resultMajor, @Nullable String resultMinor, @Nullable String message) {
+        this.resultMajor = resultMajor;
+        this.resultMinor = resultMinor;
+        this.message = message != null ? message : "No signature for the document in the response";
+        this.error = null;
+        signed = false;
+        done = true;
+    }
+
+    /**
+     * Mark the document as failed because of an error. Errors which only wrap another error are unwrapped
+     *
+     * @param error Error why the document was not signed
+     */
+    void failed(@Nonnull Exception error) {
+        Throwable cause = error;
+        while (cause.getCause() != null && cause.getCause().toString().equals(cause.getMessage())) {
+            cause = cause.getCause();
+        }
+        this.message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+        this.error = error;
+        signed = false;
+        done = true;
+    }
+
+    /**
+     * Get path of the input document
+     *
+     * @return Input file path
+     */
+    public String getInputFilePath() {
+        return inputFilePath;
+    }
+
+    /**
+     * Get path of the signed document
+     *
+     * @return Output file path
+     */
+    public String getOutputFilePath() {
+        return outputFilePath;
+    }
+
+    /**
+     * Check if the document was signed
+     *
+     * @return True if the signed document was written
+     */
+    public boolean isSigned() {
+        return signed;
+    }
+
+    /**
+     * Check if the document was signed or failed
+     *
+     * @return True if signing the document is finished
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Get number of requests which contained the document
+     *
+     * @return Number of attempts
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Get result major of the response which did not contain a signature for the document
+     *
+     * @return Result major or null
+     */
+    @Nullable
+    public String getResultMajor() {
+        return resultMajor;
+    }
+
+    /**
+     * Get result minor of the response which did not contain a signature for the document
+     *
+     * @return Result minor or null
+     */
+    @Nullable
+    public String getResultMinor() {
+        return resultMinor;
+    }
+
+    /**
+     * Get reason why the document was not signed
+     *
+     * @return Message or null if the document was signed
+     */
+    @Nullable
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Get error why the document was not signed
+     *
+     * @return Error or null if the document was signed or the response did not contain a signature for it
+     */
+    @Nullable
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * Check if the document failed because the server could not be reached or had an error (ResponderError), so
+     * signing it again later may succeed
+     *
+     * @return True if the document was not signed because of a transient error
+     */
+    public boolean isTransient() {
+        if (signed) {
+            return false;
+        }
+        if (Include.RequestResult.ResponderError.getResultUrn().equals(resultMajor)) {
+            return true;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof Transport.TransportException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return inputFilePath + (signed ? " signed" : done ? " FAILED: " + message : " pending");
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Bounded pool of threads which process the documents of a batch
+ *
+ * Created:
+ * 17.10.26 KW42 20:10
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 20:10
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a task for each document of a batch on a bounded pool of threads. The documents are independent of each other,
+ * so e.g. the hashes of a batch are prepared on all cores. The results are returned in the order of the documents and
+ * the errors of all documents are reported together.
+ */
+public class DocumentWorkers {
+
+    /**
+     * Task which is run for each document
+     *
+     * @param <T> Type of the result
+     */
+    public interface Task<T> {
+
+        /**
+         * Process a document
+         *
+         * @param pdf   Document
+         * @param index Index of the document in the batch
+         * @return Result
+         * @throws Exception If the document could not be processed
+         */
+        T run(@Nonnull PDF pdf, int index) throws Exception;
+    }
+
+    /**
+     * Name of the tasks for error messages, e.g. prepare
+     */
+    private String _action;
+
+    /**
+     * Threads which process the documents
+     */
+    private ThreadPoolExecutor _executor;
+
+    /**
+     * Set on the threads while they run a task given to execute. The documents of runAll are processed by such a
+     * thread itself, it would wait for the other threads otherwise and all of them could be waiting
+     */
+    private final ThreadLocal<Boolean> _inTask = new ThreadLocal<Boolean>();
+
+    /**
+     * Constructor to set relevant parameters
+     *
+     * @param action  Name of the tasks for error messages, e.g. prepare
+     * @param threads Maximal number of documents which are processed at the same time
+     */
+    public DocumentWorkers(@Nonnull String action, int threads) {
+        this._action = action;
+
+        int poolSize = Math.max(1, threads);
+        _executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("ais-" + action));
+        _executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Run a task on one of the threads without waiting for it, e.g. to add the signatures of a pending request when
+     * its polling is completed. The documents of runAll are processed by this thread one after the other
+     *
+     * @param task Task
+     * @throws java.util.concurrent.RejectedExecutionException If the workers were shut down
+     */
+    public void execute(@Nonnull final Runnable task) {
+        _executor.execute(new Runnable() {
+            public void run() {
+                _inTask.set(Boolean.TRUE);
+                try {
+                    task.run();
+                } finally {
+                    _inTask.remove();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop the threads. The tasks which were handed over are completed first
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting for the tasks
+     */
+    public void shutdown() throws InterruptedException {
+        _executor.shutdown();
+        _executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a task for each document and wait until all are done. A single document is processed by the calling thread
+     *
+     * @param pdfs Documents
+     * @param task Task which is run for each document
+     * @param <T>  Type of the results
+     * @return Results in the order of the documents
+     * @throws Exception If one or more documents could not be processed. The message names each failed document, the
+     *                   error of the first one is the cause, the others are suppressed
+     */
+    public <T> List<T> invokeAll(@Nonnull PDF[] pdfs, @Nonnull Task<T> task) throws Exception {
+
+        List<T> results = new ArrayList<T>(pdfs.length);
+        Exception[] errors = runAll(pdfs, task, results);
+
+        Exception exception = null;
+        int failed = 0;
+        String errorMessage = "";
+        for (int i = 0; i < pdfs.length; i++) {
+            if (errors[i] != null) {
+                failed++;
+                errorMessage = errorMessage.concat("\n  " + new File(pdfs[i].getInputFilePath()).getName() + ": "
+                        + (errors[i].getMessage() != null ? errors[i].getMessage() : errors[i].getClass().getName()));
+                if (exception == null) {
+                    exception = errors[i];
+                }
+            }
+        }
+
+        if (exception != null) {
+            Exception aggregated = new Exception("Could not " + _action + " " + failed + " of " + pdfs.length
+                    + " documents:" + errorMessage, exception);
+            for (Exception error : errors) {
+                if (error != null && error != exception) {
+                    aggregated.addSuppressed(error);
+                }
+            }
+            throw aggregated;
+        }
+
+        return results;
+    }
+
+    /**
+     * Run a task for each document and wait until all are done. The errors are returned instead of thrown, so each
+     * document can be handled on its own
+     *
+     * @param pdfs Documents
+     * @param task Task which is run for each document
+     * @return Error of each document in the order of the documents, null for the documents which were processed
+     */
+    public Exception[] runAll(@Nonnull PDF[] pdfs, @Nonnull Task<?> task) {
+        return runAll(pdfs, task, new ArrayList<Object>(pdfs.length));
+    }
+
+    /**
+     * Run a task for each document and wait until all are done. A single document is processed by the calling thread
+     *
+     * @param pdfs    Documents
+     * @param task    Task which is run for each document
+     * @param results List where the results are added in the order of the documents, null for failed documents
+     * @param <T>     Type of the results
+     * @return Error of each document in the order of the documents, null for the documents which were processed
+     */
+    private <T> Exception[] runAll(@Nonnull final PDF[] pdfs, @Nonnull final Task<? extends T> task, @Nonnull List<T> results) {
+
+        Exception[] errors = new Exception[pdfs.length];
+
+        if (pdfs.length == 1 || _executor.getMaximumPoolSize() == 1 || _inTask.get() != null) {
+            for (int i = 0; i < pdfs.length; i++) {
+                try {
+                    results.add(task.run(pdfs[i], i));
+                } catch (Exception e) {
+                    results.add(null);
+                    errors[i] = e;
+                }
+            }
+            return errors;
+        }
+
+        List<Future<? extends T>> futures = new ArrayList<Future<? extends T>>(pdfs.length);
+        for (int i = 0; i < pdfs.length; i++) {
+            final int index = i;
+            futures.add(_executor.submit(new Callable<T>() {
+                public T call() throws Exception {
+                    return task.run(pdfs[index], index);
+                }
+            }));
+        }
+
+        for (int i = 0; i < pdfs.length; i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                results.add(null);
+                errors[i] = e;
+            } catch (ExecutionException e) {
+                results.add(null);
+                errors[i] = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        return errors;
+    }
+}
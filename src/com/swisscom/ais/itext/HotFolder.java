@@ -0,0 +1,621 @@
+/**
+ * Signs the documents which arrive in a watched directory
+ *
+ * Created:
+ * 17.10.26 KW42 23:50
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 23:50
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches an inbox directory and signs the PDFs which arrive there. A file is taken when its size and modification
+ * time did not change for WATCH_STABLE_TIME, so a file which is still written is not signed. Upstream systems should
+ * nevertheless write to a temp name and rename the file to *.pdf when it is complete.
+ * <p/>
+ * The arrivals are collected into batches: a batch is signed when WATCH_BATCH_SIZE documents are ready or the oldest
+ * ready document waited WATCH_WINDOW milliseconds. WATCH_BATCHES batches are signed at the same time, the documents of
+ * a batch are prepared and embedded by the workers of Soap (PREPARE_THREADS, EMBED_THREADS) and sent in chunks
+ * (BATCH_SIZE, BATCH_CONCURRENCY).
+ * <p/>
+ * A signed document is moved atomically into the output directory and removed from the inbox. A document which could
+ * not be signed is moved into the failure directory together with a text file which tells why, a number is added to
+ * the names if the failure directory already contains a document with the same name. A document which failed because
+ * the server could not be reached or had an error stays in the inbox and is signed again after WATCH_RETRY_DELAY
+ * milliseconds, the delay is doubled up to WATCH_RETRY_MAX_DELAY while the errors go on. The throughput and the queue
+ * depth are reported every WATCH_REPORT_INTERVAL seconds.
+ */
+public class HotFolder {
+
+    /**
+     * Engine which signs the documents
+     */
+    private Soap _soap;
+
+    /**
+     * Directory which is watched
+     */
+    private Path _inbox;
+
+    /**
+     * Directory for the signed documents
+     */
+    private File _outputDirectory;
+
+    /**
+     * Suffix which is added to the file names of the signed documents or null
+     */
+    private String _outputSuffix;
+
+    /**
+     * Directory for the documents which could not be signed
+     */
+    private Path _failureDirectory;
+
+    /**
+     * Signing options of all documents
+     */
+    private Include.Signature _signature;
+    private String _signingReason;
+    private String _signingLocation;
+    private String _signingContact;
+    private int _certificationLevel;
+    private String _distinguishedName;
+
+    /**
+     * Time in milliseconds a file must not change before it is signed
+     */
+    private long _stableTime;
+
+    /**
+     * Time in milliseconds the oldest ready document waits for more documents of the same batch
+     */
+    private long _window;
+
+    /**
+     * Maximal number of documents of a batch
+     */
+    private int _batchSize;
+
+    /**
+     * Time in milliseconds between two reports
+     */
+    private long _reportInterval;
+
+    /**
+     * Time in milliseconds after which a document which failed because of a transient error is signed again
+     */
+    private long _retryDelay;
+
+    /**
+     * Maximal time in milliseconds after which a document which failed because of a transient error is signed again
+     */
+    private long _maxRetryDelay;
+
+    /**
+     * Current time in milliseconds until the next retry, doubled after each transient error and reset when a document
+     * was signed
+     */
+    private final AtomicLong _nextRetryDelay = new AtomicLong();
+
+    /**
+     * Threads which sign the batches
+     */
+    private ThreadPoolExecutor _executor;
+
+    /**
+     * Files which arrived but did not stop changing yet, with their last size and modification time
+     */
+    private final Map<Path, FileState> _arriving = new LinkedHashMap<Path, FileState>();
+
+    /**
+     * Files which are complete and wait for the next batch
+     */
+    private final List<Path> _ready = new ArrayList<Path>();
+
+    /**
+     * Time in milliseconds when the oldest ready file was complete
+     */
+    private long _readySince;
+
+    /**
+     * Files which are in a batch, they are ignored until the batch is completed
+     */
+    private final Set<Path> _claimed = Collections.synchronizedSet(new HashSet<Path>());
+
+    /**
+     * Files which failed because of a transient error, with the time in milliseconds when they are signed again
+     */
+    private final Map<Path, Long> _retrying = new ConcurrentHashMap<Path, Long>();
+
+    /**
+     * Number of documents in batches which wait for a thread
+     */
+    private final AtomicInteger _queued = new AtomicInteger();
+
+    /**
+     * Number of documents in batches which are signed
+     */
+    private final AtomicInteger _inFlight = new AtomicInteger();
+
+    /**
+     * Number of signed documents
+     */
+    private final AtomicLong _signed = new AtomicLong();
+
+    /**
+     * Number of documents which could not be signed
+     */
+    private final AtomicLong _failed = new AtomicLong();
+
+    /**
+     * If false the watcher stops
+     */
+    private volatile boolean _running = true;
+
+    /**
+     * Constructor to set relevant parameters. If a value can not be readed from the properties it will use 1 second
+     * stable time, a window of 2 seconds, batches of 100 documents, 2 batches at the same time, a report every 60
+     * seconds and retries after 5 seconds up to 5 minutes
+     *
+     * @param soap               Engine which signs the documents
+     * @param properties         Properties of the watcher
+     * @param inbox              Directory which is watched
+     * @param outputDirectory    Directory for the signed documents
+     * @param outputSuffix       Suffix which is added to the file names of the signed documents or null
+     * @param failureDirectory   Directory for the documents which could not be signed
+     * @param signature          Type of signature e.g. timestamp, ondemand or static
+     * @param signingReason      Reason for signing the documents
+     * @param signingLocation    Location where the documents were signed
+     * @param signingContact     Person who signed the documents
+     * @param certificationLevel Certification level
+     * @param distinguishedName  Information about signer e.g. name, country etc.
+     */
+    public HotFolder(@Nonnull Soap soap, @Nonnull Properties properties, @Nonnull File inbox, @Nonnull File outputDirectory,
+                     @Nullable String outputSuffix, @Nonnull File failureDirectory, @Nonnull Include.Signature signature,
+                     @Nullable String signingReason, @Nullable String signingLocation, @Nullable String signingContact,
+                     int certificationLevel, @Nullable String distinguishedName) {
+        this._soap = soap;
+        this._inbox = inbox.toPath();
+        this._outputDirectory = outputDirectory;
+        this._outputSuffix = outputSuffix;
+        this._failureDirectory = failureDirectory.toPath();
+        this._signature = signature;
+        this._signingReason = signingReason;
+        this._signingLocation = signingLocation;
+        this._signingContact = signingContact;
+        this._certificationLevel = certificationLevel;
+        this._distinguishedName = distinguishedName;
+
+        try {
+            _stableTime = Long.parseLong(properties.getProperty("WATCH_STABLE_TIME"));
+        } catch (NumberFormatException e) {
+            _stableTime = 1000;
+        }
+        try {
+            _window = Long.parseLong(properties.getProperty("WATCH_WINDOW"));
+        } catch (NumberFormatException e) {
+            _window = 2000;
+        }
+        try {
+            _batchSize = Math.max(1, Integer.parseInt(properties.getProperty("WATCH_BATCH_SIZE")));
+        } catch (NumberFormatException e) {
+            _batchSize = 100;
+        }
+        int batches;
+        try {
+            batches = Math.max(1, Integer.parseInt(properties.getProperty("WATCH_BATCHES")));
+        } catch (NumberFormatException e) {
+            batches = 2;
+        }
+        try {
+            _reportInterval = Long.parseLong(properties.getProperty("WATCH_REPORT_INTERVAL")) * 1000;
+        } catch (NumberFormatException e) {
+            _reportInterval = 60 * 1000;
+        }
+        try {
+            _retryDelay = Math.max(1, Long.parseLong(properties.getProperty("WATCH_RETRY_DELAY")));
+        } catch (NumberFormatException e) {
+            _retryDelay = 5 * 1000;
+        }
+        try {
+            _maxRetryDelay = Math.max(_retryDelay, Long.parseLong(properties.getProperty("WATCH_RETRY_MAX_DELAY")));
+        } catch (NumberFormatException e) {
+            _maxRetryDelay = Math.max(_retryDelay, 5 * 60 * 1000);
+        }
+        _nextRetryDelay.set(_retryDelay);
+
+        _executor = new ThreadPoolExecutor(batches, batches, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("ais-watch"));
+    }
+
+    /**
+     * Watch the inbox until the watcher is stopped. The files which are already in the inbox are signed first. When
+     * the watcher stops the batches which are signed are completed and the engine is closed
+     *
+     * @throws Exception If the inbox can not be watched
+     */
+    public void run() throws Exception {
+        Files.createDirectories(_failureDirectory);
+        WatchService watchService = _inbox.getFileSystem().newWatchService();
+        try {
+            _inbox.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            // Files which arrived before the registration
+            scan();
+
+            long tick = Math.max(10, Math.min(_stableTime, _window) / 4);
+            long start = System.currentTimeMillis();
+            long lastReport = start;
+            long lastSigned = 0;
+            while (_running) {
+                WatchKey key = watchService.poll(tick, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan();
+                        } else {
+                            arrived(_inbox.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        throw new Exception("Directory " + _inbox + " can not be watched anymore.");
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                checkRetrying(now);
+                checkArriving(now);
+                while (_ready.size() >= _batchSize || !_ready.isEmpty() && now - _readySince >= _window) {
+                    submitBatch(now);
+                }
+
+                if (_reportInterval > 0 && now - lastReport >= _reportInterval) {
+                    long signed = _signed.get();
+                    report((signed - lastSigned) * 1000.0 / (now - lastReport), signed * 1000.0 / (now - start));
+                    lastReport = now;
+                    lastSigned = signed;
+                }
+            }
+        } finally {
+            watchService.close();
+            _executor.shutdown();
+            _executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            _soap.close();
+        }
+    }
+
+    /**
+     * Stop watching the inbox. The batches which are already signed are completed
+     */
+    public void stop() {
+        _running = false;
+    }
+
+    /**
+     * Get number of documents which are in the inbox and not signed yet. Only called by the watcher thread
+     *
+     * @return Documents which arrive, wait for a batch or are signed
+     */
+    private int getQueueDepth() {
+        return _arriving.size() + _ready.size() + _queued.get() + _inFlight.get() + _retrying.size();
+    }
+
+    /**
+     * Add all pdf files in the inbox
+     *
+     * @throws IOException If the inbox can not be read
+     */
+    private void scan() throws IOException {
+        DirectoryStream<Path> files = Files.newDirectoryStream(_inbox);
+        try {
+            for (Path file : files) {
+                arrived(file);
+            }
+        } finally {
+            files.close();
+        }
+    }
+
+    /**
+     * Remember a file which arrived or changed. Only pdf files are signed, other files (e.g. temp files of upstream
+     * systems) are ignored
+     *
+     * @param file File in the inbox
+     */
+    private void arrived(@Nonnull Path file) {
+        String name = file.getFileName().toString();
+        if (!name.toLowerCase().endsWith(".pdf") || name.startsWith(".") || _claimed.contains(file)
+                || _retrying.containsKey(file) || _ready.contains(file) || _arriving.containsKey(file)) {
+            return;
+        }
+        _arriving.put(file, new FileState());
+    }
+
+    /**
+     * Move the files whose retry is due to the arriving files, so they are signed again when they did not change for
+     * the stable time
+     *
+     * @param now Current time in milliseconds
+     */
+    private void checkRetrying(long now) {
+        Iterator<Map.Entry<Path, Long>> iterator = _retrying.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Long> entry = iterator.next();
+            if (entry.getValue() <= now) {
+                iterator.remove();
+                arrived(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Move the files which did not change for the stable time to the ready files
+     *
+     * @param now Current time in milliseconds
+     */
+    private void checkArriving(long now) {
+        Iterator<Map.Entry<Path, FileState>> iterator = _arriving.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, FileState> entry = iterator.next();
+            File file = entry.getKey().toFile();
+            FileState state = entry.getValue();
+            if (!file.isFile()) {
+                // Removed or renamed again
+                iterator.remove();
+            } else if (file.length() != state.length || file.lastModified() != state.lastModified) {
+                state.length = file.length();
+                state.lastModified = file.lastModified();
+                state.since = now;
+            } else if (now - state.since >= _stableTime) {
+                iterator.remove();
+                if (_ready.isEmpty()) {
+                    _readySince = now;
+                }
+                _ready.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Sign the ready files, at most the batch size, on the batch threads
+     *
+     * @param now Current time in milliseconds
+     */
+    private void submitBatch(long now) {
+        int count = Math.min(_batchSize, _ready.size());
+        final List<Path> batch = new ArrayList<Path>(_ready.subList(0, count));
+        _ready.subList(0, count).clear();
+        _readySince = now;
+        _claimed.addAll(batch);
+        _queued.addAndGet(batch.size());
+
+        _executor.execute(new Runnable() {
+            public void run() {
+                _queued.addAndGet(-batch.size());
+                _inFlight.addAndGet(batch.size());
+                try {
+                    signBatch(batch);
+                } finally {
+                    _inFlight.addAndGet(-batch.size());
+                    _claimed.removeAll(batch);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sign the documents of a batch with one call of Soap, then remove the signed documents from the inbox and move
+     * the others into the failure directory. Documents which failed because of a transient error stay in the inbox and
+     * are signed again after the retry delay
+     *
+     * @param batch Files of the batch
+     */
+    private void signBatch(@Nonnull List<Path> batch) {
+        List<String> filesIn = new ArrayList<String>();
+        List<String> filesOut = new ArrayList<String>();
+        for (Path file : batch) {
+            String name = file.getFileName().toString();
+            if (_outputSuffix != null) {
+                int extension = name.lastIndexOf('.');
+                name = extension > 0 ? name.substring(0, extension) + _outputSuffix + name.substring(extension) : name + _outputSuffix;
+            }
+            File target = new File(_outputDirectory, name);
+            if (target.exists()) {
+                fail(file, "Target file " + target.getPath() + " exists.");
+            } else {
+                filesIn.add(file.toString());
+                filesOut.add(target.getPath());
+            }
+        }
+        if (filesIn.isEmpty()) {
+            return;
+        }
+
+        if (Soap._debugMode || Soap._verboseMode) {
+            System.out.println("Signing batch of " + filesIn.size() + " documents from " + _inbox);
+        }
+        DocumentOutcome[] outcomes;
+        try {
+            outcomes = _soap.sign(_signature, filesIn.toArray(new String[filesIn.size()]),
+                    filesOut.toArray(new String[filesOut.size()]), _signingReason, _signingLocation, _signingContact,
+                    _certificationLevel, _distinguishedName, null, null, null, null);
+        } catch (Exception e) {
+            for (String fileIn : filesIn) {
+                fail(new File(fileIn).toPath(), e.getMessage());
+            }
+            return;
+        }
+
+        // The delay of this batch, it is doubled for the next batch with transient errors
+        long retryAt = 0;
+        for (DocumentOutcome outcome : outcomes) {
+            Path file = new File(outcome.getInputFilePath()).toPath();
+            if (outcome.isTransient()) {
+                if (retryAt == 0) {
+                    long delay = _nextRetryDelay.get();
+                    _nextRetryDelay.set(Math.min(2 * delay, _maxRetryDelay));
+                    retryAt = System.currentTimeMillis() + delay;
+                    System.err.println("Documents of " + _inbox + " could not be signed (" + outcome.getMessage()
+                            + "), signing them again in " + delay / 1000 + " seconds");
+                }
+                retry(file, retryAt, outcome.getMessage());
+            } else if (outcome.isSigned()) {
+                _nextRetryDelay.set(_retryDelay);
+                try {
+                    // The signed document was moved atomically into the output directory
+                    Files.delete(file);
+                    _signed.incrementAndGet();
+                } catch (IOException e) {
+                    fail(file, "Signed to " + outcome.getOutputFilePath() + " but could not be removed from the inbox: " + e.getMessage());
+                }
+            } else {
+                fail(file, outcome.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Keep a document which failed because of a transient error in the inbox and sign it again later
+     *
+     * @param file    Document in the inbox
+     * @param retryAt Time in milliseconds when the document is signed again
+     * @param message Reason why the document was not signed
+     */
+    private void retry(@Nonnull Path file, long retryAt, @Nullable String message) {
+        if (Soap._debugMode || Soap._verboseMode) {
+            System.err.println(file.getFileName() + " could not be signed, signing it again later: " + message);
+        }
+        // Added before the batch releases the file, so the watcher does not take it in between
+        _retrying.put(file, retryAt);
+    }
+
+    /**
+     * Move a document which could not be signed into the failure directory, with a text file which tells why. The
+     * text file is written first, so a document in the failure directory always has its reason. If the failure
+     * directory already contains a document or a text file with the same name, a number is added to both names
+     *
+     * @param file    Document in the inbox
+     * @param message Reason why the document was not signed
+     */
+    private void fail(@Nonnull Path file, @Nullable String message) {
+        _failed.incrementAndGet();
+        if (Soap._debugMode || Soap._verboseMode) {
+            System.err.println(file.getFileName() + " could not be signed: " + message);
+        }
+        try {
+            Path temp = Files.createTempFile(_failureDirectory, ".signpdf", ".tmp");
+            Files.write(temp, ((message != null ? message : "Unknown error") + "\n").getBytes("UTF-8"));
+            // The batches fail documents at the same time, the names are chosen and taken by one at a time
+            synchronized (this) {
+                Path target = getFailureTarget(file.getFileName().toString());
+                move(temp, _failureDirectory.resolve(target.getFileName() + ".txt"));
+                move(file, target);
+            }
+        } catch (IOException e) {
+            System.err.println(file + " could not be moved to " + _failureDirectory + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get a name in the failure directory which is not used by a document or its text file. A number is added to the
+     * name of the document if the name is used, e.g. doc-1.pdf
+     *
+     * @param name File name of the document
+     * @return Path in the failure directory
+     */
+    @Nonnull
+    private Path getFailureTarget(@Nonnull String name) {
+        int extension = name.lastIndexOf('.');
+        String base = extension > 0 ? name.substring(0, extension) : name;
+        String suffix = extension > 0 ? name.substring(extension) : "";
+        Path target = _failureDirectory.resolve(name);
+        for (int i = 1; Files.exists(target) || Files.exists(_failureDirectory.resolve(target.getFileName() + ".txt")); i++) {
+            target = _failureDirectory.resolve(base + "-" + i + suffix);
+        }
+        return target;
+    }
+
+    /**
+     * Move a file atomically if the file system supports it
+     *
+     * @param source File to move
+     * @param target Target file, must not exist
+     * @throws IOException If the file can not be moved
+     */
+    private static void move(@Nonnull Path source, @Nonnull Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target);
+        }
+    }
+
+    /**
+     * Print the throughput and the queue depth
+     *
+     * @param rate        Signed documents per second since the last report
+     * @param averageRate Signed documents per second since the start
+     */
+    private void report(double rate, double averageRate) {
+        System.out.println(String.format("Signed %d, failed %d - %.1f documents/s (average %.1f/s) - queue depth %d "
+                        + "(arriving %d, ready %d, queued %d, in flight %d, retrying %d, pending step-ups %d)",
+                _signed.get(), _failed.get(), rate, averageRate, getQueueDepth(), _arriving.size(), _ready.size(),
+                _queued.get(), _inFlight.get(), _retrying.size(), _soap.getPollScheduler().getPending()));
+        if (Soap._verboseMode) {
+            System.out.println("Stages: " + _soap.getPipeline().getStatus());
+        }
+    }
+
+    /**
+     * Size and modification time of an arriving file
+     */
+    private static class FileState {
+
+        long length = -1;
+        long lastModified = -1;
+        long since;
+    }
+}
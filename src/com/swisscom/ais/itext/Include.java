@@ -101,7 +101,17 @@ public class Include {
         /**
          * URN for successfully request
          */
-        Success("urn:oasis:names:tc:dss:1.0:resultmajor:Success");
+        Success("urn:oasis:names:tc:dss:1.0:resultmajor:Success"),
+
+        /**
+         * URN for a request which failed because of an error in the request
+         */
+        RequesterError("urn:oasis:names:tc:dss:1.0:resultmajor:RequesterError"),
+
+        /**
+         * URN for a request which failed because of an error on the server
+         */
+        ResponderError("urn:oasis:names:tc:dss:1.0:resultmajor:ResponderError");
 
         /**
          * Urn of request result
@@ -0,0 +1,795 @@
+/**
+ * Signs the documents of a manifest with the settings of each row
+ *
+ * Created:
+ * 18.10.26 KW42 00:40
+ * </p>
+ * Last Modification:
+ * 18.10.26 KW42 00:40
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Signs the documents of a manifest, one row per document. A manifest is either a CSV file with a header row or a
+ * JSON lines file with one flat object per line. The fields have the names of the command line options: infile,
+ * outfile, type, dn, reason, location, contact and certlevel. A field which is missing or empty takes the value of the
+ * command line option, the output file may also be derived from -outdir and -outsuffix.
+ * <p/>
+ * Rows which can be sent in the same request, i.e. with the same signature type and the same signer, are collected in
+ * groups. A group is signed with one call of Soap when it has MANIFEST_BATCH_SIZE rows, at the latest when the
+ * manifest is read completely, so each document keeps its own Adobe PDF settings. The hash algorithm is DIGEST_METHOD
+ * of the configuration and the same for all rows.
+ * <p/>
+ * The manifest is read while the groups are signed and the result of each document is written to the report as soon
+ * as its group is completed. At most MANIFEST_BUFFER rows wait in groups and at most twice MANIFEST_BATCHES groups are
+ * signed or wait for a thread, so the memory does not depend on the length of the manifest. Only the target files of
+ * these rows are kept to detect two rows with the same target, the target of a completed row exists on disk.
+ */
+public class ManifestJob {
+
+    /**
+     * Names of the columns of the report
+     */
+    private static final String[] REPORT_COLUMNS = {"line", "infile", "outfile", "status", "resultmajor", "resultminor", "message"};
+
+    /**
+     * Engine which signs the documents
+     */
+    private Soap _soap;
+
+    /**
+     * Values of the fields which are missing in a row
+     */
+    private Map<String, String> _defaults;
+
+    /**
+     * Directory for the signed documents of rows without outfile or null
+     */
+    private String _outputDirectory;
+
+    /**
+     * Suffix which is added to the file names of rows without outfile or null
+     */
+    private String _outputSuffix;
+
+    /**
+     * Maximal number of rows of a group
+     */
+    private int _batchSize;
+
+    /**
+     * Maximal number of rows which wait in groups
+     */
+    private int _bufferSize;
+
+    /**
+     * Threads which sign the groups. If all threads are busy and the queue is full, the reader signs the group itself
+     */
+    private ThreadPoolExecutor _executor;
+
+    /**
+     * Report of the results
+     */
+    private Writer _report;
+
+    /**
+     * True if the report is written as JSON lines, otherwise as CSV
+     */
+    private boolean _jsonReport;
+
+    /**
+     * Number of rows which were read
+     */
+    private final AtomicLong _rows = new AtomicLong();
+
+    /**
+     * Number of signed documents
+     */
+    private final AtomicLong _signed = new AtomicLong();
+
+    /**
+     * Number of documents which could not be signed
+     */
+    private final AtomicLong _failed = new AtomicLong();
+
+    /**
+     * Canonical paths of the target files of the rows which wait in groups or are signed. The target of a row is
+     * removed when its group is completed, then the target file exists if the document was signed
+     */
+    private final Set<String> _targets = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Constructor to set relevant parameters. If a value can not be readed from the properties it will use groups of
+     * 100 rows, a buffer of 1000 rows and 2 groups at the same time
+     *
+     * @param soap            Engine which signs the documents
+     * @param properties      Properties of the job
+     * @param defaults        Values of the fields which are missing in a row, with the names of the fields
+     * @param outputDirectory Directory for the signed documents of rows without outfile or null
+     * @param outputSuffix    Suffix which is added to the file names of rows without outfile or null
+     */
+    public ManifestJob(@Nonnull Soap soap, @Nonnull Properties properties, @Nonnull Map<String, String> defaults,
+                       @Nullable String outputDirectory, @Nullable String outputSuffix) {
+        this._soap = soap;
+        this._defaults = defaults;
+        this._outputDirectory = outputDirectory;
+        this._outputSuffix = outputSuffix;
+
+        try {
+            _batchSize = Math.max(1, Integer.parseInt(properties.getProperty("MANIFEST_BATCH_SIZE")));
+        } catch (NumberFormatException e) {
+            _batchSize = 100;
+        }
+        try {
+            _bufferSize = Math.max(_batchSize, Integer.parseInt(properties.getProperty("MANIFEST_BUFFER")));
+        } catch (NumberFormatException e) {
+            _bufferSize = Math.max(_batchSize, 1000);
+        }
+        int batches;
+        try {
+            batches = Math.max(1, Integer.parseInt(properties.getProperty("MANIFEST_BATCHES")));
+        } catch (NumberFormatException e) {
+            batches = 2;
+        }
+
+        _executor = new ThreadPoolExecutor(batches, batches, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(batches), new NamedThreadFactory("ais-manifest"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Sign the documents of a manifest and write the result of each document to the report. The report is a JSON lines
+     * file if its name ends with .jsonl or .json, otherwise a CSV file
+     *
+     * @param manifestPath Path of the manifest
+     * @param reportPath   Path of the report
+     * @return Number of documents which could not be signed
+     * @throws Exception If the manifest can not be read or the report can not be written
+     */
+    public long run(@Nonnull String manifestPath, @Nonnull String reportPath) throws Exception {
+        String reportName = reportPath.toLowerCase();
+        _jsonReport = reportName.endsWith(".jsonl") || reportName.endsWith(".json");
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestPath), "UTF-8"));
+        _report = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportPath), "UTF-8"));
+        try {
+            if (!_jsonReport) {
+                writeReport(REPORT_COLUMNS);
+            }
+
+            Map<String, List<Row>> groups = new LinkedHashMap<String, List<Row>>();
+            int buffered = 0;
+            Boolean json = null;
+            String[] header = null;
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+
+                Row row;
+                if (json == null) {
+                    json = line.trim().startsWith("{");
+                }
+                if (!json && header == null) {
+                    // The first row of a CSV manifest names the fields
+                    header = parseCsv(line);
+                    for (int i = 0; i < header.length; i++) {
+                        header[i] = header[i].trim().toLowerCase();
+                    }
+                    continue;
+                }
+                _rows.incrementAndGet();
+                try {
+                    row = json ? createRow(lineNumber, parseJson(line)) : createRow(lineNumber, header, parseCsv(line));
+                } catch (IllegalArgumentException e) {
+                    reportFailed(lineNumber, null, null, e.getMessage());
+                    continue;
+                }
+
+                List<Row> group = groups.get(row.groupKey);
+                if (group == null) {
+                    group = new ArrayList<Row>();
+                    groups.put(row.groupKey, group);
+                }
+                group.add(row);
+                buffered++;
+
+                if (group.size() >= _batchSize) {
+                    groups.remove(row.groupKey);
+                    buffered -= group.size();
+                    submit(group);
+                } else if (buffered > _bufferSize) {
+                    // Too many rows wait in small groups, sign the largest one
+                    String largest = null;
+                    for (Map.Entry<String, List<Row>> entry : groups.entrySet()) {
+                        if (largest == null || entry.getValue().size() > groups.get(largest).size()) {
+                            largest = entry.getKey();
+                        }
+                    }
+                    List<Row> rows = groups.remove(largest);
+                    buffered -= rows.size();
+                    submit(rows);
+                }
+            }
+
+            Iterator<List<Row>> iterator = groups.values().iterator();
+            while (iterator.hasNext()) {
+                submit(iterator.next());
+                iterator.remove();
+            }
+
+            _executor.shutdown();
+            _executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            _executor.shutdownNow();
+            reader.close();
+            synchronized (this) {
+                _report.close();
+            }
+        }
+
+        if (Soap._debugMode || Soap._verboseMode) {
+            System.out.println("Manifest " + manifestPath + ": " + _rows.get() + " rows, " + _signed.get() + " signed, "
+                    + _failed.get() + " failed");
+        }
+        return _failed.get();
+    }
+
+    /**
+     * Get number of rows which were read
+     *
+     * @return Number of documents of the manifest
+     */
+    public long getRows() {
+        return _rows.get();
+    }
+
+    /**
+     * Sign a group of rows on the threads of the job
+     *
+     * @param rows Rows with the same signature type and signer
+     */
+    private void submit(@Nonnull final List<Row> rows) {
+        _executor.execute(new Runnable() {
+            public void run() {
+                signGroup(rows);
+            }
+        });
+    }
+
+    /**
+     * Sign the documents of a group with one call of Soap and report the results. The targets of the rows are released
+     * afterwards
+     *
+     * @param rows Rows with the same signature type and signer
+     */
+    private void signGroup(@Nonnull List<Row> rows) {
+        try {
+            signRows(rows);
+        } finally {
+            for (Row row : rows) {
+                _targets.remove(row.target);
+            }
+        }
+    }
+
+    /**
+     * Sign the documents of rows with one call of Soap and report the results
+     *
+     * @param rows Rows with the same signature type and signer
+     */
+    private void signRows(@Nonnull List<Row> rows) {
+        int count = rows.size();
+        String[] filesIn = new String[count];
+        String[] filesOut = new String[count];
+        String[] reasons = new String[count];
+        String[] locations = new String[count];
+        String[] contacts = new String[count];
+        int[] certificationLevels = new int[count];
+        for (int i = 0; i < count; i++) {
+            Row row = rows.get(i);
+            filesIn[i] = row.fileIn;
+            filesOut[i] = row.fileOut;
+            reasons[i] = row.reason;
+            locations[i] = row.location;
+            contacts[i] = row.contact;
+            certificationLevels[i] = row.certificationLevel;
+        }
+
+        Row first = rows.get(0);
+        DocumentOutcome[] outcomes;
+        try {
+            outcomes = _soap.sign(first.signature, filesIn, filesOut, reasons, locations, contacts, certificationLevels,
+                    first.distinguishedName, null, null, null, null);
+        } catch (Exception e) {
+            for (Row row : rows) {
+                reportFailed(row.line, row.fileIn, row.fileOut, e.getMessage());
+            }
+            return;
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < count; i++) {
+                DocumentOutcome outcome = outcomes[i];
+                if (outcome.isSigned()) {
+                    _signed.incrementAndGet();
+                } else {
+                    _failed.incrementAndGet();
+                }
+                writeReport(String.valueOf(rows.get(i).line), filesIn[i], filesOut[i], outcome.isSigned() ? "SIGNED" : "FAILED",
+                        outcome.getResultMajor(), outcome.getResultMinor(), outcome.isSigned() ? null : outcome.getMessage());
+            }
+            flushReport();
+        }
+    }
+
+    /**
+     * Report a row which could not be signed
+     *
+     * @param line    Line of the row in the manifest
+     * @param fileIn  Input file or null
+     * @param fileOut Output file or null
+     * @param message Reason why the document was not signed
+     */
+    private synchronized void reportFailed(int line, @Nullable String fileIn, @Nullable String fileOut, @Nullable String message) {
+        _failed.incrementAndGet();
+        if (Soap._debugMode || Soap._verboseMode) {
+            System.err.println("Line " + line + " could not be signed: " + message);
+        }
+        writeReport(String.valueOf(line), fileIn, fileOut, "FAILED", null, null, message);
+        flushReport();
+    }
+
+    /**
+     * Write a row of the report. Errors of the report are printed, they do not stop the signing
+     *
+     * @param values Values of the columns of the report
+     */
+    private void writeReport(@Nonnull String... values) {
+        try {
+            StringBuilder builder = new StringBuilder();
+            if (_jsonReport) {
+                builder.append('{');
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        builder.append(',');
+                    }
+                    builder.append('"').append(REPORT_COLUMNS[i]).append("\":");
+                    if (values[i] == null) {
+                        builder.append("null");
+                    } else if (i == 0) {
+                        builder.append(values[i]);
+                    } else {
+                        appendJsonString(builder, values[i]);
+                    }
+                }
+                builder.append('}');
+            } else {
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        builder.append(',');
+                    }
+                    if (values[i] != null) {
+                        builder.append('"').append(values[i].replace("\"", "\"\"").replace('\n', ' ')).append('"');
+                    }
+                }
+            }
+            _report.write(builder.append('\n').toString());
+        } catch (IOException e) {
+            System.err.println("Could not write the report: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Flush the report, so the results of the completed groups can be read while the job runs
+     */
+    private void flushReport() {
+        try {
+            _report.flush();
+        } catch (IOException e) {
+            System.err.println("Could not write the report: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create a row of a CSV manifest
+     *
+     * @param line   Line of the row in the manifest
+     * @param header Names of the fields in lower case
+     * @param values Values of the fields
+     * @return Row
+     * @throws IllegalArgumentException If the row is not valid
+     */
+    @Nonnull
+    private Row createRow(int line, @Nonnull String[] header, @Nonnull String[] values) {
+        if (values.length > header.length) {
+            throw new IllegalArgumentException("Row has more fields than the header");
+        }
+        Map<String, String> fields = new HashMap<String, String>();
+        for (int i = 0; i < values.length; i++) {
+            fields.put(header[i], values[i]);
+        }
+        return createRow(line, fields);
+    }
+
+    /**
+     * Create a row from its fields. Missing fields take the values of the command line options
+     *
+     * @param line   Line of the row in the manifest
+     * @param fields Fields of the row with lower case names
+     * @return Row
+     * @throws IllegalArgumentException If the row is not valid
+     */
+    @Nonnull
+    private Row createRow(int line, @Nonnull Map<String, String> fields) {
+        Row row = new Row();
+        row.line = line;
+        row.fileIn = getField(fields, "infile");
+        row.fileOut = getField(fields, "outfile");
+        row.distinguishedName = getField(fields, "dn");
+        row.reason = getField(fields, "reason");
+        row.location = getField(fields, "location");
+        row.contact = getField(fields, "contact");
+        String type = getField(fields, "type");
+        String certificationLevel = getField(fields, "certlevel");
+
+        if (row.fileIn == null) {
+            throw new IllegalArgumentException("Field infile is missing");
+        }
+        if (getField(fields, "stepupmsisdn") != null || getField(fields, "stepupmsg") != null
+                || getField(fields, "stepuplang") != null) {
+            throw new IllegalArgumentException("Step-up authorization can not be used in a manifest");
+        }
+        if (type == null) {
+            throw new IllegalArgumentException("Field type is missing");
+        }
+        try {
+            row.signature = Include.Signature.valueOf(type.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(type + " is not a valid signature.");
+        }
+        if (row.signature.equals(Include.Signature.SIGN)) {
+            row.signature = row.distinguishedName != null ? Include.Signature.ONDEMAND : Include.Signature.STATIC;
+        } else if (row.signature.equals(Include.Signature.TIMESTAMP) && row.distinguishedName != null) {
+            throw new IllegalArgumentException("Field dn is not allowed for timestamps");
+        }
+        if (certificationLevel != null) {
+            try {
+                row.certificationLevel = Integer.parseInt(certificationLevel);
+            } catch (NumberFormatException e) {
+                row.certificationLevel = -1;
+            }
+            if (row.certificationLevel < 1 || row.certificationLevel > 3) {
+                throw new IllegalArgumentException("certlevel value not between 1..3");
+            }
+        }
+
+        File fileIn = new File(row.fileIn);
+        if (!fileIn.isFile() || !fileIn.canRead()) {
+            throw new IllegalArgumentException("File " + row.fileIn + " is not a file or can not be read.");
+        }
+        if (row.fileOut == null) {
+            if (_outputDirectory == null && _outputSuffix == null) {
+                throw new IllegalArgumentException("Field outfile is missing");
+            }
+            String name = fileIn.getName();
+            if (_outputSuffix != null) {
+                int extension = name.lastIndexOf('.');
+                name = extension > 0 ? name.substring(0, extension) + _outputSuffix + name.substring(extension) : name + _outputSuffix;
+            }
+            File directory = _outputDirectory != null ? new File(_outputDirectory) : fileIn.getAbsoluteFile().getParentFile();
+            row.fileOut = new File(directory, name).getPath();
+        }
+        File fileOut = new File(row.fileOut);
+        String target;
+        try {
+            target = fileOut.getCanonicalPath();
+            if (target.equals(fileIn.getCanonicalPath())) {
+                throw new IllegalArgumentException("Source file equals target file.");
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Target file " + row.fileOut + " can not be resolved: " + e.getMessage());
+        }
+        // The target files of the rows in flight do not exist yet, so they are claimed here. The target is claimed
+        // before it is checked, a row which completes in between has written its target then
+        if (!_targets.add(target)) {
+            throw new IllegalArgumentException("Target file " + row.fileOut + " is used by an earlier row.");
+        }
+        if (fileOut.exists()) {
+            _targets.remove(target);
+            throw new IllegalArgumentException("Target file " + row.fileOut + " exists.");
+        }
+        row.target = target;
+
+        // The signature type and the signer are the same for all documents of a request
+        row.groupKey = row.signature + "\n" + (row.distinguishedName != null ? row.distinguishedName : "");
+        return row;
+    }
+
+    /**
+     * Get the value of a field or the value of the command line option
+     *
+     * @param fields Fields of the row
+     * @param name   Name of the field
+     * @return Value or null if the field is missing or empty
+     */
+    @Nullable
+    private String getField(@Nonnull Map<String, String> fields, @Nonnull String name) {
+        String value = fields.get(name);
+        if (value == null || value.trim().length() == 0) {
+            value = _defaults.get(name);
+        }
+        return value != null && value.trim().length() > 0 ? value.trim() : null;
+    }
+
+    /**
+     * Split a line of a CSV file into its fields. Fields may be quoted with double quotes, a double quote in a quoted
+     * field is doubled. A field can not span several lines
+     *
+     * @param line Line of the CSV file
+     * @return Fields of the line
+     * @throws IllegalArgumentException If a quoted field is not closed
+     */
+    @Nonnull
+    static String[] parseCsv(@Nonnull String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Quoted field is not closed");
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * Parse a flat JSON object with string, number, boolean or null values. Nested objects and arrays are not supported
+     *
+     * @param line Line of the JSON lines file
+     * @return Fields of the object with lower case names, null values are left out
+     * @throws IllegalArgumentException If the line is not a flat JSON object
+     */
+    @Nonnull
+    static Map<String, String> parseJson(@Nonnull String line) {
+        Map<String, String> fields = new HashMap<String, String>();
+        int[] position = {skipWhitespace(line, 0)};
+        expect(line, position, '{');
+        position[0] = skipWhitespace(line, position[0]);
+        if (position[0] < line.length() && line.charAt(position[0]) == '}') {
+            position[0]++;
+        } else {
+            while (true) {
+                position[0] = skipWhitespace(line, position[0]);
+                String name = parseJsonString(line, position);
+                position[0] = skipWhitespace(line, position[0]);
+                expect(line, position, ':');
+                position[0] = skipWhitespace(line, position[0]);
+
+                String value;
+                if (position[0] < line.length() && line.charAt(position[0]) == '"') {
+                    value = parseJsonString(line, position);
+                } else {
+                    int start = position[0];
+                    while (position[0] < line.length() && ",} \t".indexOf(line.charAt(position[0])) < 0) {
+                        position[0]++;
+                    }
+                    value = line.substring(start, position[0]);
+                    if (!value.matches("-?[0-9.eE+-]+|true|false|null")) {
+                        throw new IllegalArgumentException("Value of " + name + " is not supported: " + value);
+                    }
+                    if (value.equals("null")) {
+                        value = null;
+                    }
+                }
+                if (value != null) {
+                    fields.put(name.toLowerCase(), value);
+                }
+
+                position[0] = skipWhitespace(line, position[0]);
+                if (position[0] < line.length() && line.charAt(position[0]) == ',') {
+                    position[0]++;
+                } else {
+                    expect(line, position, '}');
+                    break;
+                }
+            }
+        }
+        if (skipWhitespace(line, position[0]) != line.length()) {
+            throw new IllegalArgumentException("Unexpected characters after the JSON object");
+        }
+        return fields;
+    }
+
+    /**
+     * Parse a JSON string at the position and move the position after it
+     *
+     * @param line     Line of the JSON lines file
+     * @param position Position of the opening quote
+     * @return Value of the string
+     * @throws IllegalArgumentException If there is no valid string at the position
+     */
+    @Nonnull
+    private static String parseJsonString(@Nonnull String line, @Nonnull int[] position) {
+        expect(line, position, '"');
+        StringBuilder value = new StringBuilder();
+        int i = position[0];
+        while (i < line.length() && line.charAt(i) != '"') {
+            char c = line.charAt(i++);
+            if (c == '\\') {
+                if (i >= line.length()) {
+                    break;
+                }
+                char escaped = line.charAt(i++);
+                switch (escaped) {
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'u':
+                        if (i + 4 > line.length()) {
+                            throw new IllegalArgumentException("Invalid escape sequence in JSON string");
+                        }
+                        value.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                        i += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        position[0] = i;
+        expect(line, position, '"');
+        return value.toString();
+    }
+
+    /**
+     * Append a JSON string with quotes
+     *
+     * @param builder Target
+     * @param value   Value of the string
+     */
+    private static void appendJsonString(@Nonnull StringBuilder builder, @Nonnull String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+
+    /**
+     * Check the character at the position and move the position after it
+     *
+     * @param line     Line of the JSON lines file
+     * @param position Position of the character
+     * @param expected Expected character
+     * @throws IllegalArgumentException If the character is not the expected one
+     */
+    private static void expect(@Nonnull String line, @Nonnull int[] position, char expected) {
+        if (position[0] >= line.length() || line.charAt(position[0]) != expected) {
+            throw new IllegalArgumentException("Invalid JSON: expected '" + expected + "' at position " + position[0]);
+        }
+        position[0]++;
+    }
+
+    /**
+     * Skip whitespace
+     *
+     * @param line     Line of the JSON lines file
+     * @param position Position to start
+     * @return Position of the next character which is not whitespace
+     */
+    private static int skipWhitespace(@Nonnull String line, int position) {
+        while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Document of a manifest with its settings
+     */
+    private static class Row {
+
+        int line;
+        String fileIn;
+        String fileOut;
+        Include.Signature signature;
+        String distinguishedName;
+        String reason;
+        String location;
+        String contact;
+        int certificationLevel;
+
+        /**
+         * Canonical path of the target file
+         */
+        String target;
+
+        /**
+         * Rows with the same key can be signed with one request
+         */
+        String groupKey;
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Thread factory for the worker threads of this package
+ *
+ * Created:
+ * 17.10.26 KW42 11:05
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 11:05
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads with a name prefix, so worker threads do not prevent the application from exiting
+ */
+class NamedThreadFactory implements ThreadFactory {
+
+    /**
+     * Prefix of thread names
+     */
+    private String _prefix;
+
+    /**
+     * Number of created threads
+     */
+    private final AtomicInteger _count = new AtomicInteger();
+
+    /**
+     * Constructor for this class. Sets variables
+     *
+     * @param prefix Prefix of thread names
+     */
+    NamedThreadFactory(@Nonnull String prefix) {
+        this._prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(@Nonnull Runnable runnable) {
+        Thread thread = new Thread(runnable, _prefix + "-" + _count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
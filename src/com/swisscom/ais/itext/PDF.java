@@ -22,27 +22,35 @@
 
 package com.swisscom.ais.itext;
 
+import com.itextpdf.text.io.RandomAccessSource;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
 import com.itextpdf.text.pdf.*;
-import com.itextpdf.text.pdf.codec.Base64;
 import com.itextpdf.text.pdf.security.*;
 
 import javax.annotation.Nonnull;
-
-import org.bouncycastle.cert.ocsp.BasicOCSPResp;
-import org.bouncycastle.cert.ocsp.OCSPResp;
+import javax.annotation.Nullable;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509CRL;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class PDF {
 
+    /**
+     * Size of the buffer for hashing the byte range of the signature
+     */
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
     /**
      * Save file path from input file
      */
@@ -101,7 +109,52 @@ public class PDF {
     /**
      * Save byte array outputstream for writing pdf file
      */
-    private ByteArrayOutputStream byteArrayOutputStream;
+    private DocumentBuffer byteArrayOutputStream;
+
+    /**
+     * Documents larger than this number of bytes are stamped into a temp file instead of memory
+     */
+    private long tempFileThreshold = Long.MAX_VALUE;
+
+    /**
+     * Temp file of the prepared document or null if it is prepared in memory
+     */
+    private File tempFile;
+
+    /**
+     * Size of the prepared document in bytes
+     */
+    private long preparedSize;
+
+    /**
+     * Number of bytes of the prepared document covered by the signature
+     */
+    private long rangeLength;
+
+    /**
+     * Outcome of signing the document
+     */
+    private DocumentOutcome outcome;
+
+    /**
+     * True if the input document has a certification which does not allow any changes
+     */
+    private boolean noChangesAllowed;
+
+    /**
+     * Prepared document in a file of the pending journal, if the document was prepared before a restart
+     */
+    private PendingJournal.Document prepared;
+
+    /**
+     * Temp file with the embedded signature which is not yet saved to the output file
+     */
+    private File signedFile;
+
+    /**
+     * Error while adding the revocation information to the signed document, thrown when the document is saved
+     */
+    private Exception validationError;
 
     /**
      * Set parameters
@@ -121,6 +174,21 @@ public class PDF {
         this.signLocation = signLocation;
         this.signContact = signContact;
         this.certificationLevel = certificationLevel;
+        this.outcome = new DocumentOutcome(inputFilePath, outputFilePath);
+    }
+
+    /**
+     * Create a pdf from a document which was prepared before a restart. The signature is written into the placeholder
+     * of the prepared document, so the document is not prepared again
+     *
+     * @param prepared Prepared document in a file of the pending journal
+     * @return Pdf which can be signed
+     */
+    static PDF restore(@Nonnull PendingJournal.Document prepared) {
+        PDF pdf = new PDF(prepared.inputFilePath, prepared.outputFilePath, null, null, null, null, 0);
+        pdf.prepared = prepared;
+        pdf.noChangesAllowed = prepared.noChangesAllowed;
+        return pdf;
     }
 
     /**
@@ -132,6 +200,34 @@ public class PDF {
         return inputFilePath;
     }
 
+    /**
+     * Get outcome of signing the document
+     *
+     * @return Outcome
+     */
+    public DocumentOutcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Set size above which a document is stamped into a temp file in the directory of the output file instead of
+     * memory. The input document is then also read partially
+     *
+     * @param tempFileThreshold Size of document in bytes
+     */
+    public void setTempFileThreshold(long tempFileThreshold) {
+        this.tempFileThreshold = tempFileThreshold;
+    }
+
+    /**
+     * Get number of bytes of the prepared document which are held on the heap until the signature is added
+     *
+     * @return Size of the prepared document or 0 if it is prepared in a temp file
+     */
+    public long getBufferedSize() {
+        return tempFile != null ? 0 : preparedSize;
+    }
+
     /**
      * Add signature information (reason for signing, location, contact, date) and create hash from pdf document
      *
@@ -145,11 +241,24 @@ public class PDF {
     public byte[] getPdfHash(@Nonnull Calendar signDate, int estimatedSize, @Nonnull String hashAlgorithm, boolean isTimestampOnly)
             throws Exception {
 
-        pdfReader = new PdfReader(inputFilePath, pdfPassword != null ? pdfPassword.getBytes() : null);
+        byte[] password = pdfPassword != null ? pdfPassword.getBytes() : null;
+        if (new File(inputFilePath).length() > tempFileThreshold) {
+            // Objects are read when they are needed and the new revision is written to disk
+            pdfReader = new PdfReader(inputFilePath, password, true);
+            tempFile = createTempFile();
+        } else {
+            pdfReader = new PdfReader(inputFilePath, password);
+        }
+        noChangesAllowed = pdfReader.getCertificationLevel() == PdfSignatureAppearance.CERTIFIED_NO_CHANGES_ALLOWED;
         AcroFields acroFields = pdfReader.getAcroFields();
         boolean hasSignature = acroFields.getSignatureNames().size() > 0;
-        byteArrayOutputStream = new ByteArrayOutputStream();
-        pdfStamper = PdfStamper.createSignature(pdfReader, byteArrayOutputStream, '\0', null, hasSignature);
+        if (tempFile != null) {
+            // Without output stream the document stays in the temp file when the signature appearance is closed
+            pdfStamper = PdfStamper.createSignature(pdfReader, null, '\0', tempFile, hasSignature);
+        } else {
+            byteArrayOutputStream = new DocumentBuffer();
+            pdfStamper = PdfStamper.createSignature(pdfReader, byteArrayOutputStream, '\0', null, hasSignature);
+        }
         pdfStamper.setXmpMetadata(pdfReader.getMetadata());
 
         pdfSignatureAppearance = pdfStamper.getSignatureAppearance();
@@ -176,14 +285,94 @@ public class PDF {
 
         pdfSignatureAppearance.preClose(exc);
 
-        MessageDigest messageDigest = MessageDigest.getInstance(hashAlgorithm);
+        byte[] hash = digest(pdfSignatureAppearance.getRangeStream(), hashAlgorithm);
+        preparedSize = rangeLength + estimatedSize * 2 + 2;
+
+        if (Soap._debugMode) {
+            Runtime runtime = Runtime.getRuntime();
+            System.out.println("Prepared " + inputFilePath + (tempFile != null ? " in temp file " + tempFile.getPath() : " in memory")
+                    + ": " + preparedSize + " bytes, " + getBufferedSize() + " bytes on heap (heap used: "
+                    + (runtime.totalMemory() - runtime.freeMemory()) / 1048576 + " MB)");
+        }
+
+        return hash;
+    }
+
+    /**
+     * Write the prepared document to a file, so it can be signed after a restart. The file contains the byte range of
+     * the signature and a placeholder of spaces for the /Contents entry. It is synced to disk
+     *
+     * @param file File of the pending journal
+     * @return Prepared document
+     * @throws IOException If the document can not be written
+     */
+    PendingJournal.Document persistPrepared(@Nonnull File file) throws IOException {
+        PdfLiteral pdfLiteral = (PdfLiteral) pdfSignature.get(PdfName.CONTENTS);
+        long contentsOffset = pdfLiteral.getPosition();
+        int contentsLength = pdfLiteral.getPosLength();
+
         InputStream rangeStream = pdfSignatureAppearance.getRangeStream();
-        int i;
-        while ((i = rangeStream.read()) != -1) {
-            messageDigest.update((byte) i);
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        try {
+            OutputStream outputStream = new BufferedOutputStream(fileOutputStream, HASH_BUFFER_SIZE);
+            byte[] buffer = new byte[HASH_BUFFER_SIZE];
+            // Bytes of the range before the placeholder which are not written yet
+            long remaining = contentsOffset;
+            int n;
+            while ((n = rangeStream.read(buffer, 0, remaining > 0 ? (int) Math.min(buffer.length, remaining) : buffer.length)) != -1) {
+                outputStream.write(buffer, 0, n);
+                if (remaining > 0) {
+                    remaining -= n;
+                    if (remaining == 0) {
+                        byte[] placeholder = new byte[contentsLength];
+                        Arrays.fill(placeholder, (byte) ' ');
+                        outputStream.write(placeholder);
+                    }
+                }
+            }
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            fileOutputStream.close();
+            rangeStream.close();
+        }
+
+        return new PendingJournal.Document(inputFilePath, outputFilePath, file.getPath(), contentsOffset, contentsLength,
+                noChangesAllowed);
+    }
+
+    /**
+     * Hash the byte range of the signature. The range is read in large blocks directly from the buffer or file of
+     * the stamper. In debug mode the throughput is printed
+     *
+     * @param rangeStream   Stream of the byte range
+     * @param hashAlgorithm The hash algorithm which will be used to sign the pdf
+     * @return Hash of byte range
+     * @throws Exception If hash algorithm is not available or the range can not be read
+     */
+    private byte[] digest(@Nonnull InputStream rangeStream, @Nonnull String hashAlgorithm) throws Exception {
+
+        MessageDigest messageDigest = MessageDigest.getInstance(hashAlgorithm);
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        long length = 0;
+        long start = System.nanoTime();
+
+        int n;
+        while ((n = rangeStream.read(buffer, 0, buffer.length)) != -1) {
+            messageDigest.update(buffer, 0, n);
+            length += n;
+        }
+
+        byte[] hash = messageDigest.digest();
+        rangeLength = length;
+
+        if (Soap._debugMode) {
+            long nanos = Math.max(System.nanoTime() - start, 1);
+            System.out.println("\nHashed " + length + " bytes with " + hashAlgorithm + " in " + (nanos / 1000000) + " ms ("
+                    + String.format("%.1f", (length / 1048576.0) / (nanos / 1e9)) + " MB/s)");
         }
 
-        return messageDigest.digest();
+        return hash;
     }
 
     /**
@@ -194,8 +383,39 @@ public class PDF {
      * @throws Exception 
      */
     public void createSignedPdf(@Nonnull byte[] externalSignature, int estimatedSize) throws Exception {
+        createSignedPdf(externalSignature, estimatedSize, null);
+    }
+
+    /**
+     * Add a signature and the revocation information (LTV) to pdf document. The revision with the DSS dictionary is
+     * created from the signed document in memory or in the temp file and appended to it, so the output file is
+     * written only once and not read again
+     *
+     * @param externalSignature     The extern generated signature
+     * @param estimatedSize         Size of external signature
+     * @param validationInformation Decoded revocation information, may be shared with other documents
+     * @throws Exception 
+     */
+    public void createSignedPdf(@Nonnull byte[] externalSignature, int estimatedSize,
+                                @Nullable ValidationInformation validationInformation) throws Exception {
+        embedSignature(externalSignature, estimatedSize, validationInformation);
+        persist();
+    }
+
+    /**
+     * Add a signature and the revocation information (LTV) to the temp file of the document. The output file is not
+     * written before {@link #persist()}, so this can be done on other threads than writing the files
+     *
+     * @param externalSignature     The extern generated signature
+     * @param estimatedSize         Size of external signature
+     * @param validationInformation Decoded revocation information, may be shared with other documents
+     * @throws Exception If the signature can not be added. An error of the revocation information is thrown by
+     *                   {@link #persist()}, because the document is saved with the signature anyway
+     */
+    public void embedSignature(@Nonnull byte[] externalSignature, int estimatedSize,
+                               @Nullable ValidationInformation validationInformation) throws Exception {
     	// Check if source pdf is not protected by a certification
-    	if (pdfReader.getCertificationLevel() == PdfSignatureAppearance.CERTIFIED_NO_CHANGES_ALLOWED)
+    	if (noChangesAllowed)
     		throw new Exception("Could not apply signature because source file contains a certification that does not allow any changes to the document");
     	
     	if (Soap._debugMode) {
@@ -208,125 +428,316 @@ public class PDF {
             throw new IOException("\nNot enough space for signature (" + (estimatedSize-externalSignature.length) + " bytes)");
         }
 
-        PdfLiteral pdfLiteral = (PdfLiteral) pdfSignature.get(PdfName.CONTENTS);
-        byte[] outc = new byte[(pdfLiteral.getPosLength() - 2) / 2];
+        int contentsLength = prepared != null ? prepared.contentsLength : ((PdfLiteral) pdfSignature.get(PdfName.CONTENTS)).getPosLength();
+        byte[] outc = new byte[(contentsLength - 2) / 2];
 
         Arrays.fill(outc, (byte) 0);
 
         System.arraycopy(externalSignature, 0, outc, 0, externalSignature.length);
-        PdfDictionary dic2 = new PdfDictionary();
-        dic2.put(PdfName.CONTENTS, new PdfString(outc).setHexWriting(true));
-        pdfSignatureAppearance.close(dic2);
-           
-        // Save to file
-        OutputStream outputStream = new FileOutputStream(outputFilePath);
-        byteArrayOutputStream.writeTo(outputStream);
-        
+        PdfString contents = new PdfString(outc).setHexWriting(true);
+
+        boolean addValidation = validationInformation != null && !validationInformation.isEmpty();
+
+        // The signed document is written to a temp file in the directory of the output file, unless it is already there
+        PdfReader reader = null;
+        if (prepared != null) {
+            // The document was prepared before a restart, the signature is written into the placeholder of a copy
+            tempFile = createTempFile();
+            Files.copy(new File(prepared.preparedFilePath).toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            ByteArrayOutputStream contentsBytes = new ByteArrayOutputStream(contentsLength);
+            contents.toPdf(null, contentsBytes);
+            RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw");
+            try {
+                randomAccessFile.seek(prepared.contentsOffset);
+                randomAccessFile.write(contentsBytes.toByteArray());
+            } finally {
+                randomAccessFile.close();
+            }
+            if (addValidation) {
+                reader = new PdfReader(tempFile.getPath(), null, true);
+            }
+        } else {
+            PdfDictionary dic2 = new PdfDictionary();
+            dic2.put(PdfName.CONTENTS, contents);
+            pdfSignatureAppearance.close(dic2);
+
+            if (tempFile == null) {
+                tempFile = createTempFile();
+                if (addValidation) {
+                    reader = byteArrayOutputStream.getReader();
+                }
+                OutputStream outputStream = new FileOutputStream(tempFile);
+                try {
+                    byteArrayOutputStream.writeTo(outputStream);
+                } finally {
+                    outputStream.close();
+                }
+                byteArrayOutputStream = null;
+            } else if (addValidation) {
+                reader = new PdfReader(tempFile.getPath(), null, true);
+            }
+        }
+
+        validationError = null;
+        if (reader != null) {
+            try {
+                appendValidationInformation(reader, tempFile, validationInformation);
+            } catch (Exception e) {
+                // The document still contains the signature and is saved anyway
+                validationError = e;
+            }
+        }
+        signedFile = tempFile;
+    }
+
+    /**
+     * Save the document with the signature to the output file. The temp file is written to the disk before it
+     * replaces the output file, so the output file is either the old one or the complete signed document
+     *
+     * @throws Exception If the file can not be saved or if the revocation information could not be added
+     */
+    public void persist() throws Exception {
+        if (signedFile == null)
+            throw new IllegalStateException("No signature was embedded into " + inputFilePath);
+
+        FileChannel channel = FileChannel.open(signedFile.toPath(), StandardOpenOption.WRITE);
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        moveToOutputFile(signedFile);
+        signedFile = null;
+        tempFile = null;
+
         if (Soap._debugMode) {
 	    	System.out.println("\nOK writing signature to " + outputFilePath);
 	    }
-        
-        byteArrayOutputStream.close();
-        outputStream.close();
+
+        if (validationError != null) {
+            Exception error = validationError;
+            validationError = null;
+            throw error;
+        }
     }
 	
 	/** 
-	 * Add external revocation information to DSS Dictionary, to enable Long Term Validation (LTV) in Adobe Reader
+	 * Add external revocation information to DSS Dictionary, to enable Long Term Validation (LTV) in Adobe Reader.
+	 * The revision with the DSS dictionary is appended to the output file
 	 * 
 	 * @param ocspArr List of OCSP Responses as base64 encoded String
 	 * @param crlArr  List of CRLs as base64 encoded String
 	 * @throws Exception 
 	 */
-	public void addValidationInformation(ArrayList<String> ocspArr, ArrayList<String> crlArr) throws Exception {
-		if (ocspArr == null && crlArr == null)
+	public void addValidationInformation(List<String> ocspArr, List<String> crlArr) throws Exception {
+		ValidationInformation validationInformation = ValidationInformation.decode(ocspArr, crlArr);
+		if (validationInformation.isEmpty())
 			return;
-		
-		PdfReader reader = new PdfReader(outputFilePath);
-		
-		// Check if source pdf is not protected by a certification
-    	if (reader.getCertificationLevel() == PdfSignatureAppearance.CERTIFIED_NO_CHANGES_ALLOWED)
-    		throw new Exception("Could not apply revocation information (LTV) to the DSS Dictionary. Document contains a certification that does not allow any changes.");
-    	
-		Collection<byte[]> ocspColl = new ArrayList<byte[]>();
-		Collection<byte[]> crlColl = new ArrayList<byte[]>();
 
-		// Decode each OCSP Response (String of base64 encoded form) and add it to the Collection (byte[])
-		if (ocspArr != null) {
-			for (String ocspBase64 : ocspArr) {
-				OCSPResp ocspResp = new OCSPResp(new ByteArrayInputStream(Base64.decode(ocspBase64)));
-				BasicOCSPResp basicResp = (BasicOCSPResp) ocspResp.getResponseObject();
+		File outputFile = new File(outputFilePath);
+		PdfReader reader = outputFile.length() > tempFileThreshold ? new PdfReader(outputFilePath, null, true) : new PdfReader(outputFilePath);
+		appendValidationInformation(reader, outputFile, validationInformation);
+	}
 
+	/**
+	 * Add the revocation information to the DSS dictionary in a new revision which is appended to the file of the
+	 * document. If this fails the file is truncated to the original document
+	 *
+	 * @param reader                Reader of the document in the file. Will be closed
+	 * @param file                  File of the document
+	 * @param validationInformation Decoded revocation information
+	 * @throws Exception If the revision can not be added
+	 */
+	private void appendValidationInformation(@Nonnull PdfReader reader, @Nonnull File file,
+	                                         @Nonnull ValidationInformation validationInformation) throws Exception {
+		long length = file.length();
+		try {
+			// Check if source pdf is not protected by a certification
+	    	if (reader.getCertificationLevel() == PdfSignatureAppearance.CERTIFIED_NO_CHANGES_ALLOWED)
+	    		throw new Exception("Could not apply revocation information (LTV) to the DSS Dictionary. Document contains a certification that does not allow any changes.");
+
+			// OCSP responses and CRLs which are already in the DSS of the document are not added again
+			validationInformation = validationInformation.without(getDssDigests(reader));
+			if (validationInformation.isEmpty()) {
 				if (Soap._debugMode) {
-					System.out.println("\nEmbedding OCSP Response...");
-					System.out.println("Status                : " + ((ocspResp.getStatus() == 0) ? "GOOD" : "BAD"));
-					System.out.println("Produced at           : " + basicResp.getProducedAt());
-					System.out.println("This Update           : " + basicResp.getResponses()[0].getThisUpdate());
-					System.out.println("Next Update           : " + basicResp.getResponses()[0].getNextUpdate());
-					System.out.println("X509 Cert Issuer      : " + basicResp.getCerts()[0].getIssuer());
-					System.out.println("X509 Cert Subject     : " + basicResp.getCerts()[0].getSubject());
-					System.out.println("Certificate ID        : " + basicResp.getResponses()[0].getCertID().getSerialNumber().toString() + " ("
-							+ basicResp.getResponses()[0].getCertID().getSerialNumber().toString(16).toUpperCase() + ")");
+					System.out.println("\nDSS of " + outputFilePath + " already contains the LTV validation information");
 				}
+				return;
+			}
 
-				ocspColl.add(basicResp.getEncoded()); // Add Basic OCSP Response to Collection (ASN.1 encoded representation of this object)
+			OutputStream outputStream = new IncrementalUpdateOutputStream(
+					new BufferedOutputStream(new FileOutputStream(file, true), HASH_BUFFER_SIZE), length);
+			PdfStamper stamper = new PdfStamper(reader, outputStream, '\0', true);
+			LtvVerification validation = stamper.getLtvVerification();
+
+			// Add the CRL/OCSP validation information to the DSS Dictionary
+			// The revocation information is added to the latest signature only, the entries of older signatures are kept.
+			// The signature names are ordered by revision
+			List<String> signatureNames = stamper.getAcroFields().getSignatureNames();
+			boolean addVerification = !signatureNames.isEmpty() && validation.addVerification(
+					signatureNames.get(signatureNames.size() - 1), // Signature Name
+					validationInformation.getOcsp(), // OCSP
+					validationInformation.getCrl(), // CRL
+					null // certs
+					);
+
+			validation.merge(); // Merges the validation with any validation already in the document or creates a new one.
+
+			stamper.close();
+
+			if (Soap._debugMode) {
+				if (addVerification)
+					System.out.println("\nOK merging LTV validation information to " + outputFilePath);
+				else
+					System.out.println("\nFAILED merging LTV validation information to " + outputFilePath);
 			}
+		} catch (Exception e) {
+			// Remove an incomplete revision
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+			try {
+				randomAccessFile.setLength(length);
+			} finally {
+				randomAccessFile.close();
+			}
+			throw e;
+		} finally {
+			reader.close();
 		}
+	}
 
-		// Decode each CRL (String of base64 encoded form) and add it to the Collection (byte[])
-		if (crlArr != null) {
-			for (String crlBase64 : crlArr) {
-				X509CRL x509crl = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(Base64.decode(crlBase64)));
-
-				if (Soap._debugMode) {
-					System.out.println("\nEmbedding CRL...");
-					System.out.println("IssuerDN                    : " + x509crl.getIssuerDN());
-					System.out.println("This Update                 : " + x509crl.getThisUpdate());
-					System.out.println("Next Update                 : " + x509crl.getNextUpdate());
-					System.out.println("No. of Revoked Certificates : "
-							+ ((x509crl.getRevokedCertificates() == null) ? "0" : x509crl.getRevokedCertificates().size()));
+	/**
+	 * Get the digests of the OCSP responses and CRLs in the DSS dictionary of a document. The OCSP responses in the DSS
+	 * wrap the basic OCSP responses which are cached, so the digests are created from the basic responses
+	 *
+	 * @param reader Reader of the document
+	 * @return Hex encoded SHA-256 hashes of the basic OCSP responses and CRLs
+	 * @throws Exception If a stream can not be read
+	 */
+	private static Set<String> getDssDigests(@Nonnull PdfReader reader) throws Exception {
+		Set<String> digests = new HashSet<String>();
+		PdfDictionary dss = reader.getCatalog().getAsDict(PdfName.DSS);
+		if (dss != null) {
+			for (PdfName name : new PdfName[]{PdfName.OCSPS, PdfName.CRLS}) {
+				PdfArray streams = dss.getAsArray(name);
+				for (int i = 0; streams != null && i < streams.size(); i++) {
+					PdfObject stream = streams.getDirectObject(i);
+					if (stream instanceof PRStream) {
+						byte[] content = PdfReader.getStreamBytes((PRStream) stream);
+						if (PdfName.OCSPS.equals(name)) {
+							content = RevocationCache.getBasicOcsp(content);
+						}
+						digests.add(RevocationCache.digest(content));
+					}
 				}
-
-				crlColl.add(x509crl.getEncoded()); // Add CRL to Collection (ASN.1 DER-encoded form of this CRL)
 			}
 		}
+		return digests;
+	}
 
-		byteArrayOutputStream = new ByteArrayOutputStream();
-		PdfStamper stamper = new PdfStamper(reader, byteArrayOutputStream, '\0', true);
-		LtvVerification validation = stamper.getLtvVerification();
-
-		// Add the CRL/OCSP validation information to the DSS Dictionary
-		boolean addVerification = false;
-    // remove the for-statement because we want to add the recovation information to the latest signature only.
-		for (String sigName : stamper.getAcroFields().getSignatureNames()) {
-			addVerification = validation.addVerification(
-					sigName, // Signature Name
-					ocspColl, // OCSP
-					crlColl, // CRL
-					null // certs
-					);
+	/**
+	 * Create a temp file in the directory of the output file, so it can be moved to the output file
+	 *
+	 * @return Empty temp file
+	 * @throws IOException If the file can not be created
+	 */
+	private File createTempFile() throws IOException {
+		File outputDir = new File(outputFilePath).getAbsoluteFile().getParentFile();
+		return File.createTempFile("signpdf", ".tmp", outputDir);
+	}
+
+	/**
+	 * Replace the output file with a temp file. The file is moved atomically if the file system supports it
+	 *
+	 * @param file Temp file in the directory of the output file
+	 * @throws IOException If the file can not be moved
+	 */
+	private void moveToOutputFile(@Nonnull File file) throws IOException {
+		try {
+			Files.move(file.toPath(), new File(outputFilePath).toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(file.toPath(), new File(outputFilePath).toPath(), StandardCopyOption.REPLACE_EXISTING);
 		}
+	}
+	
+	public void close() {
+	   if (pdfReader != null) {
+	       pdfReader.close();
+	   }
+	   // Remove the temp file of a document which was not signed
+	   if (tempFile != null && tempFile.exists()) {
+	       tempFile.delete();
+	   }
+	}
 
-		validation.merge(); // Merges the validation with any validation already in the document or creates a new one.
+	/**
+	 * Buffer of a document which is prepared in memory
+	 */
+	private static class DocumentBuffer extends ByteArrayOutputStream {
+
+		/**
+		 * Get a reader for the document in the buffer. The document is read partially and the buffer is not copied
+		 *
+		 * @return Reader of the document
+		 * @throws IOException If the document can not be read
+		 */
+		PdfReader getReader() throws IOException {
+			RandomAccessSourceFactory factory = new RandomAccessSourceFactory();
+			RandomAccessSource source = factory.createRanged(factory.createSource(buf), new long[]{0, count});
+			return new PdfReader(new RandomAccessFileOrArray(source), null, true);
+		}
+	}
 
-		stamper.close();
-		reader.close();
+	/**
+	 * Output stream for an incremental update of a document which is already in the target. PdfStamper in append mode
+	 * first copies the original document, these bytes are skipped and only the new revision is written
+	 */
+	private static class IncrementalUpdateOutputStream extends FilterOutputStream {
+
+		/**
+		 * Number of bytes of the original document which still have to be skipped
+		 */
+		private long skip;
+
+		/**
+		 * Constructor for this class
+		 *
+		 * @param out    Stream which appends to the document
+		 * @param length Length of the original document
+		 */
+		IncrementalUpdateOutputStream(@Nonnull OutputStream out, long length) {
+			super(out);
+			this.skip = length;
+		}
 
-		// Save to (same) file
-		OutputStream outputStream = new FileOutputStream (outputFilePath);
-		byteArrayOutputStream.writeTo(outputStream);
+		@Override
+		public void write(int b) throws IOException {
+			if (skip > 0) {
+				skip--;
+			} else {
+				out.write(b);
+			}
+		}
 
-		if (Soap._debugMode) {
-			if (addVerification)
-				System.out.println("\nOK merging LTV validation information to " + outputFilePath);
-			else
-				System.out.println("\nFAILED merging LTV validation information to " + outputFilePath);
+		@Override
+		public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+			if (skip > 0) {
+				int skipped = (int) Math.min(skip, len);
+				skip -= skipped;
+				off += skipped;
+				len -= skipped;
+			}
+			if (len > 0) {
+				out.write(b, off, len);
+			}
 		}
 
-		byteArrayOutputStream.close();
-		outputStream.close();
-	}
-	
-	public void close() {
-	   pdfReader.close();
+		@Override
+		public void close() throws IOException {
+			super.close();
+			if (skip > 0) {
+				throw new IOException("Incremental update does not contain the original document");
+			}
+		}
 	}
 }
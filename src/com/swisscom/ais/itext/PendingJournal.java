@@ -0,0 +1,610 @@
+/**
+ * Journal of asynchronous requests which are pending
+ *
+ * Created:
+ * 17.10.26 KW42 22:40
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 22:40
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only journal of the asynchronous requests which wait for the approval of the signer. For each request the
+ * response id, the claimed identity, the deadline and the prepared documents are written to disk before the polling
+ * starts, and a second record is appended when the request is completed. The prepared documents are kept as files with
+ * a placeholder for the signature, so after a restart of the application the polling is resumed and the signatures are
+ * added without preparing the documents again and without a new approval of the signer.
+ * <p/>
+ * Each record is one line of tab separated, URL encoded fields and is synced to disk before the request goes on. An
+ * incomplete last line of a crash is cut off when the journal is locked, so the next record starts on a new line. The
+ * journal is compacted when it is loaded.
+ * <p/>
+ * Only one application may use a journal directory. The first use of the journal locks the directory until the journal
+ * is closed or the application exits, another application which uses the same directory fails.
+ */
+public class PendingJournal {
+
+    /**
+     * Name of the journal file in the journal directory
+     */
+    private static final String JOURNAL_FILE = "pending.journal";
+
+    /**
+     * Name of the file in the journal directory which is locked while the journal is used
+     */
+    private static final String LOCK_FILE = "pending.lock";
+
+    /**
+     * Prefix of the prepared documents in the journal directory
+     */
+    private static final String PREPARED_PREFIX = "prepared-";
+
+    /**
+     * Record of a request which is pending
+     */
+    private static final String PENDING = "PENDING";
+
+    /**
+     * Record of a request which was completed
+     */
+    private static final String DONE = "DONE";
+
+    /**
+     * Number of fields of a prepared document in a record
+     */
+    private static final int DOCUMENT_FIELDS = 6;
+
+    /**
+     * Directory of the journal and the prepared documents
+     */
+    private File _directory;
+
+    /**
+     * Time in milliseconds when the journal was opened. Older prepared documents were written by an earlier run
+     */
+    private long _opened;
+
+    /**
+     * Channel of the lock file or null if the directory is not locked yet
+     */
+    private FileChannel _lockChannel;
+
+    /**
+     * Lock of the journal directory or null if the directory is not locked yet
+     */
+    private FileLock _lock;
+
+    /**
+     * Constructor to set relevant parameters
+     *
+     * @param directory Directory of the journal and the prepared documents. Is created if it does not exist
+     */
+    public PendingJournal(@Nonnull File directory) {
+        this._directory = directory;
+        this._opened = System.currentTimeMillis();
+    }
+
+    /**
+     * Create a file for a prepared document in the journal directory
+     *
+     * @return Empty file
+     * @throws IOException If the file can not be created
+     */
+    @Nonnull
+    public File createPreparedFile() throws IOException {
+        lock();
+        return File.createTempFile(PREPARED_PREFIX, ".pdf", _directory);
+    }
+
+    /**
+     * Append a pending request
+     *
+     * @param entry Pending request with its prepared documents
+     * @throws IOException If the record can not be written
+     */
+    public synchronized void append(@Nonnull Entry entry) throws IOException {
+        write(getFields(entry));
+    }
+
+    /**
+     * Append the completion of a request and delete its prepared documents
+     *
+     * @param entry Request which is not pending anymore
+     * @throws IOException If the record can not be written
+     */
+    public synchronized void complete(@Nonnull Entry entry) throws IOException {
+        List<String> fields = new ArrayList<String>();
+        fields.add(DONE);
+        fields.add(entry.responseId);
+        write(fields);
+
+        for (Document document : entry.documents) {
+            new File(document.preparedFilePath).delete();
+        }
+    }
+
+    /**
+     * Load the requests which are still pending. The journal is rewritten with these requests only and prepared
+     * documents of an earlier run which do not belong to a pending request are deleted
+     *
+     * @return Pending requests in the order they were appended
+     * @throws IOException If the journal can not be read or rewritten
+     */
+    @Nonnull
+    public synchronized List<Entry> load() throws IOException {
+        lock();
+        File file = new File(_directory, JOURNAL_FILE);
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+        if (file.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        String[] fields = line.split("\t", -1);
+                        for (int i = 0; i < fields.length; i++) {
+                            fields[i] = URLDecoder.decode(fields[i], "UTF-8");
+                        }
+                        if (PENDING.equals(fields[0])) {
+                            Entry entry = parseEntry(fields);
+                            entries.put(entry.responseId, entry);
+                        } else if (DONE.equals(fields[0])) {
+                            entries.remove(fields[1]);
+                        }
+                    } catch (RuntimeException e) {
+                        // Incomplete record of a crash
+                        if (Soap._debugMode) {
+                            System.out.println("Ignoring invalid record in pending journal: " + line);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        // Compact the journal and remove prepared documents which do not belong to a pending request. The compacted
+        // journal is on disk before it replaces the old one, so a crash leaves either of them
+        File compacted = File.createTempFile("pending", ".tmp", _directory);
+        FileOutputStream out = new FileOutputStream(compacted);
+        try {
+            for (Entry entry : entries.values()) {
+                out.write(encode(getFields(entry)));
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        syncDirectory();
+        try {
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory();
+
+        final Set<String> prepared = new HashSet<String>();
+        for (Entry entry : entries.values()) {
+            for (Document document : entry.documents) {
+                prepared.add(new File(document.preparedFilePath).getName());
+            }
+        }
+        File[] orphans = _directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREPARED_PREFIX) && !prepared.contains(name)
+                        // The time of a file may be rounded down to seconds
+                        && new File(dir, name).lastModified() < _opened - 1000;
+            }
+        });
+        for (int i = 0; orphans != null && i < orphans.length; i++) {
+            orphans[i].delete();
+        }
+
+        return new ArrayList<Entry>(entries.values());
+    }
+
+    /**
+     * Parse the fields of a pending request
+     *
+     * @param fields Decoded fields of the record
+     * @return Pending request
+     */
+    @Nonnull
+    private static Entry parseEntry(@Nonnull String[] fields) {
+        int count = Integer.parseInt(fields[6]);
+        if (fields.length != 7 + count * DOCUMENT_FIELDS) {
+            throw new IllegalArgumentException("Wrong number of fields");
+        }
+        List<Document> documents = new ArrayList<Document>(count);
+        for (int i = 7; i < fields.length; i += DOCUMENT_FIELDS) {
+            documents.add(new Document(fields[i], fields[i + 1], fields[i + 2], Long.parseLong(fields[i + 3]),
+                    Integer.parseInt(fields[i + 4]), Boolean.parseBoolean(fields[i + 5])));
+        }
+        return new Entry(fields[1], fields[2], Long.parseLong(fields[3]), Integer.parseInt(fields[4]), fields[5], documents);
+    }
+
+    /**
+     * Append a record to the journal and sync it to disk
+     *
+     * @param fields Fields of the record
+     * @throws IOException If the record can not be written
+     */
+    private void write(@Nonnull List<String> fields) throws IOException {
+        lock();
+        FileOutputStream out = new FileOutputStream(new File(_directory, JOURNAL_FILE), true);
+        try {
+            out.write(encode(fields));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Get the fields of the record of a pending request
+     *
+     * @param entry Pending request
+     * @return Fields of the record
+     */
+    @Nonnull
+    private static List<String> getFields(@Nonnull Entry entry) {
+        List<String> fields = new ArrayList<String>();
+        fields.add(PENDING);
+        fields.add(entry.responseId);
+        fields.add(entry.claimedIdentity);
+        fields.add(String.valueOf(entry.deadline));
+        fields.add(String.valueOf(entry.estimatedSize));
+        fields.add(entry.signNodeName);
+        fields.add(String.valueOf(entry.documents.size()));
+        for (Document document : entry.documents) {
+            fields.add(document.inputFilePath);
+            fields.add(document.outputFilePath);
+            fields.add(document.preparedFilePath);
+            fields.add(String.valueOf(document.contentsOffset));
+            fields.add(String.valueOf(document.contentsLength));
+            fields.add(String.valueOf(document.noChangesAllowed));
+        }
+        return fields;
+    }
+
+    /**
+     * Encode the fields of a record as one line
+     *
+     * @param fields Fields of the record
+     * @return Line in UTF-8
+     * @throws IOException If UTF-8 is not supported
+     */
+    @Nonnull
+    private static byte[] encode(@Nonnull List<String> fields) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (String field : fields) {
+            if (line.length() > 0) {
+                line.append('\t');
+            }
+            line.append(URLEncoder.encode(field, "UTF-8"));
+        }
+        return line.append('\n').toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Release the lock of the journal directory, so another application can use the journal
+     *
+     * @throws IOException If the lock can not be released
+     */
+    public synchronized void close() throws IOException {
+        if (_lockChannel != null) {
+            // Closing the channel releases the lock
+            _lockChannel.close();
+            _lockChannel = null;
+            _lock = null;
+        }
+    }
+
+    /**
+     * Create the journal directory if it does not exist and lock it. The lock is kept until the journal is closed
+     *
+     * @throws IOException If the directory can not be created, is locked by another application or the journal can not
+     *                     be repaired
+     */
+    private synchronized void lock() throws IOException {
+        if (_lock != null) {
+            return;
+        }
+        createDirectory();
+        FileChannel channel = FileChannel.open(new File(_directory, LOCK_FILE).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Locked by another journal of this application
+            lock = null;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Pending journal directory " + _directory.getAbsolutePath() + " is used by another application");
+        }
+        try {
+            truncateIncompleteRecord();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        _lockChannel = channel;
+        _lock = lock;
+    }
+
+    /**
+     * Cut off an incomplete last line of a crash, so a new record is not appended to it and lost with it
+     *
+     * @throws IOException If the journal can not be read or truncated
+     */
+    private void truncateIncompleteRecord() throws IOException {
+        File file = new File(_directory, JOURNAL_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long end = channel.size();
+            while (end > 0) {
+                int length = (int) Math.min(buffer.capacity(), end);
+                buffer.clear().limit(length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, end - length + buffer.position()) < 0) {
+                        throw new IOException("Pending journal " + file.getAbsolutePath() + " was truncated while reading");
+                    }
+                }
+                int i = length - 1;
+                while (i >= 0 && buffer.get(i) != '\n') {
+                    i--;
+                }
+                if (i >= 0) {
+                    end = end - length + i + 1;
+                    break;
+                }
+                end -= length;
+            }
+            if (end < channel.size()) {
+                if (Soap._debugMode) {
+                    System.out.println("Removing incomplete record of " + (channel.size() - end) + " bytes from pending journal");
+                }
+                channel.truncate(end);
+                channel.force(true);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Sync the journal directory to disk, so a new or renamed file is not lost. Some platforms can not open a
+     * directory, there the file system has to keep the order of the changes
+     */
+    private void syncDirectory() {
+        try {
+            FileChannel channel = FileChannel.open(_directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // The directory can not be synced on this platform
+        }
+    }
+
+    /**
+     * Create the journal directory if it does not exist
+     *
+     * @throws IOException If the directory can not be created
+     */
+    private void createDirectory() throws IOException {
+        if (!_directory.isDirectory() && !_directory.mkdirs()) {
+            throw new IOException("Could not create pending journal directory " + _directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Asynchronous request which waits for the approval of the signer
+     */
+    public static class Entry {
+
+        /**
+         * Response id of the pending request
+         */
+        final String responseId;
+
+        /**
+         * Claimed identity of the request
+         */
+        final String claimedIdentity;
+
+        /**
+         * Time in milliseconds since the epoch after which the polling stops
+         */
+        final long deadline;
+
+        /**
+         * Estimated size of the external signature
+         */
+        final int estimatedSize;
+
+        /**
+         * Name of node where to find the signatures
+         */
+        final String signNodeName;
+
+        /**
+         * Prepared documents in the order of the request
+         */
+        final List<Document> documents;
+
+        /**
+         * Constructor for this class
+         *
+         * @param responseId      Response id of the pending request
+         * @param claimedIdentity Claimed identity of the request
+         * @param deadline        Time in milliseconds since the epoch after which the polling stops
+         * @param estimatedSize   Estimated size of the external signature
+         * @param signNodeName    Name of node where to find the signatures
+         * @param documents       Prepared documents in the order of the request
+         */
+        Entry(@Nonnull String responseId, @Nonnull String claimedIdentity, long deadline, int estimatedSize,
+              @Nonnull String signNodeName, @Nonnull List<Document> documents) {
+            this.responseId = responseId;
+            this.claimedIdentity = claimedIdentity;
+            this.deadline = deadline;
+            this.estimatedSize = estimatedSize;
+            this.signNodeName = signNodeName;
+            this.documents = Collections.unmodifiableList(documents);
+        }
+
+        /**
+         * Get response id of the pending request
+         *
+         * @return Response id
+         */
+        public String getResponseId() {
+            return responseId;
+        }
+
+        /**
+         * Get time after which the polling stops
+         *
+         * @return Time in milliseconds since the epoch
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Get prepared documents of the request
+         *
+         * @return Prepared documents in the order of the request
+         */
+        public List<Document> getDocuments() {
+            return documents;
+        }
+    }
+
+    /**
+     * Document which was prepared for signing and written to a file. The file contains the whole document, the
+     * signature is written into the placeholder of the /Contents entry
+     */
+    public static class Document {
+
+        /**
+         * Path of the input document
+         */
+        final String inputFilePath;
+
+        /**
+         * Path of the signed document
+         */
+        final String outputFilePath;
+
+        /**
+         * Path of the prepared document
+         */
+        final String preparedFilePath;
+
+        /**
+         * Offset of the placeholder of the signature in the prepared document
+         */
+        final long contentsOffset;
+
+        /**
+         * Length of the placeholder of the signature in bytes
+         */
+        final int contentsLength;
+
+        /**
+         * True if the input document has a certification which does not allow any changes
+         */
+        final boolean noChangesAllowed;
+
+        /**
+         * Constructor for this class
+         *
+         * @param inputFilePath    Path of the input document
+         * @param outputFilePath   Path of the signed document
+         * @param preparedFilePath Path of the prepared document
+         * @param contentsOffset   Offset of the placeholder of the signature in the prepared document
+         * @param contentsLength   Length of the placeholder of the signature in bytes
+         * @param noChangesAllowed True if the input document has a certification which does not allow any changes
+         */
+        Document(@Nonnull String inputFilePath, @Nonnull String outputFilePath, @Nonnull String preparedFilePath,
+                 long contentsOffset, int contentsLength, boolean noChangesAllowed) {
+            this.inputFilePath = inputFilePath;
+            this.outputFilePath = outputFilePath;
+            this.preparedFilePath = preparedFilePath;
+            this.contentsOffset = contentsOffset;
+            this.contentsLength = contentsLength;
+            this.noChangesAllowed = noChangesAllowed;
+        }
+
+        /**
+         * Get path of the input document
+         *
+         * @return Input file path
+         */
+        public String getInputFilePath() {
+            return inputFilePath;
+        }
+
+        /**
+         * Get path of the signed document
+         *
+         * @return Output file path
+         */
+        public String getOutputFilePath() {
+            return outputFilePath;
+        }
+    }
+}
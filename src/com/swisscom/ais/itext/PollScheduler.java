@@ -0,0 +1,475 @@
+/**
+ * Shared timer which polls the server for pending asynchronous requests
+ *
+ * Created:
+ * 17.10.26 KW42 21:40
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 22:15
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Polls the server for many pending asynchronous requests on a few timer threads. A request with step-up waits until
+ * the signer confirmed it, which can take minutes. Instead of a thread which sleeps between the polls, each pending
+ * request is a task which is scheduled again after the polling interval. The timer threads only send the poll requests
+ * without waiting for the response, the next poll is scheduled when the response arrives. The result of each request
+ * is a future which is completed when the response is not pending anymore or the timeout is reached.
+ * <p/>
+ * The polling intervals follow the approval times of the last requests: the next poll is sent when half of the
+ * requests which were still pending at this time were approved. So polls are close together while most signers
+ * confirm and far apart for the rare slow ones, a signer who confirms quickly gets the document sooner. Requests which
+ * were declined or not approved until the timeout are kept as censored times (Kaplan-Meier estimate), so the slow
+ * signers are not left out of the estimate. As long as not enough times are known, the maximal interval is used. The
+ * interval is never shorter than the minimal or longer than the maximal interval, and a request is polled at most
+ * timeout / maximal interval times, like with the fixed maximal interval.
+ */
+public class PollScheduler {
+
+    /**
+     * Sends a poll request to the server
+     */
+    public interface Sender {
+
+        /**
+         * Send a poll request without waiting for the response. Must not block
+         *
+         * @param pollRequest Request with the response id of the pending request
+         * @return Future which is completed with the server response or with the exception of the request
+         */
+        @Nonnull
+        CompletableFuture<SoapResponse> send(@Nonnull SoapRequest pollRequest);
+    }
+
+    /**
+     * Is notified when a pending request is completed
+     */
+    public interface Listener {
+
+        /**
+         * Called on the thread which received the last response when the result of a pending request is available.
+         * Must not block, longer work has to be handed over to another thread
+         *
+         * @param result Completed result of the pending request
+         */
+        void completed(@Nonnull Future<SoapResponse> result);
+    }
+
+    /**
+     * Number of approval times which are kept
+     */
+    private static final int SAMPLES = 100;
+
+    /**
+     * Minimal number of approval and censored times before they are used for the polling intervals
+     */
+    private static final int MIN_SAMPLES = 10;
+
+    /**
+     * Part of the pending requests which should be approved until the next poll
+     */
+    private static final double POLL_FRACTION = 0.5;
+
+    /**
+     * Timer threads which schedule the poll requests
+     */
+    private ScheduledThreadPoolExecutor _timer;
+
+    /**
+     * Number of pending requests
+     */
+    private final AtomicInteger _pending = new AtomicInteger();
+
+    /**
+     * Minimal time between polling requests in milliseconds
+     */
+    private long _minInterval;
+
+    /**
+     * Approval times in milliseconds of the last requests, used as ring buffer
+     */
+    private final long[] _approvalTimes = new long[SAMPLES];
+
+    /**
+     * For each approval time if the request was not approved: it was declined or timed out at this time
+     */
+    private final boolean[] _censored = new boolean[SAMPLES];
+
+    /**
+     * Number of recorded approval times, at most the number of approval times which are kept
+     */
+    private int _approvals;
+
+    /**
+     * Index in the ring buffer of the next approval time
+     */
+    private int _nextApproval;
+
+    /**
+     * Number of poll requests which were sent
+     */
+    private final AtomicInteger _polls = new AtomicInteger();
+
+    /**
+     * Results of the pending requests
+     */
+    private final Set<Result> _results = Collections.newSetFromMap(new ConcurrentHashMap<Result, Boolean>());
+
+    /**
+     * Constructor to set relevant parameters
+     *
+     * @param threads     Number of timer threads which schedule the poll requests
+     * @param minInterval Minimal time between polling requests in milliseconds
+     */
+    public PollScheduler(int threads, long minInterval) {
+        this._minInterval = Math.max(1, minInterval);
+        _timer = new ScheduledThreadPoolExecutor(Math.max(1, threads), new NamedThreadFactory("ais-poll"));
+    }
+
+    /**
+     * Poll the server until the asynchronous request does not return pending anymore. The time of the pending
+     * response is the start of the request, the last poll request is sent at the timeout
+     *
+     * @param pollRequest Request with the response id of the pending request
+     * @param responseId  Response id of the pending request for the debug output
+     * @param sender      Sends the poll request to the server
+     * @param maxInterval Maximal time between polling requests in milliseconds
+     * @param timeout     Time in milliseconds after which the polling stops
+     * @param listener    Is notified when the request is completed or null
+     * @return Result with the last response, which is still pending if the timeout was reached. Cancelling the result
+     *         stops the polling
+     */
+    @Nonnull
+    public Future<SoapResponse> submit(@Nonnull SoapRequest pollRequest, @Nonnull String responseId, @Nonnull Sender sender,
+                                       long maxInterval, long timeout, @Nullable Listener listener) {
+        Poll poll = new Poll(pollRequest, responseId, sender, Math.max(_minInterval, maxInterval), timeout, listener);
+        _pending.incrementAndGet();
+        _results.add(poll.result);
+        poll.scheduleNext();
+        return poll.result;
+    }
+
+    /**
+     * Stop polling. The requests which are still pending fail, their listeners are notified
+     */
+    public void shutdown() {
+        _timer.shutdownNow();
+        for (Result result : _results) {
+            result.fail(new Exception("Polling was stopped"));
+        }
+    }
+
+    /**
+     * Get number of pending requests
+     *
+     * @return Number of requests which are polled
+     */
+    public int getPending() {
+        return _pending.get();
+    }
+
+    /**
+     * Get number of poll requests which were sent
+     *
+     * @return Number of poll requests
+     */
+    public int getPolls() {
+        return _polls.get();
+    }
+
+    /**
+     * Record the time after which a signer approved a request, or after which a request was declined or timed out
+     *
+     * @param approvalTime Time in milliseconds from the pending response until the approval or the end of the request
+     * @param censored     True if the request was not approved, the approval time is only known to be later
+     */
+    private synchronized void recordApproval(long approvalTime, boolean censored) {
+        _approvalTimes[_nextApproval] = approvalTime;
+        _censored[_nextApproval] = censored;
+        _nextApproval = (_nextApproval + 1) % SAMPLES;
+        _approvals = Math.min(_approvals + 1, SAMPLES);
+    }
+
+    /**
+     * Get the time when half of the requests which are still pending at the given time were approved. The part of
+     * the requests which are still pending is estimated with the Kaplan-Meier estimator: at each approval time it
+     * decreases by the part of the requests which were not approved nor censored before
+     *
+     * @param elapsed Time in milliseconds since the pending response
+     * @return Time in milliseconds since the pending response or -1 if not enough approval times are known or half
+     *         of the requests are not approved within the known approval times
+     */
+    private synchronized long getNextApprovalTime(long elapsed) {
+        int count = _approvals;
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+
+        // Times of the requests which were still pending at the given time, an approval before a censored time
+        long[] times = new long[count];
+        int atRisk = 0;
+        for (int i = 0; i < count; i++) {
+            if (_approvalTimes[i] > elapsed) {
+                times[atRisk++] = 2 * _approvalTimes[i] + (_censored[i] ? 1 : 0);
+            }
+        }
+        times = Arrays.copyOf(times, atRisk);
+        Arrays.sort(times);
+
+        double pending = 1;
+        for (long time : times) {
+            if (time % 2 == 0) {
+                pending *= (atRisk - 1) / (double) atRisk;
+                if (pending <= 1 - POLL_FRACTION) {
+                    return time / 2;
+                }
+            }
+            atRisk--;
+        }
+        return -1;
+    }
+
+    /**
+     * Pending request which is polled
+     */
+    private class Poll implements Runnable {
+
+        /**
+         * Request with the response id of the pending request
+         */
+        private final SoapRequest pollRequest;
+
+        /**
+         * Response id of the pending request
+         */
+        private final String responseId;
+
+        /**
+         * Sends the poll request to the server
+         */
+        private final Sender sender;
+
+        /**
+         * Maximal time between polling requests in milliseconds
+         */
+        private final long maxInterval;
+
+        /**
+         * Time in milliseconds after which the polling stops
+         */
+        private final long timeout;
+
+        /**
+         * Time in milliseconds of the pending response
+         */
+        private final long start;
+
+        /**
+         * Time in milliseconds since the pending response of the last poll request
+         */
+        private long lastPoll;
+
+        /**
+         * Time in milliseconds between the last two polling requests
+         */
+        private long interval;
+
+        /**
+         * Number of polling requests which were sent
+         */
+        private int polls;
+
+        /**
+         * Result of the pending request
+         */
+        private final Result result;
+
+        /**
+         * Constructor for this class
+         *
+         * @param pollRequest Request with the response id of the pending request
+         * @param responseId  Response id of the pending request
+         * @param sender      Sends the poll request to the server
+         * @param maxInterval Maximal time between polling requests in milliseconds
+         * @param timeout     Time in milliseconds after which the polling stops
+         * @param listener    Is notified when the request is completed or null
+         */
+        Poll(@Nonnull SoapRequest pollRequest, @Nonnull String responseId, @Nonnull Sender sender, long maxInterval,
+             long timeout, @Nullable Listener listener) {
+            this.pollRequest = pollRequest;
+            this.responseId = responseId;
+            this.sender = sender;
+            this.maxInterval = maxInterval;
+            this.timeout = timeout;
+            this.start = System.currentTimeMillis();
+            this.result = new Result(listener);
+        }
+
+        /**
+         * Schedule the next poll request at the time when half of the pending requests were approved, or after the
+         * maximal interval if this time is not known. The interval is long enough that the remaining poll requests of
+         * the budget reach the timeout. The last poll request is sent at the timeout
+         */
+        void scheduleNext() {
+            long next = getNextApprovalTime(lastPoll);
+            long delay = next >= 0 ? next - lastPoll : maxInterval;
+            delay = Math.max(_minInterval, Math.min(delay, maxInterval));
+
+            // At most as many poll requests as with the maximal interval
+            long remaining = timeout - lastPoll;
+            long budget = Math.max(1, (timeout + maxInterval - 1) / maxInterval - polls);
+            delay = Math.max(delay, (remaining + budget - 1) / budget);
+            delay = Math.max(0, Math.min(delay, remaining));
+
+            interval = delay;
+            lastPoll += delay;
+            try {
+                _timer.schedule(this, start + lastPoll - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                result.fail(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                return;
+            }
+
+            if (Soap._debugMode) {
+                System.out.println("Poll " + polls + " after " + lastPoll + " ms (interval: " + interval
+                        + " ms) - Polling with RequestID " + responseId + "...");
+            }
+            polls++;
+            _polls.incrementAndGet();
+
+            CompletableFuture<SoapResponse> response;
+            try {
+                response = sender.send(pollRequest);
+            } catch (RuntimeException e) {
+                result.fail(e);
+                return;
+            }
+            response.whenComplete(new BiConsumer<SoapResponse, Throwable>() {
+                @Override
+                public void accept(SoapResponse response, Throwable error) {
+                    received(response, error);
+                }
+            });
+        }
+
+        /**
+         * Complete the result or schedule the next poll request when the response of a poll request arrived
+         *
+         * @param response Server response or null if the request failed
+         * @param error    Exception of the request or null
+         */
+        private void received(@Nullable SoapResponse response, @Nullable Throwable error) {
+            if (result.isDone()) {
+                return;
+            }
+
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                result.fail(cause instanceof Exception ? (Exception) cause : new Exception(cause));
+            } else if (!response.isPending()) {
+                // The signer approved or declined between the last two polls
+                recordApproval(lastPoll - interval / 2, !response.isSuccess());
+                result.complete(response);
+            } else if (lastPoll >= timeout) {
+                // Not approved until the timeout
+                recordApproval(lastPoll, true);
+                result.complete(response);
+            } else {
+                scheduleNext();
+            }
+        }
+    }
+
+    /**
+     * Future which is completed by the polling task instead of running a task itself
+     */
+    private class Result extends FutureTask<SoapResponse> {
+
+        /**
+         * Is notified when the request is completed or null
+         */
+        private final Listener listener;
+
+        /**
+         * Constructor for this class
+         *
+         * @param listener Is notified when the request is completed or null
+         */
+        Result(@Nullable Listener listener) {
+            super(new Callable<SoapResponse>() {
+                public SoapResponse call() {
+                    throw new IllegalStateException("The result of a pending request is set by polling");
+                }
+            });
+            this.listener = listener;
+        }
+
+        /**
+         * Complete the result with the last response
+         *
+         * @param response Response which is not pending anymore or the last pending response
+         */
+        void complete(@Nonnull SoapResponse response) {
+            set(response);
+        }
+
+        /**
+         * Complete the result with an error
+         *
+         * @param error Error of the poll request
+         */
+        void fail(@Nonnull Exception error) {
+            setException(error);
+        }
+
+        @Override
+        public void run() {
+            // The result is only set by polling
+        }
+
+        @Override
+        protected void done() {
+            _pending.decrementAndGet();
+            _results.remove(this);
+            if (listener != null) {
+                listener.completed(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/**
+ * Process-wide cache of decoded revocation information
+ *
+ * Created:
+ * 17.10.26 KW42 18:10
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 18:10
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import com.itextpdf.text.pdf.codec.Base64;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches decoded OCSP responses and CRLs for all requests of the process. The responses of the server mostly contain
+ * the same CRLs of the same issuing CAs, so they are parsed only once. Entries are keyed by the digest of the
+ * received content and expire at the next update of the revocation information. The cache is bounded, least
+ * recently used entries are removed first.
+ */
+public class RevocationCache {
+
+    /**
+     * Maximal number of cached OCSP responses and CRLs
+     */
+    private static final int CACHE_SIZE = 32;
+
+    /**
+     * Time in milli seconds after which revocation information without next update is removed
+     */
+    private static final long CACHE_TTL = 60 * 60 * 1000;
+
+    /**
+     * Type of an OCSP response
+     */
+    private static final String OCSP = "OCSP";
+
+    /**
+     * Type of a CRL
+     */
+    private static final String CRL = "CRL";
+
+    /**
+     * Decoded revocation information, keyed by type and digest of the received content
+     */
+    private static final Map<String, Entry> _cache = new LinkedHashMap<String, Entry>(CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RevocationCache.Entry> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Number of OCSP responses and CRLs found in the cache
+     */
+    private static final AtomicLong _hits = new AtomicLong();
+
+    /**
+     * Number of OCSP responses and CRLs which had to be decoded
+     */
+    private static final AtomicLong _misses = new AtomicLong();
+
+    /**
+     * Get a decoded OCSP response
+     *
+     * @param ocspBase64 OCSP response as base64 encoded String
+     * @return Cached or decoded OCSP response
+     * @throws Exception If the response can not be decoded
+     */
+    @Nonnull
+    static Entry getOcsp(@Nonnull String ocspBase64) throws Exception {
+        return get(OCSP, ocspBase64);
+    }
+
+    /**
+     * Get a decoded CRL
+     *
+     * @param crlBase64 CRL as base64 encoded String
+     * @return Cached or decoded CRL
+     * @throws Exception If the CRL can not be decoded
+     */
+    @Nonnull
+    static Entry getCrl(@Nonnull String crlBase64) throws Exception {
+        return get(CRL, crlBase64);
+    }
+
+    /**
+     * Get number of OCSP responses and CRLs found in the cache
+     *
+     * @return Number of cache hits
+     */
+    public static long getHits() {
+        return _hits.get();
+    }
+
+    /**
+     * Get number of OCSP responses and CRLs which had to be decoded
+     *
+     * @return Number of cache misses
+     */
+    public static long getMisses() {
+        return _misses.get();
+    }
+
+    /**
+     * Remove all entries
+     */
+    public static void clear() {
+        synchronized (_cache) {
+            _cache.clear();
+        }
+    }
+
+    /**
+     * Get an entry from the cache or decode and add it
+     *
+     * @param type   Type of revocation information
+     * @param base64 Revocation information as base64 encoded String
+     * @return Decoded revocation information
+     * @throws Exception If the revocation information can not be decoded
+     */
+    @Nonnull
+    private static Entry get(@Nonnull String type, @Nonnull String base64) throws Exception {
+
+        byte[] content = Base64.decode(base64);
+        String key = type + ":" + digest(content);
+        long now = System.currentTimeMillis();
+
+        Entry entry;
+        synchronized (_cache) {
+            entry = _cache.get(key);
+            if (entry != null && entry.expiry <= now) {
+                _cache.remove(key);
+                entry = null;
+            }
+        }
+
+        if (entry != null) {
+            _hits.incrementAndGet();
+            if (Soap._debugMode) {
+                System.out.println("\nEmbedding cached " + type + " of " + entry.issuer + " (next update: " + entry.nextUpdate + ")");
+            }
+            return entry;
+        }
+
+        _misses.incrementAndGet();
+        entry = OCSP.equals(type) ? decodeOcsp(content, now) : decodeCrl(content, now);
+
+        // Revocation information which is already outdated is used but not cached
+        if (entry.expiry > now) {
+            synchronized (_cache) {
+                _cache.put(key, entry);
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Decode an OCSP response
+     *
+     * @param content DER encoded OCSP response
+     * @param now     Current time in milli seconds
+     * @return Decoded OCSP response, expires at the earliest next update of the single responses
+     * @throws Exception If the response can not be decoded
+     */
+    @Nonnull
+    private static Entry decodeOcsp(@Nonnull byte[] content, long now) throws Exception {
+        OCSPResp ocspResp = new OCSPResp(new ByteArrayInputStream(content));
+        BasicOCSPResp basicResp = (BasicOCSPResp) ocspResp.getResponseObject();
+
+        if (Soap._debugMode) {
+            System.out.println("\nEmbedding OCSP Response...");
+            System.out.println("Status                : " + ((ocspResp.getStatus() == 0) ? "GOOD" : "BAD"));
+            System.out.println("Produced at           : " + basicResp.getProducedAt());
+            System.out.println("This Update           : " + basicResp.getResponses()[0].getThisUpdate());
+            System.out.println("Next Update           : " + basicResp.getResponses()[0].getNextUpdate());
+            System.out.println("X509 Cert Issuer      : " + basicResp.getCerts()[0].getIssuer());
+            System.out.println("X509 Cert Subject     : " + basicResp.getCerts()[0].getSubject());
+            System.out.println("Certificate ID        : " + basicResp.getResponses()[0].getCertID().getSerialNumber().toString() + " ("
+                    + basicResp.getResponses()[0].getCertID().getSerialNumber().toString(16).toUpperCase() + ")");
+        }
+
+        Date nextUpdate = null;
+        for (SingleResp singleResp : basicResp.getResponses()) {
+            if (singleResp.getNextUpdate() != null && (nextUpdate == null || singleResp.getNextUpdate().before(nextUpdate))) {
+                nextUpdate = singleResp.getNextUpdate();
+            }
+        }
+
+        String issuer = basicResp.getCerts().length > 0 ? basicResp.getCerts()[0].getIssuer().toString() : String.valueOf(basicResp.getResponderId());
+
+        // Basic OCSP Response (ASN.1 encoded representation of this object) is added to the DSS
+        return new Entry(basicResp.getEncoded(), issuer, nextUpdate, now);
+    }
+
+    /**
+     * Decode a CRL
+     *
+     * @param content DER encoded CRL
+     * @param now     Current time in milli seconds
+     * @return Decoded CRL, expires at the next update of the CRL
+     * @throws Exception If the CRL can not be decoded
+     */
+    @Nonnull
+    private static Entry decodeCrl(@Nonnull byte[] content, long now) throws Exception {
+        X509CRL x509crl = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(content));
+
+        if (Soap._debugMode) {
+            System.out.println("\nEmbedding CRL...");
+            System.out.println("IssuerDN                    : " + x509crl.getIssuerDN());
+            System.out.println("This Update                 : " + x509crl.getThisUpdate());
+            System.out.println("Next Update                 : " + x509crl.getNextUpdate());
+            System.out.println("No. of Revoked Certificates : "
+                    + ((x509crl.getRevokedCertificates() == null) ? "0" : x509crl.getRevokedCertificates().size()));
+        }
+
+        // ASN.1 DER-encoded form of this CRL is added to the DSS
+        return new Entry(x509crl.getEncoded(), x509crl.getIssuerX500Principal().getName(), x509crl.getNextUpdate(), now);
+    }
+
+    /**
+     * Get the basic OCSP response of an OCSP response, e.g. of an OCSP response in the DSS of a document. The DSS
+     * contains the complete OCSP response, while the cache entries contain the basic OCSP response
+     *
+     * @param content DER encoded OCSP response
+     * @return DER encoded basic OCSP response, or the content if it is no successful OCSP response
+     */
+    @Nonnull
+    static byte[] getBasicOcsp(@Nonnull byte[] content) {
+        try {
+            Object responseObject = new OCSPResp(content).getResponseObject();
+            if (responseObject instanceof BasicOCSPResp) {
+                return ((BasicOCSPResp) responseObject).getEncoded();
+            }
+        } catch (Exception e) {
+            // Not an OCSP response, e.g. a basic OCSP response written by another application
+        }
+        return content;
+    }
+
+    /**
+     * Create digest of revocation information
+     *
+     * @param content Encoded revocation information
+     * @return Hex encoded SHA-256 hash of the content
+     * @throws Exception If SHA-256 is not available
+     */
+    @Nonnull
+    static String digest(@Nonnull byte[] content) throws Exception {
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        return new BigInteger(1, messageDigest.digest(content)).toString(16);
+    }
+
+    /**
+     * Decoded OCSP response or CRL. Instances are shared and must not be modified
+     */
+    static class Entry {
+
+        /**
+         * Encoding which is added to the DSS
+         */
+        final byte[] encoded;
+
+        /**
+         * Hex encoded SHA-256 hash of the encoding, to find it in the DSS of a document. For OCSP responses the DSS
+         * entries are unwrapped to the basic OCSP response before they are compared
+         */
+        final String digest;
+
+        /**
+         * Issuer of the revocation information
+         */
+        final String issuer;
+
+        /**
+         * Next update of the revocation information or null if it has none
+         */
+        final Date nextUpdate;
+
+        /**
+         * Time in milli seconds when the entry is removed from the cache
+         */
+        final long expiry;
+
+        /**
+         * Constructor for this class
+         *
+         * @param encoded    Encoding which is added to the DSS
+         * @param issuer     Issuer of the revocation information
+         * @param nextUpdate Next update of the revocation information
+         * @param now        Current time in milli seconds
+         * @throws Exception If the digest can not be created
+         */
+        Entry(@Nonnull byte[] encoded, @Nonnull String issuer, @Nullable Date nextUpdate, long now) throws Exception {
+            this.encoded = encoded;
+            this.digest = digest(encoded);
+            this.issuer = issuer;
+            this.nextUpdate = nextUpdate;
+            this.expiry = nextUpdate != null ? nextUpdate.getTime() : now + CACHE_TTL;
+        }
+    }
+}
@@ -28,9 +28,21 @@ package com.swisscom.ais.itext;
 
 import javax.annotation.*;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileFilter;
+import java.io.FileReader;
 import java.math.BigInteger;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class SignPDF {
 
@@ -50,15 +62,30 @@ public class SignPDF {
     Include.Signature signature = null;
 
     /**
-     * Path to pdf which get a signature
+     * Paths to pdfs which get a signature
      */
-    String pdfToSign = null;
+    List<String> pdfsToSign = new ArrayList<String>();
 
     /**
-     * Path to output document with generated signature
+     * Path to output document with generated signature. Only allowed for a single input document
      */
     String signedPDF = null;
 
+    /**
+     * Directory for the output documents. If not set the output documents are written next to the input documents
+     */
+    String outputDirectory = null;
+
+    /**
+     * Suffix which is added to the file names of the output documents, before the file extension
+     */
+    String outputSuffix = null;
+
+    /**
+     * Paths to output documents with generated signature, one for each input document
+     */
+    List<String> signedPDFs = new ArrayList<String>();
+
     /**
      * Reason for signing a document.
      */
@@ -108,6 +135,31 @@ public class SignPDF {
      * Path for properties file. Needed if standard path will not be used.
      */
     String propertyFilePath = null;
+
+    /**
+     * If true the pending asynchronous requests of the journal are resumed
+     */
+    boolean resume = false;
+
+    /**
+     * Directory which is watched for documents to sign or null
+     */
+    String watchDirectory = null;
+
+    /**
+     * Directory for the documents which could not be signed in the watched directory
+     */
+    String failureDirectory = null;
+
+    /**
+     * Path of the manifest with one document per row or null
+     */
+    String manifestPath = null;
+
+    /**
+     * Path of the report with the result of each row of the manifest
+     */
+    String reportPath = null;
     
     /**
      * Main method to start AIS. This will parse given parameters e.g. input file, output file etc. and start signature
@@ -140,7 +192,27 @@ public class SignPDF {
     public void runSigning(String[] params) throws Exception {
 
         parseParameters(params);
-        checkNecessaryParams();
+
+        // Only resume the pending requests of an earlier run
+        if (resume && pdfsToSign.isEmpty() && signature == null) {
+            Soap dss_soap = new Soap(verboseMode, debugMode, propertyFilePath);
+            try {
+                checkOutcomes(dss_soap.resumePending());
+            } finally {
+                dss_soap.close();
+            }
+            return;
+        }
+
+        // Sign the documents of a manifest with the settings of each row
+        if (manifestPath != null) {
+            runManifest();
+            return;
+        }
+
+        if (watchDirectory == null) {
+            checkNecessaryParams();
+        }
         checkUnnecessaryParams();
 
         //parse signature
@@ -155,7 +227,107 @@ public class SignPDF {
         	System.err.println("Property File not found. Add '-config=VALUE'-parameter with correct path");
         
         Soap dss_soap = new Soap(verboseMode, debugMode, propertyFilePath);
-        dss_soap.sign(signature, pdfToSign, signedPDF, signingReason, signingLocation, signingContact, certificationLevel, distinguishedName, msisdn, msg, language, serialnumber);
+        try {
+            if (watchDirectory != null) {
+                runWatcher(dss_soap);
+                return;
+            }
+            DocumentOutcome[] resumed = resume ? dss_soap.resumePending() : new DocumentOutcome[0];
+            DocumentOutcome[] signed = dss_soap.sign(signature, pdfsToSign.toArray(new String[pdfsToSign.size()]), signedPDFs.toArray(new String[signedPDFs.size()]), signingReason, signingLocation, signingContact, certificationLevel, distinguishedName, msisdn, msg, language, serialnumber);
+
+            DocumentOutcome[] outcomes = Arrays.copyOf(resumed, resumed.length + signed.length);
+            System.arraycopy(signed, 0, outcomes, resumed.length, signed.length);
+            checkOutcomes(outcomes);
+        } finally {
+            dss_soap.close();
+        }
+    }
+
+    /**
+     * Sign the documents which arrive in the watched directory until the application is stopped
+     *
+     * @param dss_soap Engine which signs the documents
+     * @throws Exception If the directory can not be watched
+     */
+    private void runWatcher(@Nonnull Soap dss_soap) throws Exception {
+        if (resume) {
+            checkOutcomes(dss_soap.resumePending());
+        }
+        File failures = failureDirectory != null ? new File(failureDirectory) : new File(watchDirectory, "failed");
+        final HotFolder hotFolder = new HotFolder(dss_soap, dss_soap.getProperties(), new File(watchDirectory),
+                new File(outputDirectory), outputSuffix, failures, signature, signingReason, signingLocation,
+                signingContact, certificationLevel, distinguishedName);
+        final Thread watcher = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                // Complete the batches which are signed before the application stops
+                hotFolder.stop();
+                try {
+                    watcher.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }));
+        if (debugMode || verboseMode) {
+            System.out.println("Watching " + watchDirectory + " for documents to sign");
+        }
+        hotFolder.run();
+    }
+
+    /**
+     * Sign the documents of the manifest. The options of the command line are used for the fields which are missing in
+     * a row
+     *
+     * @throws Exception If the manifest can not be read or one or more documents could not be signed
+     */
+    private void runManifest() throws Exception {
+        Map<String, String> defaults = new HashMap<String, String>();
+        defaults.put("type", signature != null ? signature.name() : null);
+        defaults.put("dn", distinguishedName);
+        defaults.put("reason", signingReason);
+        defaults.put("location", signingLocation);
+        defaults.put("contact", signingContact);
+        defaults.put("certlevel", certificationLevel > 0 ? String.valueOf(certificationLevel) : null);
+
+        Soap dss_soap = new Soap(verboseMode, debugMode, propertyFilePath);
+        try {
+            if (resume) {
+                checkOutcomes(dss_soap.resumePending());
+            }
+            ManifestJob job = new ManifestJob(dss_soap, dss_soap.getProperties(), defaults, outputDirectory, outputSuffix);
+            long failed = job.run(manifestPath, reportPath);
+            if (failed > 0) {
+                throw new Exception(failed + " of " + job.getRows() + " documents could not be signed, see " + reportPath + ".");
+            }
+        } finally {
+            dss_soap.close();
+        }
+    }
+
+    /**
+     * Check the outcomes of the documents. The documents which were signed are written, the others are reported
+     *
+     * @param outcomes Outcome of each document
+     * @throws Exception If one or more documents could not be signed
+     */
+    private void checkOutcomes(@Nonnull DocumentOutcome[] outcomes) throws Exception {
+        int failed = 0;
+        Exception firstError = null;
+        for (DocumentOutcome outcome : outcomes) {
+            if (!outcome.isSigned()) {
+                failed++;
+                if (firstError == null) {
+                    firstError = outcome.getError();
+                }
+                if (debugMode || verboseMode) {
+                    printError(new File(outcome.getInputFilePath()).getName() + " could not be signed: " + outcome.getMessage());
+                }
+            }
+        }
+        if (failed > 0) {
+            throw new Exception(failed + " of " + outcomes.length + " documents could not be signed.", firstError);
+        }
     }
     
     private void printUsage() {
@@ -174,7 +346,12 @@ public class SignPDF {
     	System.out.println("OPTIONS");
     	System.out.println();
     	System.out.println("  -infile=VALUE           - Source Filename, PDF to be signed");
-    	System.out.println("  -outfile=VALUE          - Target Filename, signed PDF");
+    	System.out.println("                            May be repeated. VALUE may also be a directory (all *.pdf files), a glob");
+    	System.out.println("                            pattern in quotes (e.g. 'invoices/*.pdf') or @FILE with one source per line");
+    	System.out.println("                            Several PDFs are signed with one batch request");
+    	System.out.println("  -outfile=VALUE          - Target Filename, signed PDF (single source file only)");
+    	System.out.println("  -outdir=VALUE           - Target Directory for the signed PDFs, the file names of the sources are kept");
+    	System.out.println("  -outsuffix=VALUE        - Suffix added to the file names of the signed PDFs (e.g. _signed)");
     	System.out.println();
     	System.out.println("  ### TIMESTAMP SIGNATURES ###");
     	System.out.println("  -type=timestamp         - Signature Type RFC 3161");
@@ -225,6 +402,21 @@ public class SignPDF {
     	System.out.println("  -v                      - Verbose output");
     	System.out.println("  -vv                     - More Verbose output");
     	System.out.println("  -config=VALUE           - Custom path to the properties file (signpdf.properties)");
+    	System.out.println();
+    	System.out.println("  ### WATCHED DIRECTORY ###");
+    	System.out.println("  -watch=VALUE            - Sign the PDFs which arrive in this directory until the application is stopped");
+    	System.out.println("                            Requires -outdir, the signed PDFs are removed from the watched directory");
+    	System.out.println("  -faildir=VALUE          - Directory for the PDFs which could not be signed (default is VALUE/failed)");
+    	System.out.println();
+    	System.out.println("  ### MANIFEST ###");
+    	System.out.println("  -manifest=VALUE         - CSV file with a header row or JSON lines file with one document per row");
+    	System.out.println("                            Fields: infile, outfile, type, dn, reason, location, contact, certlevel");
+    	System.out.println("                            Missing fields take the values of the options, e.g. -type or -outdir");
+    	System.out.println("  -report=VALUE           - Report with the result of each row (JSON lines if VALUE ends with .jsonl)");
+    	System.out.println();
+    	System.out.println("  ### PENDING REQUESTS ###");
+    	System.out.println("  -resume                 - Resume the step-up requests of an earlier run which are still pending in the");
+    	System.out.println("                            journal (PENDING_JOURNAL_DIR), e.g. after a restart. May be used alone");
     	System.out.println();                           
     	System.out.println("EXAMPLES");
     	System.out.println();
@@ -236,6 +428,17 @@ public class SignPDF {
     	System.out.println("    java com.swisscom.ais.itext.SignPDF -type=sign -infile=sample.pdf -outfile=signed.pdf");
     	System.out.println("    java com.swisscom.ais.itext.SignPDF -v -config=/tmp/signpdf.properties -type=sign -infile=sample.pdf -outfile=signed.pdf -reason=Approved -location=Berne -contact=alice@acme.com");
     	System.out.println();
+    	System.out.println("  [sign several documents with one batch request]");
+    	System.out.println("    java com.swisscom.ais.itext.SignPDF -type=sign -infile=invoices -outdir=signed");
+    	System.out.println("    java com.swisscom.ais.itext.SignPDF -type=sign -infile='invoices/*.pdf' -outsuffix=_signed");
+    	System.out.println("    java com.swisscom.ais.itext.SignPDF -type=timestamp -infile=@files.txt -outdir=signed");
+    	System.out.println();
+    	System.out.println("  [sign the documents of a manifest]");
+    	System.out.println("    java com.swisscom.ais.itext.SignPDF -type=sign -manifest=nightly.csv -report=nightly-report.csv -outdir=signed");
+    	System.out.println();
+    	System.out.println("  [sign the documents which arrive in a directory]");
+    	System.out.println("    java com.swisscom.ais.itext.SignPDF -type=sign -watch=inbox -outdir=signed -faildir=failed");
+    	System.out.println();
     	System.out.println("  [sign with on demand certificate]");
     	System.out.println("    java com.swisscom.ais.itext.SignPDF -type=sign -infile=sample.pdf -outfile=signed.pdf -dn='cn=Alice Smith,c=CH'");
     	System.out.println();
@@ -283,35 +486,27 @@ public class SignPDF {
                     printUsage();
                 }
             } else if (param.contains("-infile=")) {
-                pdfToSign = args[i].substring(args[i].indexOf("=") + 1).trim();
-                File pdfToSignFile = new File(pdfToSign);
-                if (!pdfToSignFile.isFile() || !pdfToSignFile.canRead()) {
-                    if (debugMode || verboseMode) {
-                        printError("File " + pdfToSign + " is not a file or can not be read.");
-                    }
-                    throw new Exception("File " + pdfToSign + " is not a file or can not be read.");
+                String value = args[i].substring(args[i].indexOf("=") + 1).trim();
+                if (value.startsWith("@")) {
+                    addInputList(value.substring(1));
+                } else {
+                    addInputPath(value);
                 }
                 infile = true;
 			} else if (param.contains("-outfile=")) {
 				signedPDF = args[i].substring(args[i].indexOf("=") + 1).trim();
-				String errorMsg = null;
-				if (signedPDF.equals(pdfToSign)) {
-					errorMsg = "Source file equals target file.";
-				} else if (new File(signedPDF).isFile()) {
-					errorMsg = "Target file exists.";
-				} else {
-					try {
-						new File(signedPDF);
-					} catch (Exception e) {
-						errorMsg = "Can not create target file in given path.";
-					}
-				}
-				if (errorMsg != null) {
+				outfile = true;
+			} else if (param.contains("-outdir=")) {
+				outputDirectory = args[i].substring(args[i].indexOf("=") + 1).trim();
+				if (!new File(outputDirectory).isDirectory()) {
 					if (debugMode || verboseMode) {
-						printError(errorMsg);
+						printError("Target directory " + outputDirectory + " does not exist.");
 					}
-					throw new Exception(errorMsg);
-                }
+					throw new Exception("Target directory " + outputDirectory + " does not exist.");
+				}
+				outfile = true;
+			} else if (param.contains("-outsuffix=")) {
+				outputSuffix = args[i].substring(args[i].indexOf("=") + 1).trim();
 				outfile = true;
             } else if (param.contains("-reason")) {
                 signingReason = args[i].substring(args[i].indexOf("=") + 1).trim();
@@ -350,6 +545,28 @@ public class SignPDF {
                     }
                     throw new Exception("Property file path is set but file does not exist or can not read it: "+propertyFilePath);
                 }
+            } else if (param.contains("-watch=")) {
+                watchDirectory = args[i].substring(args[i].indexOf("=") + 1).trim();
+                if (!new File(watchDirectory).isDirectory()) {
+                    if (debugMode || verboseMode) {
+                        printError("Watched directory " + watchDirectory + " does not exist.");
+                    }
+                    throw new Exception("Watched directory " + watchDirectory + " does not exist.");
+                }
+            } else if (param.contains("-manifest=")) {
+                manifestPath = args[i].substring(args[i].indexOf("=") + 1).trim();
+                if (!new File(manifestPath).isFile() || !new File(manifestPath).canRead()) {
+                    if (debugMode || verboseMode) {
+                        printError("File " + manifestPath + " is not a file or can not be read.");
+                    }
+                    throw new Exception("File " + manifestPath + " is not a file or can not be read.");
+                }
+            } else if (param.contains("-report=")) {
+                reportPath = args[i].substring(args[i].indexOf("=") + 1).trim();
+            } else if (param.contains("-faildir=")) {
+                failureDirectory = args[i].substring(args[i].indexOf("=") + 1).trim();
+            } else if (param.equals("-resume")) {
+            	resume = true;
             } else if (args[i].toLowerCase().contains("-vv")) {
             	debugMode = true;
             } else if (param.contains("-v")) {
@@ -358,29 +575,215 @@ public class SignPDF {
         }
         
         // Check existence of mandatory arguments
-        if (!type) {
+        if (resume && !type && !infile && !outfile && manifestPath == null) {
+        	// Only the pending requests of an earlier run are resumed
+        } else if (manifestPath != null) {
+        	checkManifestParams(infile);
+        } else if (!type) {
         	printUsage("Mandatory option -type is missing");
+        } else if (watchDirectory != null) {
+        	checkWatchParams(infile);
         } else if (!infile) {
         	printUsage("Mandatory option -infile is missing");
         } else if (!outfile) {
-        	printUsage("Mandatory option -outfile is missing");
-        } 
+        	printUsage("Mandatory option -outfile, -outdir or -outsuffix is missing");
+        } else {
+        	setOutputFiles();
+        }
         
     }
 
+    /**
+     * Check the options of the watch mode. The signed documents must be written to another directory, otherwise they
+     * would be signed again
+     *
+     * @param infile True if an input file was given
+     * @throws Exception If an option is not allowed in the watch mode
+     */
+    private void checkWatchParams(boolean infile) throws Exception {
+        String errorMsg = null;
+        if (infile || signedPDF != null) {
+            errorMsg = "Options -infile and -outfile can not be used with -watch.";
+        } else if (outputDirectory == null) {
+            errorMsg = "Mandatory option -outdir is missing.";
+        } else if (new File(outputDirectory).getCanonicalPath().equals(new File(watchDirectory).getCanonicalPath())) {
+            errorMsg = "Target directory equals watched directory.";
+        } else if (msisdn != null || msg != null || language != null) {
+            errorMsg = "Step-up authorization can not be used with -watch.";
+        }
+        if (errorMsg != null) {
+            if (debugMode || verboseMode) {
+                printError(errorMsg);
+            }
+            throw new Exception(errorMsg);
+        }
+    }
+
+    /**
+     * Check the options of a manifest. The documents and their settings are given by the rows of the manifest, the
+     * other options are used for the fields which are missing in a row
+     *
+     * @param infile True if an input file was given
+     * @throws Exception If an option is not allowed with a manifest
+     */
+    private void checkManifestParams(boolean infile) throws Exception {
+        String errorMsg = null;
+        if (reportPath == null) {
+            errorMsg = "Mandatory option -report is missing.";
+        } else if (infile || signedPDF != null || watchDirectory != null) {
+            errorMsg = "Options -infile, -outfile and -watch can not be used with -manifest.";
+        } else if (msisdn != null || msg != null || language != null) {
+            errorMsg = "Step-up authorization can not be used with -manifest.";
+        } else if (new File(reportPath).exists()) {
+            errorMsg = "Report file " + reportPath + " exists.";
+        }
+        if (errorMsg != null) {
+            if (debugMode || verboseMode) {
+                printError(errorMsg);
+            }
+            throw new Exception(errorMsg);
+        }
+    }
+
+    /**
+     * Add the input files of a list file. Each line contains a file, a directory or a glob pattern. Empty lines and
+     * lines starting with # are ignored
+     *
+     * @param listFilePath Path of the list file
+     * @throws Exception If the list file or an input file can not be read
+     */
+    private void addInputList(@Nonnull String listFilePath) throws Exception {
+        File listFile = new File(listFilePath);
+        if (!listFile.isFile() || !listFile.canRead()) {
+            if (debugMode || verboseMode) {
+                printError("File " + listFilePath + " is not a file or can not be read.");
+            }
+            throw new Exception("File " + listFilePath + " is not a file or can not be read.");
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(listFile));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    addInputPath(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Add input files. A directory adds all pdf files in it, a glob pattern in the file name (e.g. *.pdf) adds all
+     * matching files
+     *
+     * @param path Path of a file, a directory or a glob pattern
+     * @throws Exception If no file was found or a file can not be read
+     */
+    private void addInputPath(@Nonnull String path) throws Exception {
+        File file = new File(path);
+        File[] files = null;
+
+        if (file.isDirectory()) {
+            files = file.listFiles(new FileFilter() {
+                public boolean accept(File pathname) {
+                    return pathname.isFile() && pathname.getName().toLowerCase().endsWith(".pdf");
+                }
+            });
+        } else if (!file.exists() && file.getName().matches(".*[*?\\[{].*")) {
+            final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + file.getName());
+            File directory = file.getAbsoluteFile().getParentFile();
+            files = directory.listFiles(new FileFilter() {
+                public boolean accept(File pathname) {
+                    return pathname.isFile() && matcher.matches(pathname.toPath().getFileName());
+                }
+            });
+        } else {
+            files = new File[]{file};
+        }
+
+        if (files == null || files.length == 0) {
+            if (debugMode || verboseMode) {
+                printError("No PDF found in " + path + ".");
+            }
+            throw new Exception("No PDF found in " + path + ".");
+        }
+
+        // Sort the files to sign them in a reproducible order
+        Arrays.sort(files);
+        for (File pdfToSignFile : files) {
+            if (!pdfToSignFile.isFile() || !pdfToSignFile.canRead()) {
+                if (debugMode || verboseMode) {
+                    printError("File " + pdfToSignFile.getPath() + " is not a file or can not be read.");
+                }
+                throw new Exception("File " + pdfToSignFile.getPath() + " is not a file or can not be read.");
+            }
+            pdfsToSign.add(pdfToSignFile.getPath());
+        }
+    }
+
+    /**
+     * Set the output file for each input file. The output file is either given by -outfile or derived from the input
+     * file name, the target directory and the suffix
+     *
+     * @throws Exception If an output file is not valid
+     */
+    private void setOutputFiles() throws Exception {
+
+        if (signedPDF != null) {
+            if (pdfsToSign.size() > 1 || outputDirectory != null || outputSuffix != null) {
+                printUsage("Option -outfile can only be used with a single source file and without -outdir and -outsuffix");
+                return;
+            }
+            signedPDFs.add(signedPDF);
+        } else {
+            for (String pdfToSign : pdfsToSign) {
+                File pdfToSignFile = new File(pdfToSign);
+                String name = pdfToSignFile.getName();
+                if (outputSuffix != null) {
+                    int extension = name.lastIndexOf('.');
+                    name = extension > 0 ? name.substring(0, extension) + outputSuffix + name.substring(extension) : name + outputSuffix;
+                }
+                File directory = outputDirectory != null ? new File(outputDirectory) : pdfToSignFile.getAbsoluteFile().getParentFile();
+                signedPDFs.add(new File(directory, name).getPath());
+            }
+        }
+
+        Set<String> targets = new HashSet<String>();
+        for (int i = 0; i < signedPDFs.size(); i++) {
+            File target = new File(signedPDFs.get(i));
+            String errorMsg = null;
+            if (target.getCanonicalPath().equals(new File(pdfsToSign.get(i)).getCanonicalPath())) {
+                errorMsg = "Source file equals target file.";
+            } else if (target.isFile()) {
+                errorMsg = "Target file exists.";
+            } else if (!targets.add(target.getCanonicalPath())) {
+                errorMsg = "Target file " + target.getPath() + " is used for several source files.";
+            }
+            if (errorMsg != null) {
+                if (debugMode || verboseMode) {
+                    printError(errorMsg);
+                }
+                throw new Exception(errorMsg);
+            }
+        }
+    }
+
     /**
      * Check if needed parameters are given. If not method will print an error and exit with code 1
      */
     private void checkNecessaryParams() throws Exception {
 
-        if (pdfToSign == null) {
+        if (pdfsToSign.isEmpty()) {
             if (debugMode || verboseMode) {
                 printError("Input file does not exist.");
             }
             throw new Exception("Input file does not exist.");
         }
 
-        if (signedPDF == null) {
+        if (signedPDFs.isEmpty()) {
             if (debugMode || verboseMode) {
                 printError("Output file does not exist.");
             }
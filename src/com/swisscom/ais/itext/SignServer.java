@@ -0,0 +1,683 @@
+/**
+ * Signing service with a local HTTP API
+ *
+ * Created:
+ * 17.10.26 KW42 23:20
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 23:20
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps one Soap engine resident behind a local HTTP endpoint, so a document is signed in the time of the request to
+ * the server instead of a JVM start. The connections to the server, the revocation cache and the poll scheduler are
+ * shared by all requests.
+ * <p/>
+ * POST /sign signs the PDF in the request body and returns the signed PDF. The options are query parameters with the
+ * names of the command line options: type, dn, reason, location, contact, certlevel, stepUpMsisdn, stepUpMsg,
+ * stepUpLang and stepUpSerialNumber. With SERVER_ALLOW_PATHS=true a local file may be given with infile instead of the
+ * body, and with outfile the signed PDF is written to a local file. GET /status returns counters of the service.
+ * <p/>
+ * The requests are signed on a bounded pool of threads (SERVER_THREADS) with a bounded queue (SERVER_QUEUE). If the
+ * queue is full the request is rejected with 503, so a client can retry later instead of waiting without limit. A
+ * thread receives the document and sends the request to the server, a step-up is polled without a thread and its
+ * response is sent when the signer confirmed.
+ */
+public class SignServer {
+
+    /**
+     * Engine which signs the documents
+     */
+    private Soap _soap;
+
+    /**
+     * HTTP server
+     */
+    private HttpServer _server;
+
+    /**
+     * Threads which sign the requests
+     */
+    private ThreadPoolExecutor _executor;
+
+    /**
+     * Directory for uploaded and signed documents
+     */
+    private File _workDir;
+
+    /**
+     * Maximal size of an uploaded document in bytes
+     */
+    private long _maxUpload;
+
+    /**
+     * If true local files may be signed and written
+     */
+    private boolean _allowPaths;
+
+    /**
+     * Number of signed documents
+     */
+    private final AtomicLong _signed = new AtomicLong();
+
+    /**
+     * Number of documents which could not be signed
+     */
+    private final AtomicLong _failed = new AtomicLong();
+
+    /**
+     * Number of requests which were rejected because the queue was full
+     */
+    private final AtomicLong _rejected = new AtomicLong();
+
+    /**
+     * Constructor to set relevant parameters. If a value can not be readed from the properties it will use 16 threads,
+     * a queue of 100 requests, uploads up to 100 MB in the temp directory and no local files
+     *
+     * @param soap       Engine which signs the documents
+     * @param properties Server properties
+     */
+    public SignServer(@Nonnull Soap soap, @Nonnull Properties properties) {
+        this._soap = soap;
+
+        int threads;
+        try {
+            threads = Integer.parseInt(properties.getProperty("SERVER_THREADS"));
+        } catch (NumberFormatException e) {
+            threads = 16;
+        }
+        int queue;
+        try {
+            queue = Integer.parseInt(properties.getProperty("SERVER_QUEUE"));
+        } catch (NumberFormatException e) {
+            queue = 100;
+        }
+        try {
+            _maxUpload = Long.parseLong(properties.getProperty("SERVER_MAX_UPLOAD")) * 1024 * 1024;
+        } catch (NumberFormatException e) {
+            _maxUpload = 100 * 1024 * 1024;
+        }
+        _workDir = new File(properties.getProperty("SERVER_WORK_DIR", System.getProperty("java.io.tmpdir")).trim());
+        _allowPaths = Boolean.parseBoolean(properties.getProperty("SERVER_ALLOW_PATHS", "false").trim());
+
+        threads = Math.max(1, threads);
+        _executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queue)), new NamedThreadFactory("ais-server"));
+        _executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Start the HTTP server. The handlers only hand the requests over to the signing threads, so they run on the
+     * dispatcher thread of the server
+     *
+     * @param host Host name or address to bind, e.g. 127.0.0.1
+     * @param port Port to bind
+     * @throws IOException If the port can not be bound
+     */
+    public void start(@Nonnull String host, int port) throws IOException {
+        if (!_workDir.isDirectory() && !_workDir.mkdirs()) {
+            throw new IOException("Could not create work directory " + _workDir.getAbsolutePath());
+        }
+        _server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        _server.createContext("/sign", new SignHandler());
+        _server.createContext("/status", new StatusHandler());
+        _server.start();
+
+        if (Soap._debugMode || Soap._verboseMode) {
+            System.out.println("Signing service listening on http://" + host + ":" + _server.getAddress().getPort() + "/sign");
+        }
+    }
+
+    /**
+     * Stop the HTTP server and close the engine. Requests which are signed are completed, step-ups which are still
+     * pending fail and are resumed with the next start
+     *
+     * @param delay Time in seconds to wait for requests which are sent
+     */
+    public void stop(int delay) {
+        _server.stop(delay);
+        _executor.shutdown();
+        try {
+            _executor.awaitTermination(delay, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            _soap.close();
+        } catch (IOException e) {
+            System.err.println("Could not close the signing engine: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get port of the HTTP server
+     *
+     * @return Port which is bound
+     */
+    public int getPort() {
+        return _server.getAddress().getPort();
+    }
+
+    /**
+     * Write the request body to a file
+     *
+     * @param inputStream Request body
+     * @param file        File of the document
+     * @return Number of bytes of the document or -1 if it is larger than the maximal upload size
+     * @throws IOException If the document can not be read or written
+     */
+    private long receive(@Nonnull InputStream inputStream, @Nonnull File file) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            long length = 0;
+            int n;
+            while ((n = inputStream.read(buffer)) != -1) {
+                length += n;
+                if (length > _maxUpload) {
+                    return -1;
+                }
+                outputStream.write(buffer, 0, n);
+            }
+            return length;
+        } finally {
+            outputStream.close();
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Copy a stream
+     *
+     * @param inputStream  Source
+     * @param outputStream Target
+     * @throws IOException If the stream can not be copied
+     */
+    private static void copy(@Nonnull InputStream inputStream, @Nonnull OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, n);
+        }
+    }
+
+    /**
+     * Send a text response
+     *
+     * @param exchange Request and response
+     * @param status   HTTP status code
+     * @param text     Text of the response
+     * @throws IOException If the response can not be sent
+     */
+    private static void sendText(@Nonnull HttpExchange exchange, int status, @Nullable String text) throws IOException {
+        byte[] body = ((text != null ? text : "") + "\n").getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        outputStream.write(body);
+        outputStream.close();
+    }
+
+    /**
+     * Parse the query parameters of a request. The names are not case sensitive
+     *
+     * @param query Raw query of the request or null
+     * @return Decoded parameters with lower case names
+     * @throws IOException If UTF-8 is not supported
+     */
+    @Nonnull
+    private static Map<String, String> parseQuery(@Nullable String query) throws IOException {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int index = pair.indexOf('=');
+                if (index > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, index), "UTF-8").toLowerCase(),
+                            URLDecoder.decode(pair.substring(index + 1), "UTF-8").trim());
+                }
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Hands the sign requests over to the signing threads
+     */
+    private class SignHandler implements HttpHandler {
+
+        @Override
+        public void handle(@Nonnull final HttpExchange exchange) throws IOException {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "Only POST is supported");
+                exchange.close();
+                return;
+            }
+
+            final Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            try {
+                _executor.execute(new Runnable() {
+                    public void run() {
+                        new SignRequest(exchange).sign(params);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                _rejected.incrementAndGet();
+                sendText(exchange, 503, "Too many sign requests, try again later");
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the counters of the service
+     */
+    private class StatusHandler implements HttpHandler {
+
+        @Override
+        public void handle(@Nonnull HttpExchange exchange) throws IOException {
+            sendText(exchange, 200, "signed: " + _signed.get()
+                    + "\nfailed: " + _failed.get()
+                    + "\nrejected: " + _rejected.get()
+                    + "\nactive: " + _executor.getActiveCount()
+                    + "\nqueued: " + _executor.getQueue().size()
+                    + "\npending step-ups: " + _soap.getPollScheduler().getPending()
+                    + "\nstages: " + _soap.getPipeline().getStatus());
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sign request of a client. The signing thread receives the document and starts the signing, the response is sent
+     * when the signing is completed. A request with step-up does not occupy a signing thread while the signer confirms
+     */
+    private class SignRequest {
+
+        /**
+         * Request and response
+         */
+        final HttpExchange exchange;
+
+        /**
+         * Time in milli seconds when the request was started
+         */
+        final long start = System.currentTimeMillis();
+
+        /**
+         * Document to sign or null if it was not received yet
+         */
+        File fileIn;
+
+        /**
+         * Signed document or null if it was not created yet
+         */
+        File fileOut;
+
+        /**
+         * Local file of the signed document or null if it is returned in the response
+         */
+        String outfile;
+
+        /**
+         * If true the document to sign is an upload which is deleted afterwards
+         */
+        boolean uploaded;
+
+        /**
+         * If true the signed document is returned in the response and deleted afterwards
+         */
+        boolean download;
+
+        /**
+         * Constructor for this class
+         *
+         * @param exchange Request and response
+         */
+        SignRequest(@Nonnull HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        /**
+         * Receive the document of the request and start the signing. If the request is not valid the response is sent
+         * at once
+         *
+         * @param params Query parameters of the request
+         */
+        void sign(@Nonnull Map<String, String> params) {
+            try {
+                SignParameters parameters;
+                try {
+                    parameters = new SignParameters(params);
+                } catch (IllegalArgumentException e) {
+                    sendText(exchange, 400, e.getMessage());
+                    close();
+                    return;
+                }
+
+                String infile = params.get("infile");
+                outfile = params.get("outfile");
+                if ((infile != null || outfile != null) && !_allowPaths) {
+                    sendText(exchange, 403, "Local files are not allowed (SERVER_ALLOW_PATHS)");
+                    close();
+                    return;
+                }
+
+                if (infile != null) {
+                    fileIn = new File(infile);
+                    if (!fileIn.isFile() || !fileIn.canRead()) {
+                        sendText(exchange, 404, "File not found or is not a file or not readable: " + infile);
+                        close();
+                        return;
+                    }
+                } else {
+                    fileIn = File.createTempFile("upload", ".pdf", _workDir);
+                    uploaded = true;
+                    long received = receive(exchange.getRequestBody(), fileIn);
+                    if (received < 0) {
+                        sendText(exchange, 413, "Document is larger than " + _maxUpload / 1024 / 1024 + " MB");
+                        close();
+                        return;
+                    }
+                    if (received == 0) {
+                        sendText(exchange, 400, "empty body");
+                        close();
+                        return;
+                    }
+                }
+
+                if (outfile != null) {
+                    fileOut = new File(outfile);
+                    if (fileOut.exists()) {
+                        sendText(exchange, 409, "Target file exists: " + outfile);
+                        close();
+                        return;
+                    }
+                } else {
+                    fileOut = File.createTempFile("signed", ".pdf", _workDir);
+                    download = true;
+                }
+
+                _soap.signAsync(parameters.signature, new String[]{fileIn.getPath()}, new String[]{fileOut.getPath()},
+                        new String[]{parameters.reason}, new String[]{parameters.location}, new String[]{parameters.contact},
+                        new int[]{parameters.certificationLevel}, parameters.distinguishedName, parameters.msisdn,
+                        parameters.msg, parameters.language, parameters.serialnumber)
+                        .whenComplete(new BiConsumer<DocumentOutcome[], Throwable>() {
+                            public void accept(DocumentOutcome[] outcomes, Throwable error) {
+                                if (error != null) {
+                                    fail(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                                } else {
+                                    respond(outcomes[0]);
+                                }
+                            }
+                        });
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Send the response of a signed document
+         *
+         * @param outcome Outcome of the document
+         */
+        void respond(@Nonnull DocumentOutcome outcome) {
+            try {
+                if (!outcome.isSigned()) {
+                    _failed.incrementAndGet();
+                    // The server refused to sign if there is a result, otherwise the document could not be processed
+                    sendText(exchange, outcome.getResultMajor() != null ? 502 : 500, "Could not sign the document: " + outcome.getMessage());
+                    return;
+                }
+                _signed.incrementAndGet();
+
+                exchange.getResponseHeaders().set("X-Signing-Time", String.valueOf(System.currentTimeMillis() - start));
+                if (download) {
+                    exchange.getResponseHeaders().set("Content-Type", "application/pdf");
+                    exchange.sendResponseHeaders(200, fileOut.length());
+                    OutputStream outputStream = exchange.getResponseBody();
+                    InputStream inputStream = new FileInputStream(fileOut);
+                    try {
+                        copy(inputStream, outputStream);
+                    } finally {
+                        inputStream.close();
+                    }
+                    outputStream.close();
+                } else {
+                    sendText(exchange, 200, "Signed " + outfile);
+                }
+            } catch (IOException e) {
+                // The client is gone
+                if (Soap._debugMode) {
+                    e.printStackTrace();
+                }
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Send the response of a document which could not be signed because of an error
+         *
+         * @param error Error
+         */
+        void fail(@Nonnull Throwable error) {
+            _failed.incrementAndGet();
+            if (Soap._debugMode) {
+                error.printStackTrace();
+            }
+            try {
+                sendText(exchange, 500, "Could not sign the document: " + error.getMessage());
+            } catch (IOException ioe) {
+                // The client is gone
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Delete the temporary files and close the exchange
+         */
+        void close() {
+            if (uploaded && fileIn != null) {
+                fileIn.delete();
+            }
+            if (download && fileOut != null) {
+                fileOut.delete();
+            }
+            exchange.close();
+        }
+    }
+
+    /**
+     * Options of a sign request, with the same meaning as the command line options
+     */
+    private static class SignParameters {
+
+        Include.Signature signature;
+        String distinguishedName;
+        String msisdn;
+        String msg;
+        String language;
+        String serialnumber;
+        String reason;
+        String location;
+        String contact;
+        int certificationLevel;
+
+        /**
+         * Constructor for this class. Checks the options like the command line
+         *
+         * @param params Query parameters with lower case names
+         * @throws IllegalArgumentException If an option is missing or not valid
+         */
+        SignParameters(@Nonnull Map<String, String> params) {
+            String type = params.get("type");
+            if (type == null) {
+                throw new IllegalArgumentException("Mandatory option type is missing");
+            }
+            try {
+                signature = Include.Signature.valueOf(type.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(type + " is not a valid signature.");
+            }
+
+            distinguishedName = params.get("dn");
+            msisdn = params.get("stepupmsisdn");
+            msg = params.get("stepupmsg");
+            language = params.get("stepuplang");
+            serialnumber = params.get("stepupserialnumber");
+            reason = params.get("reason");
+            location = params.get("location");
+            contact = params.get("contact");
+
+            if (params.get("certlevel") != null) {
+                try {
+                    certificationLevel = Integer.parseInt(params.get("certlevel"));
+                } catch (NumberFormatException e) {
+                    certificationLevel = -1;
+                }
+                if (certificationLevel < 1 || certificationLevel > 3) {
+                    throw new IllegalArgumentException("certlevel value not between 1..3");
+                }
+            }
+
+            if (signature.equals(Include.Signature.TIMESTAMP)) {
+                if (distinguishedName != null || msisdn != null || msg != null || language != null) {
+                    throw new IllegalArgumentException("Options dn and stepUp are not allowed for timestamps");
+                }
+            } else if (!(msisdn == null && msg == null && language == null ||
+                    distinguishedName != null && msisdn != null && msg != null && language != null)) {
+                throw new IllegalArgumentException("Step-up requires dn, stepUpMsisdn, stepUpMsg and stepUpLang");
+            }
+
+            if (signature.equals(Include.Signature.SIGN)) {
+                signature = distinguishedName != null ? Include.Signature.ONDEMAND : Include.Signature.STATIC;
+            }
+            if (msg != null) {
+                // Same unique transaction id as on the command line
+                msg = msg.replaceAll("#TRANSID#", new BigInteger(30, new SecureRandom()).toString(32));
+            }
+        }
+    }
+
+    /**
+     * Start the signing service. The options are -config=VALUE, -port=VALUE, -host=VALUE, -v and -vv. The port and the
+     * host may also be set with SERVER_PORT and SERVER_HOST, the standard values are 8080 and 127.0.0.1. Requests which
+     * were pending when the service stopped are resumed (PENDING_JOURNAL_DIR)
+     *
+     * @param args Arguments
+     */
+    public static void main(String[] args) {
+        String propertyFilePath = null;
+        String host = null;
+        String port = null;
+        boolean verboseMode = false;
+        boolean debugMode = false;
+        for (String arg : args) {
+            String param = arg.toLowerCase();
+            if (param.startsWith("-config=")) {
+                propertyFilePath = arg.substring(arg.indexOf("=") + 1).trim();
+            } else if (param.startsWith("-port=")) {
+                port = arg.substring(arg.indexOf("=") + 1).trim();
+            } else if (param.startsWith("-host=")) {
+                host = arg.substring(arg.indexOf("=") + 1).trim();
+            } else if (param.equals("-vv")) {
+                debugMode = true;
+            } else if (param.equals("-v")) {
+                verboseMode = true;
+            }
+        }
+
+        try {
+            Properties properties = new Properties();
+            if (propertyFilePath != null) {
+                FileReader reader = new FileReader(propertyFilePath);
+                try {
+                    properties.load(reader);
+                } finally {
+                    reader.close();
+                }
+            } else {
+                properties = System.getProperties();
+            }
+            if (host == null) {
+                host = properties.getProperty("SERVER_HOST", "127.0.0.1").trim();
+            }
+            if (port == null) {
+                port = properties.getProperty("SERVER_PORT", "8080").trim();
+            }
+
+            final Soap soap = new Soap(verboseMode, debugMode, propertyFilePath);
+            final SignServer server = new SignServer(soap, properties);
+            server.start(host, Integer.parseInt(port));
+
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run() {
+                    server.stop(5);
+                }
+            }));
+
+            // The requests of the journal are resumed while new requests are served. If this fails the requests stay
+            // in the journal for the next start, the service goes on
+            try {
+                DocumentOutcome[] resumed = soap.resumePending();
+                if ((verboseMode || debugMode) && resumed.length > 0) {
+                    for (DocumentOutcome outcome : resumed) {
+                        System.out.println("Resumed " + outcome);
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("Could not resume the pending requests: " + e.getMessage());
+                if (debugMode) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (Exception e) {
+            if (debugMode || verboseMode) {
+                e.printStackTrace();
+            }
+            System.exit(1);
+        }
+    }
+}
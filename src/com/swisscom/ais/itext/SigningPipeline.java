@@ -0,0 +1,309 @@
+/**
+ * Stages which process the chunks of documents one after the other
+ *
+ * Created:
+ * 18.10.26 KW42 01:30
+ * </p>
+ * Last Modification:
+ * 18.10.26 KW42 01:30
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes items in stages, each stage on its own threads. The stages are connected by bounded queues: if the queue
+ * of a stage is full, the thread which hands an item over waits until there is space again. So a slow stage slows down
+ * the stages before it instead of collecting items in memory, while all stages work on different items at the same
+ * time. For signing, a chunk of documents is prepared while the previous chunk waits for the server and the one
+ * before is embedded, so the processors, the disk and the network are used at the same time.
+ * <p/>
+ * The number of threads of a stage depends on its work: a stage which waits for the network needs about as many
+ * threads as requests should be in flight, a stage which uses the processors needs few threads if the work of an item
+ * is already spread over several threads.
+ *
+ * @param <T> Type of the items
+ */
+public class SigningPipeline<T> {
+
+    /**
+     * Work of a stage
+     *
+     * @param <T> Type of the items
+     */
+    public interface Step<T> {
+
+        /**
+         * Process an item
+         *
+         * @param item Item
+         * @return True if the item goes on to the next stage, false if it is completed
+         * @throws Exception If the item could not be processed, the remaining stages are skipped
+         */
+        boolean process(@Nonnull T item) throws Exception;
+    }
+
+    /**
+     * Stages in the order of processing
+     */
+    private final List<Stage> _stages = new ArrayList<Stage>();
+
+    /**
+     * Maximal number of items which wait in front of a stage
+     */
+    private int _queueSize;
+
+    /**
+     * Constructor to set relevant parameters
+     *
+     * @param queueSize Maximal number of items which wait in front of each stage
+     */
+    public SigningPipeline(int queueSize) {
+        this._queueSize = Math.max(1, queueSize);
+    }
+
+    /**
+     * Add a stage after the stages which were added before. Stages must be added before the first item is submitted
+     *
+     * @param name    Name of the stage, e.g. prepare
+     * @param threads Number of items which are processed by the stage at the same time
+     * @param step    Work of the stage
+     * @return This pipeline
+     */
+    @Nonnull
+    public SigningPipeline<T> addStage(@Nonnull String name, int threads, @Nonnull Step<T> step) {
+        _stages.add(new Stage(name, threads, step));
+        return this;
+    }
+
+    /**
+     * Hand an item over to the first stage. Waits while the queue of the first stage is full
+     *
+     * @param item Item
+     * @return Result which is completed when the item passed all stages or a stage failed
+     */
+    @Nonnull
+    public Future<T> submit(@Nonnull T item) {
+        Result result = new Result(item);
+        _stages.get(0).execute(result, 0);
+        return result;
+    }
+
+    /**
+     * Process an item in all stages and wait until it is completed
+     *
+     * @param item Item
+     * @throws Exception Error of the stage which failed
+     */
+    public void process(@Nonnull T item) throws Exception {
+        try {
+            submit(item).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Stop the threads of the stages. The stages are stopped in the order of processing, so the items which were
+     * submitted pass all stages first
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting for the items
+     */
+    public void shutdown() throws InterruptedException {
+        for (Stage stage : _stages) {
+            stage.executor.shutdown();
+            stage.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Get the state of the stages, e.g. for reports of the load
+     *
+     * @return State of each stage: busy threads, waiting items, processed items and the time the threads were busy
+     */
+    @Nonnull
+    public String getStatus() {
+        StringBuilder status = new StringBuilder();
+        for (Stage stage : _stages) {
+            if (status.length() > 0) {
+                status.append(", ");
+            }
+            status.append(stage.name).append(' ').append(stage.executor.getActiveCount()).append('/')
+                    .append(stage.executor.getMaximumPoolSize()).append(" busy ")
+                    .append(stage.executor.getQueue().size()).append(" queued ")
+                    .append(stage.processed.get()).append(" done ")
+                    .append(stage.busyTime.get()).append(" ms");
+        }
+        return status.toString();
+    }
+
+    /**
+     * Stage with its threads and its queue
+     */
+    private class Stage {
+
+        /**
+         * Name of the stage
+         */
+        final String name;
+
+        /**
+         * Work of the stage
+         */
+        final Step<T> step;
+
+        /**
+         * Threads of the stage with the bounded queue in front of it
+         */
+        final ThreadPoolExecutor executor;
+
+        /**
+         * Number of processed items
+         */
+        final AtomicLong processed = new AtomicLong();
+
+        /**
+         * Time in milliseconds the threads of the stage were busy
+         */
+        final AtomicLong busyTime = new AtomicLong();
+
+        /**
+         * Constructor for this class
+         *
+         * @param name    Name of the stage
+         * @param threads Number of items which are processed at the same time
+         * @param step    Work of the stage
+         */
+        Stage(@Nonnull String name, int threads, @Nonnull Step<T> step) {
+            this.name = name;
+            this.step = step;
+            int poolSize = Math.max(1, threads);
+            executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(_queueSize), new NamedThreadFactory("ais-stage-" + name),
+                    new RejectedExecutionHandler() {
+                        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                            // The queue is full, the thread which hands the item over waits (backpressure)
+                            if (executor.isShutdown()) {
+                                throw new RejectedExecutionException("Stage " + Stage.this.name + " was stopped");
+                            }
+                            try {
+                                executor.getQueue().put(runnable);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new RejectedExecutionException(e);
+                            }
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        /**
+         * Process an item on the threads of this stage and hand it over to the next stage
+         *
+         * @param result Result of the item
+         * @param index  Index of this stage
+         */
+        void execute(@Nonnull final Result result, final int index) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        boolean next;
+                        long start = System.currentTimeMillis();
+                        try {
+                            next = step.process(result.item);
+                        } catch (Exception e) {
+                            result.fail(e);
+                            return;
+                        } catch (Error e) {
+                            // The caller must not wait forever, e.g. if the memory is exhausted
+                            result.fail(new Exception(e));
+                            throw e;
+                        } finally {
+                            busyTime.addAndGet(System.currentTimeMillis() - start);
+                            processed.incrementAndGet();
+                        }
+
+                        if (next && index + 1 < _stages.size()) {
+                            _stages.get(index + 1).execute(result, index + 1);
+                        } else {
+                            result.complete();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                result.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Future which is completed by the stages instead of running a task itself
+     */
+    private class Result extends FutureTask<T> {
+
+        /**
+         * Item which is processed
+         */
+        final T item;
+
+        /**
+         * Constructor for this class
+         *
+         * @param item Item which is processed
+         */
+        Result(@Nonnull T item) {
+            super(new Callable<T>() {
+                public T call() {
+                    throw new IllegalStateException("The result of an item is set by the stages");
+                }
+            });
+            this.item = item;
+        }
+
+        /**
+         * Complete the result after the last stage
+         */
+        void complete() {
+            set(item);
+        }
+
+        /**
+         * Complete the result with the error of a stage
+         *
+         * @param error Error of the stage
+         */
+        void fail(@Nonnull Exception error) {
+            setException(error);
+        }
+
+        @Override
+        public void run() {
+            // The result is only set by the stages
+        }
+    }
+}
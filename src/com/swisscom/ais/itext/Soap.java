@@ -23,40 +23,36 @@
 
 package com.swisscom.ais.itext;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.net.URLConnection;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.net.ssl.HttpsURLConnection;
-import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.soap.MessageFactory;
-import javax.xml.soap.SOAPBody;
-import javax.xml.soap.SOAPElement;
-import javax.xml.soap.SOAPEnvelope;
-import javax.xml.soap.SOAPException;
-import javax.xml.soap.SOAPHeader;
-import javax.xml.soap.SOAPMessage;
-import javax.xml.soap.SOAPPart;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
@@ -64,25 +60,11 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 import com.itextpdf.text.pdf.codec.Base64;
 import com.swisscom.ais.itext.Include.RequestType;
 
-public class Soap {
-
-    /**
-     * Constant for timestamp urn
-     */
-    private static final String _TIMESTAMP_URN = "urn:ietf:rfc:3161";
-
-    /**
-     * Constant for CMS urn
-     */
-    private static final String _CMS_URN = "urn:ietf:rfc:3369";
+public class Soap implements Closeable {
 
     /**
      * Path to configuration file. Can also set in constructor
@@ -119,6 +101,76 @@ public class Soap {
      */
     private int _timeout;
 
+    /**
+     * Maximal number of connections to the server
+     */
+    private int _maxConnections;
+
+    /**
+     * Time in milliseconds after which an idle connection to the server will be closed
+     */
+    private long _idleTimeout;
+
+    /**
+     * Time in milliseconds a request waits for a free connection to the server, 0 to wait until one is free
+     */
+    private long _connectionWaitTimeout;
+
+    /**
+     * Documents larger than this number of bytes are stamped into a temp file instead of memory
+     */
+    private long _tempFileThreshold;
+
+    /**
+     * Threads which prepare the documents and create their hashes
+     */
+    private DocumentWorkers _prepareWorkers;
+
+    /**
+     * Threads which add the signatures to the documents
+     */
+    private DocumentWorkers _embedWorkers;
+
+    /**
+     * Number of further requests for the documents of a batch which were not signed
+     */
+    private int _batchRetries;
+
+    /**
+     * Splits batches of documents into chunks which are signed with one request each
+     */
+    private BatchPlanner _batchPlanner;
+
+    /**
+     * Polls the server for pending asynchronous requests
+     */
+    private PollScheduler _pollScheduler;
+
+    /**
+     * Journal of the pending asynchronous requests or null if the requests are not journaled
+     */
+    private PendingJournal _journal;
+
+    /**
+     * Stages which prepare, send, embed and save the chunks of synchronous requests
+     */
+    private SigningPipeline<SyncChunk> _pipeline;
+
+    /**
+     * True if this instance was closed
+     */
+    private boolean _closed;
+
+    /**
+     * Connection to the server. Created once and shared by all requests of this instance
+     */
+    private Connect _connect;
+
+    /**
+     * Transport which sends the requests to the server
+     */
+    private Transport _transport;
+
     /**
      * If set to true debug information will be print otherwise not
      */
@@ -159,13 +211,93 @@ public class Soap {
         }
 
         setConnectionProperties();
+        setDocumentProperties();
+        setBatchProperties();
+        setPollProperties();
+        setPipelineProperties();
         checkFilesExistsAndIsFile(new String[]{this._clientCertPath, this._privateKeyName, this._serverCertPath});
 
+        _connect = new Connect(_url, _privateKeyName, _serverCertPath, _clientCertPath, _timeout, _debugMode);
+        String transport = properties.getProperty("TRANSPORT", "").trim();
+        if ("urlconnection".equalsIgnoreCase(transport)) {
+            _transport = new URLConnectionTransport(_connect);
+        } else {
+            if (!"pool".equalsIgnoreCase(transport)) {
+                _transport = createHttpClientTransport();
+            }
+            if (_transport == null) {
+                _transport = new ConnectionPool(_connect, _maxConnections, _idleTimeout, _timeout, _connectionWaitTimeout);
+            }
+        }
+    }
+
+    /**
+     * Create the transport with the HTTP client of Java 11 and later. The class is compiled from its own source folder,
+     * so it is loaded by name
+     *
+     * @return Transport or null if the class is not on the class path or the Java version is older than 11
+     */
+    @Nullable
+    private Transport createHttpClientTransport() {
+        try {
+            return (Transport) Class.forName("com.swisscom.ais.itext.HttpClientTransport")
+                    .getConstructor(Connect.class, int.class).newInstance(_connect, _timeout);
+        } catch (Exception e) {
+            if (_debugMode) {
+                System.out.println("HTTP client transport not available (" + e + "), using the connection pool");
+            }
+        } catch (LinkageError e) {
+            if (_debugMode) {
+                System.out.println("HTTP client transport needs Java 11 or later (" + e + "), using the connection pool");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Set the transport which sends the requests to the server. The transport which was used before will be closed
+     *
+     * @param transport Transport to use for all further requests
+     */
+    public void setTransport(@Nonnull Transport transport) {
+        Transport previous = _transport;
+        _transport = transport;
+        if (previous != null && previous != transport) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Get the transport which sends the requests to the server
+     *
+     * @return Transport
+     */
+    public Transport getTransport() {
+        return _transport;
+    }
+
+    /**
+     * Get the connection to the server, e.g. to create a custom transport
+     *
+     * @return Connection to the server
+     */
+    public Connect getConnect() {
+        return _connect;
+    }
+
+    /**
+     * Get the properties which were loaded, e.g. for the settings of the watcher
+     *
+     * @return Properties
+     */
+    public Properties getProperties() {
+        return properties;
     }
 
     /**
      * Set connection properties from property file. Also convert timeout from seconds to milliseconds. If timeout can not
-     * be readed from properties file it will use standard value 90 seconds
+     * be readed from properties file it will use standard value 90 seconds. If the connection pool settings can not be
+     * readed it will use 5 connections and an idle timeout of 30 seconds, and requests wait until a connection is free
      */
     private void setConnectionProperties() {
 
@@ -179,7 +311,238 @@ public class Soap {
         } catch (NumberFormatException e) {
             this._timeout = 90 * 1000;
         }
+        try {
+            this._maxConnections = Integer.parseInt(properties.getProperty("MAX_CONNECTIONS"));
+        } catch (NumberFormatException e) {
+            this._maxConnections = 5;
+        }
+        try {
+            this._idleTimeout = Long.parseLong(properties.getProperty("CONNECTION_IDLE_TIMEOUT")) * 1000;
+        } catch (NumberFormatException e) {
+            this._idleTimeout = 30 * 1000;
+        }
+        try {
+            this._connectionWaitTimeout = Long.parseLong(properties.getProperty("CONNECTION_WAIT_TIMEOUT")) * 1000;
+        } catch (NumberFormatException e) {
+            this._connectionWaitTimeout = 0;
+        }
+
+    }
+
+    /**
+     * Set document properties from property file. If the temp file threshold can not be readed from properties file
+     * it will use standard value 64 MB. If the number of threads to prepare documents or to add the signatures can
+     * not be readed it will use the number of processors
+     */
+    private void setDocumentProperties() {
+        try {
+            this._tempFileThreshold = Long.parseLong(properties.getProperty("TEMP_FILE_THRESHOLD")) * 1024 * 1024;
+        } catch (NumberFormatException e) {
+            this._tempFileThreshold = 64 * 1024 * 1024;
+        }
+        int prepareThreads;
+        try {
+            prepareThreads = Integer.parseInt(properties.getProperty("PREPARE_THREADS"));
+        } catch (NumberFormatException e) {
+            prepareThreads = Runtime.getRuntime().availableProcessors();
+        }
+        _prepareWorkers = new DocumentWorkers("prepare", prepareThreads);
+        int embedThreads;
+        try {
+            embedThreads = Integer.parseInt(properties.getProperty("EMBED_THREADS"));
+        } catch (NumberFormatException e) {
+            embedThreads = Runtime.getRuntime().availableProcessors();
+        }
+        _embedWorkers = new DocumentWorkers("sign", embedThreads);
+    }
+
+    /**
+     * Set batch properties from property file. If a value can not be readed from properties file it will use the
+     * standard values: first chunk of 10 documents, at most 100 documents per chunk, 4 chunks in flight, 10 seconds
+     * per chunk, 256 MB memory budget and 1 further request for documents which were not signed
+     */
+    private void setBatchProperties() {
+        int chunkSize;
+        int maxChunkSize;
+        int concurrency;
+        long targetTime;
+        long memoryBudget;
+        try {
+            chunkSize = Integer.parseInt(properties.getProperty("BATCH_SIZE"));
+        } catch (NumberFormatException e) {
+            chunkSize = 10;
+        }
+        try {
+            maxChunkSize = Integer.parseInt(properties.getProperty("BATCH_SIZE_MAX"));
+        } catch (NumberFormatException e) {
+            maxChunkSize = 100;
+        }
+        try {
+            concurrency = Integer.parseInt(properties.getProperty("BATCH_CONCURRENCY"));
+        } catch (NumberFormatException e) {
+            concurrency = 4;
+        }
+        try {
+            targetTime = Long.parseLong(properties.getProperty("BATCH_TARGET_TIME")) * 1000;
+        } catch (NumberFormatException e) {
+            targetTime = 10 * 1000;
+        }
+        try {
+            memoryBudget = Long.parseLong(properties.getProperty("BATCH_MEMORY")) * 1024 * 1024;
+        } catch (NumberFormatException e) {
+            memoryBudget = 256 * 1024 * 1024;
+        }
+        try {
+            _batchRetries = Integer.parseInt(properties.getProperty("BATCH_RETRIES"));
+        } catch (NumberFormatException e) {
+            _batchRetries = 1;
+        }
+        _batchPlanner = new BatchPlanner(chunkSize, maxChunkSize, concurrency, targetTime, memoryBudget);
+    }
+
+    /**
+     * Set poll properties from property file. If the number of poll threads or the minimal polling interval can not be
+     * readed from properties file it will use 2 threads and 1000 milliseconds. Pending requests are only journaled if
+     * a journal directory is set
+     */
+    private void setPollProperties() {
+        int pollThreads;
+        try {
+            pollThreads = Integer.parseInt(properties.getProperty("POLL_THREADS"));
+        } catch (NumberFormatException e) {
+            pollThreads = 2;
+        }
+        long minInterval;
+        try {
+            minInterval = Long.parseLong(properties.getProperty("POLLING_INTERVAL_MIN"));
+        } catch (NumberFormatException e) {
+            minInterval = 1000;
+        }
+        _pollScheduler = new PollScheduler(pollThreads, minInterval);
+
+        String journalDir = properties.getProperty("PENDING_JOURNAL_DIR");
+        if (journalDir != null && journalDir.trim().length() > 0) {
+            _journal = new PendingJournal(new File(journalDir.trim()));
+        }
+    }
+
+    /**
+     * Set the stages of synchronous requests from property file. If a number of threads can not be readed from
+     * properties file it will use 1 thread to prepare, MAX_CONNECTIONS threads to send, 1 thread to embed the
+     * signatures and 2 threads to save the documents, with at most 2 chunks waiting in front of each stage. Preparing
+     * and embedding use the threads of PREPARE_THREADS and EMBED_THREADS for the documents of a chunk
+     */
+    private void setPipelineProperties() {
+        int prepareThreads;
+        int sendThreads;
+        int embedThreads;
+        int persistThreads;
+        int queueSize;
+        try {
+            prepareThreads = Integer.parseInt(properties.getProperty("PIPELINE_PREPARE"));
+        } catch (NumberFormatException e) {
+            prepareThreads = 1;
+        }
+        try {
+            sendThreads = Integer.parseInt(properties.getProperty("PIPELINE_SEND"));
+        } catch (NumberFormatException e) {
+            sendThreads = _maxConnections;
+        }
+        try {
+            embedThreads = Integer.parseInt(properties.getProperty("PIPELINE_EMBED"));
+        } catch (NumberFormatException e) {
+            embedThreads = 1;
+        }
+        try {
+            persistThreads = Integer.parseInt(properties.getProperty("PIPELINE_PERSIST"));
+        } catch (NumberFormatException e) {
+            persistThreads = 2;
+        }
+        try {
+            queueSize = Integer.parseInt(properties.getProperty("PIPELINE_QUEUE"));
+        } catch (NumberFormatException e) {
+            queueSize = 2;
+        }
+
+        _pipeline = new SigningPipeline<SyncChunk>(queueSize)
+                .addStage("prepare", prepareThreads, new SigningPipeline.Step<SyncChunk>() {
+                    public boolean process(@Nonnull SyncChunk chunk) throws Exception {
+                        prepareChunk(chunk);
+                        return true;
+                    }
+                })
+                .addStage("send", sendThreads, new SigningPipeline.Step<SyncChunk>() {
+                    public boolean process(@Nonnull SyncChunk chunk) throws Exception {
+                        return sendChunk(chunk);
+                    }
+                })
+                .addStage("embed", embedThreads, new SigningPipeline.Step<SyncChunk>() {
+                    public boolean process(@Nonnull SyncChunk chunk) throws Exception {
+                        return embedSignatures(chunk.pdfs, chunk.signatures, chunk.validation, chunk.estimatedSize);
+                    }
+                })
+                .addStage("persist", persistThreads, new SigningPipeline.Step<SyncChunk>() {
+                    public boolean process(@Nonnull SyncChunk chunk) throws Exception {
+                        persistSignatures(chunk.pdfs, chunk.signatures);
+                        return false;
+                    }
+                });
+    }
+
+    /**
+     * Get the stages of synchronous requests, e.g. to report their load
+     *
+     * @return Stages of synchronous requests
+     */
+    public SigningPipeline<?> getPipeline() {
+        return _pipeline;
+    }
 
+    /**
+     * Get the scheduler which polls the server for pending asynchronous requests
+     *
+     * @return Poll scheduler
+     */
+    public PollScheduler getPollScheduler() {
+        return _pollScheduler;
+    }
+
+    /**
+     * Get the planner which splits batches of documents into chunks
+     *
+     * @return Batch planner
+     */
+    public BatchPlanner getBatchPlanner() {
+        return _batchPlanner;
+    }
+
+    /**
+     * Stop the threads, close the connections and release the lock of the pending journal. The documents which are
+     * signed are completed first. Requests which are still pending fail and stay in the journal, so they can be resumed
+     * with the next start. Closing an instance which is closed already has no effect
+     *
+     * @throws IOException If the lock of the journal can not be released
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+
+        _pollScheduler.shutdown();
+        try {
+            _batchPlanner.shutdown();
+            _pipeline.shutdown();
+            _prepareWorkers.shutdown();
+            _embedWorkers.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        _transport.close();
+        if (_journal != null) {
+            _journal.close();
+        }
     }
 
     /**
@@ -202,19 +565,254 @@ public class Soap {
                      @Nullable int certificationLevel, @Nullable String distinguishedName, @Nullable String msisdn, 
                      @Nullable String msg, @Nullable String language, @Nullable String serialnumber)
             throws Exception {
+        DocumentOutcome outcome = sign(signatureType, new String[]{fileIn}, new String[]{fileOut}, signingReason,
+                signingLocation, signingContact, certificationLevel, distinguishedName, msisdn, msg, language, serialnumber)[0];
+        if (!outcome.isSigned()) {
+            throw outcome.getError() != null ? outcome.getError() : new Exception(outcome.getMessage());
+        }
+    }
+
+    /**
+     * Sign several documents. All documents get the same signature type and Adobe PDF settings. If more than one
+     * document is given the batch profile is used: the documents are split into chunks, the hashes of a chunk are sent
+     * to the server in one request and several chunks are in flight at the same time (see BatchPlanner). Documents
+     * with step-up authorization are sent in one request, the signer confirms all of them at once.
+     * <p/>
+     * The signatures of a response are matched to the documents by the id of the document hash. Documents which were
+     * signed are written at once, documents missing from a response which signed others are sent again in a new
+     * request (BATCH_RETRIES), as are all documents after an error of the server. A request which is rejected as a
+     * whole is not sent again. A document which could not be signed does not stop the others, its outcome tells why it
+     * failed.
+     *
+     * @param signatureType     Type of signature e.g. timestamp, ondemand or static
+     * @param filesIn           File paths of input pdf documents
+     * @param filesOut          File paths of output pdf documents, one for each input document
+     * @param signingReason     Reason for signing the documents
+     * @param signingLocation   Location where the documents were signed
+     * @param signingContact    Person who signed the documents
+     * @param distinguishedName Information about signer e.g. name, country etc.
+     * @param msisdn            Mobile id for sending message to signer
+     * @param msg               Message which will be send to signer if msisdn is set
+     * @param language          Language of message
+     * @return Outcome of each document in the order of the files
+     * @throws Exception If parameters are not set
+     */
+    public DocumentOutcome[] sign(@Nonnull Include.Signature signatureType, @Nonnull String[] filesIn, @Nonnull String[] filesOut,
+                     @Nullable String signingReason, @Nullable String signingLocation, @Nullable String signingContact,
+                     @Nullable int certificationLevel, @Nullable String distinguishedName, @Nullable String msisdn,
+                     @Nullable String msg, @Nullable String language, @Nullable String serialnumber)
+            throws Exception {
+        String[] signingReasons = new String[filesIn.length];
+        String[] signingLocations = new String[filesIn.length];
+        String[] signingContacts = new String[filesIn.length];
+        int[] certificationLevels = new int[filesIn.length];
+        Arrays.fill(signingReasons, signingReason);
+        Arrays.fill(signingLocations, signingLocation);
+        Arrays.fill(signingContacts, signingContact);
+        Arrays.fill(certificationLevels, certificationLevel);
+        return sign(signatureType, filesIn, filesOut, signingReasons, signingLocations, signingContacts,
+                certificationLevels, distinguishedName, msisdn, msg, language, serialnumber);
+    }
+
+    /**
+     * Sign several documents with their own Adobe PDF settings. The documents are sent in batches like above, the
+     * signature type and the signer are the same for all documents. Waits until the documents are signed, see
+     * signAsync
+     *
+     * @param signatureType       Type of signature e.g. timestamp, ondemand or static
+     * @param filesIn             File paths of input pdf documents
+     * @param filesOut            File paths of output pdf documents, one for each input document
+     * @param signingReasons      Reason for signing of each document, entries may be null
+     * @param signingLocations    Location where each document was signed, entries may be null
+     * @param signingContacts     Person who signed each document, entries may be null
+     * @param certificationLevels Certification level of each document, 0 for no certification
+     * @param distinguishedName   Information about signer e.g. name, country etc.
+     * @param msisdn              Mobile id for sending message to signer
+     * @param msg                 Message which will be send to signer if msisdn is set
+     * @param language            Language of message
+     * @return Outcome of each document in the order of the files
+     * @throws Exception If parameters are not set
+     */
+    public DocumentOutcome[] sign(@Nonnull Include.Signature signatureType, @Nonnull String[] filesIn, @Nonnull String[] filesOut,
+                     @Nonnull String[] signingReasons, @Nonnull String[] signingLocations, @Nonnull String[] signingContacts,
+                     @Nonnull int[] certificationLevels, @Nullable String distinguishedName, @Nullable String msisdn,
+                     @Nullable String msg, @Nullable String language, @Nullable String serialnumber)
+            throws Exception {
+        try {
+            return signAsync(signatureType, filesIn, filesOut, signingReasons, signingLocations, signingContacts,
+                    certificationLevels, distinguishedName, msisdn, msg, language, serialnumber).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Sign several documents with their own Adobe PDF settings without waiting for the declaration of will of a
+     * step-up. The calling thread prepares the documents and sends the request. Documents without step-up are signed
+     * when the method returns. With step-up the request is polled by the poll scheduler and the signatures are added
+     * by the workers which embed the signatures, no thread waits for the signer. The memory of the documents is
+     * reserved with the batch planner until the future is completed
+     *
+     * @param signatureType       Type of signature e.g. timestamp, ondemand or static
+     * @param filesIn             File paths of input pdf documents
+     * @param filesOut            File paths of output pdf documents, one for each input document
+     * @param signingReasons      Reason for signing of each document, entries may be null
+     * @param signingLocations    Location where each document was signed, entries may be null
+     * @param signingContacts     Person who signed each document, entries may be null
+     * @param certificationLevels Certification level of each document, 0 for no certification
+     * @param distinguishedName   Information about signer e.g. name, country etc.
+     * @param msisdn              Mobile id for sending message to signer
+     * @param msg                 Message which will be send to signer if msisdn is set
+     * @param language            Language of message
+     * @return Future which is completed with the outcome of each document in the order of the files when all
+     *         documents are done. A document which could not be signed does not fail the future, its outcome tells why
+     * @throws Exception If parameters are not set
+     */
+    public CompletableFuture<DocumentOutcome[]> signAsync(@Nonnull final Include.Signature signatureType, @Nonnull final String[] filesIn,
+                     @Nonnull final String[] filesOut, @Nonnull final String[] signingReasons, @Nonnull final String[] signingLocations,
+                     @Nonnull final String[] signingContacts, @Nonnull final int[] certificationLevels, @Nullable final String distinguishedName,
+                     @Nullable final String msisdn, @Nullable final String msg, @Nullable final String language,
+                     @Nullable final String serialnumber)
+            throws Exception {
+
+        if (filesIn.length == 0 || filesIn.length != filesOut.length) {
+            throw new Exception("Number of input files (" + filesIn.length + ") and output files (" + filesOut.length + ") do not match.");
+        }
+        if (signingReasons.length != filesIn.length || signingLocations.length != filesIn.length
+                || signingContacts.length != filesIn.length || certificationLevels.length != filesIn.length) {
+            throw new Exception("Number of input files (" + filesIn.length + ") and Adobe PDF settings do not match.");
+        }
 
     	// LATER throw a specific Exception and not the generic one
-        Include.HashAlgorithm hashAlgo = Include.HashAlgorithm.valueOf(properties.getProperty("DIGEST_METHOD").trim().toUpperCase());
+        final Include.HashAlgorithm hashAlgo = Include.HashAlgorithm.valueOf(properties.getProperty("DIGEST_METHOD").trim().toUpperCase());
 
-        String claimedIdentity = properties.getProperty("CUSTOMER");
         String claimedIdentityPropName = signatureType.equals(Include.Signature.ONDEMAND) ?
                 "KEY_ONDEMAND" : signatureType.equals(Include.Signature.STATIC) ? "KEY_STATIC" : null;
-        if (claimedIdentityPropName != null) {
-            claimedIdentity = claimedIdentity.concat(":" + properties.getProperty(claimedIdentityPropName));
+        final String claimedIdentity = claimedIdentityPropName != null ?
+                properties.getProperty("CUSTOMER").concat(":" + properties.getProperty(claimedIdentityPropName)) :
+                properties.getProperty("CUSTOMER");
+
+        final DocumentOutcome[] outcomes = new DocumentOutcome[filesIn.length];
+
+        // Chunks which wait for the declaration of will of a step-up, the other chunks are signed when sign returns
+        final List<CompletableFuture<Void>> signedChunks = Collections.synchronizedList(new ArrayList<CompletableFuture<Void>>());
+        BatchPlanner.ChunkSigner chunkSigner = new BatchPlanner.ChunkSigner() {
+            public void sign(int from, int to) {
+                List<Integer> indexes = new ArrayList<Integer>(to - from);
+                for (int i = from; i < to; i++) {
+                    indexes.add(i);
+                }
+
+                while (!indexes.isEmpty()) {
+                    PDF[] pdfs = new PDF[indexes.size()];
+                    for (int i = 0; i < pdfs.length; i++) {
+                        int index = indexes.get(i);
+                        pdfs[i] = new PDF(filesIn[index], filesOut[index], null, signingReasons[index],
+                                signingLocations[index], signingContacts[index], certificationLevels[index]);
+                        pdfs[i].setTempFileThreshold(_tempFileThreshold);
+                    }
+
+                    // Documents which were not sent because other documents of the chunk could not be prepared
+                    List<Integer> unsent = new ArrayList<Integer>();
+                    try {
+                        final PDF[] chunkPdfs = pdfs;
+                        signedChunks.add(signChunk(signatureType, pdfs, hashAlgo, claimedIdentity, distinguishedName,
+                                msisdn, msg, language, serialnumber).handle(new BiFunction<Void, Throwable, Void>() {
+                            public Void apply(Void result, Throwable error) {
+                                // The documents which were not signed failed with the error of the polling
+                                if (error != null) {
+                                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                                    for (PDF pdf : chunkPdfs) {
+                                        if (!pdf.getOutcome().isDone()) {
+                                            pdf.getOutcome().failed(cause instanceof Exception ? (Exception) cause : new Exception(cause));
+                                        }
+                                    }
+                                }
+                                return null;
+                            }
+                        }));
+                    } catch (Exception e) {
+                        // The documents which were not signed yet failed with the error of the request
+                        for (int i = 0; i < pdfs.length; i++) {
+                            if (!pdfs[i].getOutcome().isDone()) {
+                                pdfs[i].getOutcome().failed(e);
+                                if (pdfs[i].getOutcome().getAttempts() == 0) {
+                                    unsent.add(indexes.get(i));
+                                }
+                            }
+                        }
+                    }
+                    for (int i = 0; i < pdfs.length; i++) {
+                        outcomes[indexes.get(i)] = pdfs[i].getOutcome();
+                    }
+
+                    // Sign the other documents of the chunk without the documents which could not be prepared
+                    if (unsent.size() == indexes.size()) {
+                        break;
+                    }
+                    if (!unsent.isEmpty() && (_debugMode || _verboseMode)) {
+                        System.out.println("Signing " + unsent.size() + " documents without the documents which could not be prepared");
+                    }
+                    indexes = unsent;
+                }
+            }
+        };
+
+        // Memory of documents which are prepared on the heap: the parsed input document and the prepared document
+        long[] documentSizes = new long[filesIn.length];
+        long size = 0;
+        for (int i = 0; i < filesIn.length; i++) {
+            long length = new File(filesIn[i]).length();
+            documentSizes[i] = length > _tempFileThreshold ? 0 : 2 * length;
+            size += documentSizes[i];
         }
 
-        PDF pdf = new PDF(fileIn, fileOut, null, signingReason, signingLocation, signingContact, certificationLevel);
+        // A single document and a step-up are signed with one request, they use the memory budget of the planner too
+        if (filesIn.length == 1 || (msisdn != null && msg != null && language != null && signatureType.equals(Include.Signature.ONDEMAND))) {
+            final long reserved = size;
+            _batchPlanner.reserveMemory(reserved);
+            try {
+                chunkSigner.sign(0, filesIn.length);
+            } catch (RuntimeException e) {
+                _batchPlanner.releaseMemory(reserved);
+                throw e;
+            }
+            return CompletableFuture.allOf(signedChunks.toArray(new CompletableFuture<?>[signedChunks.size()]))
+                    .thenApply(new Function<Void, DocumentOutcome[]>() {
+                        public DocumentOutcome[] apply(Void result) {
+                            _batchPlanner.releaseMemory(reserved);
+                            return outcomes;
+                        }
+                    });
+        }
+
+        _batchPlanner.run(documentSizes, chunkSigner);
+        return CompletableFuture.completedFuture(outcomes);
+    }
+
+    /**
+     * Sign documents with one request. Depending on parameters here will be decided which type of signature will be
+     * used. The documents are closed when the returned future is completed. A request with step-up is completed when
+     * the signer approved it and the signatures were added, the other requests are completed when this method returns
+     *
+     * @param signatureType     Type of signature e.g. timestamp, ondemand or static
+     * @param pdfs              Pdf documents
+     * @param hashAlgo          Hash algorithm to use for signature
+     * @param claimedIdentity   Signers identity
+     * @param distinguishedName Information about signer e.g. name, country etc.
+     * @param msisdn            Mobile id for sending message to signer
+     * @param msg               Message which will be send to signer if msisdn is set
+     * @param language          Language of message
+     * @return Future which is completed when the documents are done, it fails if polling failed or the signatures
+     *         could not be added
+     * @throws Exception If parameters are not set or signing failed
+     */
+    private CompletableFuture<Void> signChunk(@Nonnull Include.Signature signatureType, @Nonnull final PDF[] pdfs,
+                           @Nonnull Include.HashAlgorithm hashAlgo, @Nonnull String claimedIdentity, @Nullable String distinguishedName,
+                           @Nullable String msisdn, @Nullable String msg, @Nullable String language, @Nullable String serialnumber)
+            throws Exception {
 
+        CompletableFuture<Void> signed;
         try {
             String requestId = getRequestId();
 
@@ -239,6 +837,7 @@ public class Soap {
                 // For PwdOTP, higher values should be configured in signpdf.properties
                 long pollingInterval = 18000;
                 int pollRetries = 10;
+                long pollTimeout = -1;
                 
                 // Read configuration
                 try {
@@ -249,6 +848,10 @@ public class Soap {
 	                if (properties.getProperty("POLL_RETRIES") != null) {
 	                	pollRetries = Integer.parseInt(properties.getProperty("POLL_RETRIES"));
 	                }
+
+	                if (properties.getProperty("POLL_TIMEOUT") != null) {
+	                	pollTimeout = Long.parseLong(properties.getProperty("POLL_TIMEOUT"));
+	                }
                 
                 } catch (NumberFormatException nfe) {
                 	if (_debugMode) {
@@ -256,9 +859,15 @@ public class Soap {
                 		System.out.println("Error message: " + nfe.getMessage());
                 	}
                 }
+
+                // The polling intervals are adapted, the polling stops at the timeout. Without timeout the polling
+                // takes as long as with the given number of retries
+                if (pollTimeout < 0) {
+                	pollTimeout = pollingInterval * pollRetries;
+                }
                            
-                signDocumentOnDemandCertStepUp(
-                		new PDF[]{pdf}, 
+                signed = signDocumentOnDemandCertStepUp(
+                		pdfs, 
                 		signingTime, 
                 		hashAlgo, 
                 		_url, 
@@ -270,45 +879,73 @@ public class Soap {
                 		serialnumber, 
                 		requestId,
                 		pollingInterval,
-                		pollRetries);
-            
-            } else if (signatureType.equals(Include.Signature.ONDEMAND)) {
-                
-            	// On-Demand signature WITHOUT step-up
-            	if (_debugMode) {
-                    System.out.println("Going to sign with ondemand");
-                }
-                Calendar signingTime = Calendar.getInstance();
-                // Add 3 Minutes to move signing time within the OnDemand Certificate Validity
-                // This is only relevant in case the signature does not include a timestamp
-                signingTime.add(Calendar.MINUTE, 3);
-                signDocumentOnDemandCert(new PDF[]{pdf}, hashAlgo, signingTime, _url, distinguishedName, claimedIdentity, requestId);
+                		pollTimeout);
             
-            } else if (signatureType.equals(Include.Signature.TIMESTAMP)) {
-            	
-            	// Timestamp only
-                if (_debugMode) {
-                    System.out.println("Going to sign only with timestamp");
+            } else {
+
+                // The other signatures are prepared, sent, embedded and saved by the stages, one chunk after the other
+                _pipeline.process(new SyncChunk(signatureType, pdfs, hashAlgo, claimedIdentity, distinguishedName, requestId));
+                signed = CompletableFuture.completedFuture(null);
+            }
+        
+        } catch (Exception e) {
+            for (PDF pdf : pdfs) {
+                pdf.close();
+            }
+            throw new Exception(e);
+        }
+
+        return signed.handle(new BiFunction<Void, Throwable, Void>() {
+            public Void apply(Void result, Throwable error) {
+                for (PDF pdf : pdfs) {
+                    pdf.close();
                 }
-                signDocumentTimestampOnly(new PDF[]{pdf}, hashAlgo, Calendar.getInstance(), _url, claimedIdentity,
-                        requestId);
-                
-            } else if (signatureType.equals(Include.Signature.STATIC)) {
-            	
-            	// Static signature
-                if (_debugMode) {
-                    System.out.println("Going to sign with static cert");
+                if (error != null) {
+                    throw new CompletionException(new Exception(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error));
                 }
-                signDocumentStaticCert(new PDF[]{pdf}, hashAlgo, Calendar.getInstance(), _url, claimedIdentity, requestId);
-                
-            } else {
-                throw new Exception("Wrong or missing parameters. Can not find a signature type.");
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Prepare the documents of a chunk and create the request. Depending on the signature type here will be decided
+     * which profiles the request has
+     *
+     * @param chunk Chunk of documents, the request is set to it
+     * @throws Exception If parameters are not set or the documents could not be prepared
+     */
+    private void prepareChunk(@Nonnull SyncChunk chunk) throws Exception {
+        if (chunk.signatureType.equals(Include.Signature.ONDEMAND)) {
+            
+        	// On-Demand signature WITHOUT step-up
+        	if (_debugMode) {
+                System.out.println("Going to sign with ondemand");
             }
+            Calendar signingTime = Calendar.getInstance();
+            // Add 3 Minutes to move signing time within the OnDemand Certificate Validity
+            // This is only relevant in case the signature does not include a timestamp
+            signingTime.add(Calendar.MINUTE, 3);
+            prepareOnDemandCert(chunk, signingTime, _url);
         
-        } catch (Exception e) {
-            throw new Exception(e);
-        } finally {
-            pdf.close();
+        } else if (chunk.signatureType.equals(Include.Signature.TIMESTAMP)) {
+        	
+        	// Timestamp only
+            if (_debugMode) {
+                System.out.println("Going to sign only with timestamp");
+            }
+            prepareTimestampOnly(chunk, Calendar.getInstance(), _url);
+            
+        } else if (chunk.signatureType.equals(Include.Signature.STATIC)) {
+        	
+        	// Static signature
+            if (_debugMode) {
+                System.out.println("Going to sign with static cert");
+            }
+            prepareStaticCert(chunk, Calendar.getInstance(), _url);
+            
+        } else {
+            throw new Exception("Wrong or missing parameters. Can not find a signature type.");
         }
     }
 
@@ -325,15 +962,17 @@ public class Soap {
      * @param certReqMsg        Message which the signer get on his phone
      * @param certReqMsgLang    Language of message
      * @param requestId         An id for the request
-     * @param pollingInterval	Interval between polling requests for asynchronous signing request.
+     * @param pollingInterval	Maximal interval between polling requests for asynchronous signing request.
+     * @param pollTimeout       Time in milliseconds after which the polling stops
+     * @return Future which is completed when the signatures were added or the request failed
      * @throws Exception If hash or request can not be generated or document can not be signed.
      */
-    private void signDocumentOnDemandCertStepUp(@Nonnull PDF pdfs[], @Nonnull Calendar signDate, @Nonnull Include.HashAlgorithm hashAlgo,
+    private CompletableFuture<Void> signDocumentOnDemandCertStepUp(@Nonnull PDF pdfs[], @Nonnull Calendar signDate, @Nonnull Include.HashAlgorithm hashAlgo,
                                                   @Nonnull String serverURI, @Nonnull String claimedIdentity,
                                                   @Nonnull String distinguishedName, @Nonnull String phoneNumber, @Nonnull String certReqMsg,
                                                   @Nonnull String certReqMsgLang, @Nonnull String certReqSerialNumber, String requestId,
                                                   @Nonnull long pollingInterval,
-                                                  @Nonnull int pollRetries) throws Exception {
+                                                  @Nonnull long pollTimeout) throws Exception {
         String[] additionalProfiles;
 
         
@@ -353,37 +992,30 @@ public class Soap {
         
         int estimatedSize = getEstimatedSize(false);
 
-        byte[][] pdfHash = new byte[pdfs.length][];
-        for (int i = 0; i < pdfs.length; i++) {
-            pdfHash[i] = pdfs[i].getPdfHash(signDate, estimatedSize, hashAlgo.getHashAlgorythm(), false);
-        }
+        byte[][] pdfHash = getPdfHashes(pdfs, signDate, estimatedSize, hashAlgo.getHashAlgorythm(), false);
 
-        SOAPMessage sigReqMsg = createRequestMessage(Include.RequestType.SignRequest, hashAlgo.getHashUri(), true,
+        SoapRequest sigReqMsg = createRequestMessage(Include.RequestType.SignRequest, hashAlgo.getHashUri(), true,
                 pdfHash, additionalProfiles,
                 claimedIdentity, Include.SignatureType.CMS.getSignatureType(), distinguishedName, phoneNumber,
                 certReqMsg, certReqMsgLang, certReqSerialNumber, null, requestId);
 
         // On-demand requests with step-up must be asynchronous
-        signDocumentAsync(sigReqMsg, serverURI, pdfs, claimedIdentity, pollingInterval, pollRetries, estimatedSize, "Base64Signature");
+        return signDocumentAsync(sigReqMsg, serverURI, pdfs, claimedIdentity, pollingInterval, pollTimeout, estimatedSize, SoapResponse.BASE64_SIGNATURE);
     }
     
     /**
-     * create SOAP request message and sign document with ondemand certificate but without mobile id
+     * create SOAP request message to sign documents with ondemand certificate but without mobile id
      *
-     * @param pdfs               Pdf input files
-     * @param hashAlgo           Hash algorithm to use for signature
+     * @param chunk              Chunk of documents with signer, the request is set to it
      * @param signDate           Date when document(s) will be signed
      * @param serverURI          Server uri where to send the request
-     * @param mobileIDStepUp     certificate request profile
-     * @param distinguishedName  Information about signer e.g. name, country etc.
-     * @param claimedIdentity    Signers identity
-     * @param requestId          An id for the request
-     * @throws Exception If hash or request can not be generated or document can not be signed.
+     * @throws Exception If hash or request can not be generated.
      */
-    private void signDocumentOnDemandCert(@Nonnull PDF[] pdfs, @Nonnull Include.HashAlgorithm hashAlgo, Calendar signDate, @Nonnull String serverURI,
-                                          @Nonnull String distinguishedName, @Nonnull String claimedIdentity, String requestId)
+    private void prepareOnDemandCert(@Nonnull SyncChunk chunk, Calendar signDate, @Nonnull String serverURI)
             throws Exception {
     	
+        PDF[] pdfs = chunk.pdfs;
+        Include.HashAlgorithm hashAlgo = chunk.hashAlgo;
         String[] additionalProfiles;
         if (pdfs.length > 1) {
             additionalProfiles = new String[2];
@@ -395,33 +1027,29 @@ public class Soap {
 
         int estimatedSize = getEstimatedSize(false);
 
-        byte[][] pdfHash = new byte[pdfs.length][];
-        for (int i = 0; i < pdfs.length; i++) {
-            pdfHash[i] = pdfs[i].getPdfHash(signDate, estimatedSize, hashAlgo.getHashAlgorythm(), false);
-        }
+        byte[][] pdfHash = getPdfHashes(pdfs, signDate, estimatedSize, hashAlgo.getHashAlgorythm(), false);
 
-        SOAPMessage sigReqMsg = createRequestMessage(Include.RequestType.SignRequest, hashAlgo.getHashUri(), true,
+        SoapRequest sigReqMsg = createRequestMessage(Include.RequestType.SignRequest, hashAlgo.getHashUri(), true,
                 pdfHash, additionalProfiles,
-                claimedIdentity, Include.SignatureType.CMS.getSignatureType(), distinguishedName, null, null, null, null, null, requestId);
+                chunk.claimedIdentity, Include.SignatureType.CMS.getSignatureType(), chunk.distinguishedName, null, null, null, null, null, chunk.requestId);
 
-        signDocumentSync(sigReqMsg, serverURI, pdfs, estimatedSize, "Base64Signature");
+        chunk.setRequest(sigReqMsg, serverURI, estimatedSize, SoapResponse.BASE64_SIGNATURE);
     }
 
     /**
-     * Create SOAP request message and sign document with static certificate
+     * Create SOAP request message to sign documents with static certificate
      *
-     * @param pdfs              Pdf input files
-     * @param hashAlgo          Hash algorithm to use for signature
+     * @param chunk             Chunk of documents with signer, the request is set to it
      * @param signDate          Date when document(s) will be signed
      * @param serverURI         Server uri where to send the request
-     * @param claimedIdentity   Signers identity
-     * @param requestId         An id for the request
-     * @throws Exception If hash or request can not be generated or document can not be signed.
+     * @throws Exception If hash or request can not be generated.
      */
-    private void signDocumentStaticCert(@Nonnull PDF[] pdfs, @Nonnull Include.HashAlgorithm hashAlgo, Calendar signDate, @Nonnull String serverURI,
-                                        @Nonnull String claimedIdentity, String requestId)
+    private void prepareStaticCert(@Nonnull SyncChunk chunk, Calendar signDate, @Nonnull String serverURI)
             throws Exception {
 
+        PDF[] pdfs = chunk.pdfs;
+        Include.HashAlgorithm hashAlgo = chunk.hashAlgo;
+
         String[] additionalProfiles = null;
         if (pdfs.length > 1) {
             additionalProfiles = new String[1];
@@ -430,33 +1058,29 @@ public class Soap {
 
         int estimatedSize = getEstimatedSize(false);
 
-        byte[][] pdfHash = new byte[pdfs.length][];
-        for (int i = 0; i < pdfs.length; i++) {
-            pdfHash[i] = pdfs[i].getPdfHash(signDate, estimatedSize, hashAlgo.getHashAlgorythm(), false);
-        }
+        byte[][] pdfHash = getPdfHashes(pdfs, signDate, estimatedSize, hashAlgo.getHashAlgorythm(), false);
 
-        SOAPMessage sigReqMsg = createRequestMessage(Include.RequestType.SignRequest, hashAlgo.getHashUri(), false,
+        SoapRequest sigReqMsg = createRequestMessage(Include.RequestType.SignRequest, hashAlgo.getHashUri(), false,
                 pdfHash, additionalProfiles,
-                claimedIdentity, Include.SignatureType.CMS.getSignatureType(), null, null, null, null, null, null, requestId);
+                chunk.claimedIdentity, Include.SignatureType.CMS.getSignatureType(), null, null, null, null, null, null, chunk.requestId);
 
-        signDocumentSync(sigReqMsg, serverURI, pdfs, estimatedSize, "Base64Signature");
+        chunk.setRequest(sigReqMsg, serverURI, estimatedSize, SoapResponse.BASE64_SIGNATURE);
     }
 
     /**
-     * Create SOAP request message and add a timestamp to pdf
+     * Create SOAP request message to add a timestamp to pdf
      *
-     * @param pdfs              Pdf input files
-     * @param hashAlgo          Hash algorithm to use for signature
+     * @param chunk             Chunk of documents, the request is set to it
      * @param signDate          Date when document(s) will be signed
      * @param serverURI         Server uri where to send the request
-     * @param claimedIdentity   Signers identity
-     * @param requestId         An id for the request
-     * @throws Exception If hash or request can not be generated or document can not be signed.
+     * @throws Exception If hash or request can not be generated.
      */
-    private void signDocumentTimestampOnly(@Nonnull PDF[] pdfs, @Nonnull Include.HashAlgorithm hashAlgo, Calendar signDate,
-                                           @Nonnull String serverURI, @Nonnull String claimedIdentity, String requestId)
+    private void prepareTimestampOnly(@Nonnull SyncChunk chunk, Calendar signDate, @Nonnull String serverURI)
             throws Exception {
 
+        PDF[] pdfs = chunk.pdfs;
+        Include.HashAlgorithm hashAlgo = chunk.hashAlgo;
+
         Include.SignatureType signatureType = Include.SignatureType.TIMESTAMP;
 
         String[] additionalProfiles;
@@ -470,67 +1094,141 @@ public class Soap {
 
         int estimatedSize = getEstimatedSize(true);
 
-        byte[][] pdfHash = new byte[pdfs.length][];
-        for (int i = 0; i < pdfs.length; i++) {
-            pdfHash[i] = pdfs[i].getPdfHash(signDate, estimatedSize, hashAlgo.getHashAlgorythm(), true);
-        }
+        byte[][] pdfHash = getPdfHashes(pdfs, signDate, estimatedSize, hashAlgo.getHashAlgorythm(), true);
 
-        SOAPMessage sigReqMsg = createRequestMessage(Include.RequestType.SignRequest, hashAlgo.getHashUri(), false,
-                pdfHash, additionalProfiles, claimedIdentity, signatureType.getSignatureType(),
-                null, null, null, null, null, null, requestId);
+        SoapRequest sigReqMsg = createRequestMessage(Include.RequestType.SignRequest, hashAlgo.getHashUri(), false,
+                pdfHash, additionalProfiles, chunk.claimedIdentity, signatureType.getSignatureType(),
+                null, null, null, null, null, null, chunk.requestId);
 
-        signDocumentSync(sigReqMsg, serverURI, pdfs, estimatedSize, "RFC3161TimeStampToken");
+        chunk.setRequest(sigReqMsg, serverURI, estimatedSize, SoapResponse.TIMESTAMP_TOKEN);
     }
 
     /**
-     * Send SOAP request to server and sign document if server send signature
+     * Prepare the documents for signing and create their hashes. The documents are prepared on several threads
      *
-     * @param sigReqMsg     SOAP request message which will be send to the server
-     * @param serverURI     Uri of server
-     * @param pdfs          Pdf input file
-     * @param estimatedSize Estimated size of external signature
-     * @param signNodeName  Name of node where to find the signature
-     * @throws Exception If hash can not be generated or document can not be signed.
+     * @param pdfs            Pdf input files
+     * @param signDate        Date when document(s) will be signed
+     * @param estimatedSize   Estimated size of external signature
+     * @param hashAlgorithm   Hash algorithm to use for signature
+     * @param isTimestampOnly If it is a timestamp signature
+     * @return Hashes in the order of the documents
+     * @throws Exception If one or more documents could not be prepared
      */
-    private void signDocumentSync(@Nonnull SOAPMessage sigReqMsg, @Nonnull String serverURI, @Nonnull PDF[] pdfs,
-                                  int estimatedSize, String signNodeName) throws Exception {
+    private byte[][] getPdfHashes(@Nonnull PDF[] pdfs, @Nonnull final Calendar signDate, final int estimatedSize,
+                                  @Nonnull final String hashAlgorithm, final boolean isTimestampOnly) throws Exception {
+        final byte[][] pdfHashes = new byte[pdfs.length][];
+        Exception[] errors = _prepareWorkers.runAll(pdfs, new DocumentWorkers.Task<Object>() {
+            public Object run(@Nonnull PDF pdf, int index) throws Exception {
+                // Calendar is not thread-safe, every document gets its own copy
+                pdfHashes[index] = pdf.getPdfHash((Calendar) signDate.clone(), estimatedSize, hashAlgorithm, isTimestampOnly);
+                return null;
+            }
+        });
 
-    	String sigResponse = sendRequest(sigReqMsg, serverURI);
-        ArrayList<String> responseResult = getTextFromXmlText(sigResponse, "ResultMajor");
-        boolean singingSuccess = sigResponse != null && responseResult != null && Include.RequestResult.Success.getResultUrn().equals(responseResult.get(0));
+        // A document which could not be prepared fails with its own error, the others fail with the error of the chunk
+        Exception firstError = null;
+        int failed = 0;
+        String errorMessage = "";
+        for (int i = 0; i < pdfs.length; i++) {
+            if (errors[i] != null) {
+                pdfs[i].getOutcome().failed(errors[i]);
+                failed++;
+                errorMessage = errorMessage.concat("\n  " + new File(pdfs[i].getInputFilePath()).getName() + ": "
+                        + pdfs[i].getOutcome().getMessage());
+                if (firstError == null) {
+                    firstError = errors[i];
+                }
+            }
+        }
+        if (firstError != null) {
+            throw new Exception("Could not prepare " + failed + " of " + pdfs.length + " documents:" + errorMessage, firstError);
+        }
+        return pdfHashes;
+    }
 
-        if (_debugMode || _verboseMode) {
-            //Getting pdf input file names for message output
-            String pdfNames = "";
-            for (int i = 0; i < pdfs.length; i++) {
-                pdfNames = pdfNames.concat(new File(pdfs[i].getInputFilePath()).getName());
-                if (pdfs.length > i + 1)
-                    pdfNames = pdfNames.concat(", ");
+    /**
+     * Send the SOAP request of a chunk to server and keep the signatures of the response. Documents without signature
+     * are sent again with a new request if the response signed other documents or the server had an error
+     * (ResponderError). A response which rejects the whole request, e.g. RequesterError, fails the documents at once
+     *
+     * @param chunk Chunk of prepared documents with the request
+     * @return True if the response contains signatures to embed
+     * @throws Exception If the request can not be sent or the revocation information can not be decoded
+     */
+    private boolean sendChunk(@Nonnull SyncChunk chunk) throws Exception {
+        SoapRequest sigReqMsg = chunk.request;
+        PDF[] pdfs = chunk.pdfs;
+        // Index of each document of the request in the chunk
+        int[] indexes = new int[pdfs.length];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+
+        boolean signed = false;
+        for (int attempt = 0; ; attempt++) {
+            for (PDF pdf : pdfs) {
+                pdf.getOutcome().attempt();
             }
 
-            if (!singingSuccess) {
-                System.out.print("FAILED to get successful AIS SigResponse for " + pdfNames);
-            } else {
-                System.out.print("SUCCEEDED to get AIS SigResponse for " + pdfNames);
+            SoapResponse sigResponse = sendRequest(sigReqMsg, chunk.serverURI);
+            boolean singingSuccess = sigResponse.isSuccess();
+
+            if (_debugMode || _verboseMode) {
+                //Getting pdf input file names for message output
+                String pdfNames = "";
+                for (int i = 0; i < pdfs.length; i++) {
+                    pdfNames = pdfNames.concat(new File(pdfs[i].getInputFilePath()).getName());
+                    if (pdfs.length > i + 1)
+                        pdfNames = pdfNames.concat(", ");
+                }
+
+                if (!singingSuccess) {
+                    System.out.print("FAILED to get successful AIS SigResponse for " + pdfNames);
+                } else {
+                    System.out.print("SUCCEEDED to get AIS SigResponse for " + pdfNames);
+                }
+
+                if (_verboseMode) {
+                    logSigningResponse(sigResponse);
+                }
+
+                System.out.println("");
             }
 
-            if (sigResponse != null && _verboseMode) {
-                logSigningResponse(sigResponse, responseResult);
+            // The signatures are embedded by the next stage, the documents without signature are sent again
+            String[] signatures = new String[pdfs.length];
+            ValidationInformation[] validation = new ValidationInformation[pdfs.length];
+            int[] unsigned = collectSignatures(sigResponse, chunk.signNodeName, pdfs, signatures, validation);
+            for (int i = 0; i < pdfs.length; i++) {
+                if (signatures[i] != null) {
+                    chunk.signatures[indexes[i]] = signatures[i];
+                    chunk.validation[indexes[i]] = validation[i];
+                    signed = true;
+                }
+            }
+            if (unsigned.length == 0 || attempt >= _batchRetries) {
+                return signed;
             }
 
-            System.out.println("");
-        }
+            // The same request would be rejected again, only missing documents and errors of the server are retried
+            if (unsigned.length == pdfs.length && !sigResponse.isResponderError()) {
+                return signed;
+            }
 
-        if (!singingSuccess) {
-            throw new Exception();
-        }
-        
-        // Retrieve the Revocation Information (OCSP/CRL validation information)
-        ArrayList<String> crl = getTextFromXmlText(sigResponse, "sc:CRL");
-        ArrayList<String> ocsp = getTextFromXmlText(sigResponse, "sc:OCSP");
+            if (_debugMode || _verboseMode) {
+                System.out.println("Sending " + unsigned.length + " of " + pdfs.length + " documents again which were not signed");
+            }
 
-        ArrayList<String> signHashes = getTextFromXmlText(sigResponse, signNodeName);
-        signDocuments(signHashes, ocsp, crl, pdfs, estimatedSize, signNodeName.equals("RFC3161TimeStampToken"));
+            PDF[] unsignedPdfs = new PDF[unsigned.length];
+            int[] unsignedIndexes = new int[unsigned.length];
+            for (int i = 0; i < unsigned.length; i++) {
+                unsignedPdfs[i] = pdfs[unsigned[i]];
+                unsignedIndexes[i] = indexes[unsigned[i]];
+            }
+            sigReqMsg = sigReqMsg.withDocuments(unsigned, getRequestId());
+            pdfs = unsignedPdfs;
+            indexes = unsignedIndexes;
+        }
     }
     
     /**
@@ -541,36 +1239,32 @@ public class Soap {
      * @param pdfs          Pdf input file
      * @param estimatedSize Estimated size of external signature
      * @param signNodeName  Name of node where to find the signature
+     * @return Future which is completed when the signatures were added or the request failed
      * @throws Exception If hash can not be generated or document can not be signed.
      */
-    private void signDocumentAsync(
-    		@Nonnull SOAPMessage sigReqMsg, 
+    private CompletableFuture<Void> signDocumentAsync(
+    		@Nonnull SoapRequest sigReqMsg, 
     		@Nonnull String serverURI, 
     		@Nonnull PDF[] pdfs,
     		@Nonnull String claimedIdentity,
     		@Nonnull long interval,
-    		@Nonnull int retries,
+    		@Nonnull long timeout,
             int estimatedSize, 
             String signNodeName) throws Exception {
 
-        String sigResponse = sendRequest(sigReqMsg, serverURI);
-        ArrayList<String> responseResult = getTextFromXmlText(sigResponse, "ResultMajor");
+        for (PDF pdf : pdfs) {
+            pdf.getOutcome().attempt();
+        }
+        SoapResponse sigResponse = sendRequest(sigReqMsg, serverURI);
         
         // The response to an asynchronous request is "pending"
-        boolean pending = sigResponse != null && responseResult != null && Include.RequestResult.Pending.getResultUrn().equals(responseResult.get(0));
+        boolean pending = sigResponse.isPending();
 
-        // Parse ResponseID and ConsentURL from the response (if available)
-        ArrayList<String> responseId_array = getTextFromXmlText(sigResponse, "async:ResponseID");
-        ArrayList<String> consentUrl_array = getTextFromXmlText(sigResponse, "sc:ConsentURL");
-        
-        String responseId = responseId_array.get(0);
-        
-        String consentUrl = null;
-        // Is there a consent URL available in the response? 
-        if (consentUrl_array != null && !consentUrl_array.isEmpty()) {
-        	consentUrl = consentUrl_array.get(0);
-        }
+        // ResponseID and ConsentURL from the response (if available)
+        String responseId = sigResponse.getResponseId();
+        String consentUrl = sigResponse.getConsentUrl();
 
+        CompletableFuture<Void> finished = CompletableFuture.completedFuture(null);
         String pdfNames = "";
         if (_debugMode || _verboseMode) {
 
@@ -591,67 +1285,211 @@ public class Soap {
         if (pending) {
             if (_debugMode || _verboseMode) {
                 System.out.println("Request for " + pdfNames + " pending with responseID: " + responseId);
-                System.out.println("Starting the polling with polling interval: " + interval + " milliseconds.");
+                System.out.println("Starting the polling with maximal polling interval: " + interval + " milliseconds.");
             }
 
             // Create polling request message
-            SOAPMessage pollReqMsg = createPendingMessage(RequestType.PendingRequest, claimedIdentity, responseId);
+            SoapRequest pollReqMsg = createPendingMessage(RequestType.PendingRequest, claimedIdentity, responseId);
+
+            // The prepared documents are kept in the journal, so the polling can be resumed after a restart
+            PendingJournal.Entry journalEntry = null;
+            if (_journal != null) {
+                journalEntry = appendToJournal(responseId, claimedIdentity, System.currentTimeMillis() + timeout,
+                        estimatedSize, signNodeName, pdfs);
+            }
 
             // Start the polling
-            poll(pollReqMsg, serverURI, responseId, interval, retries, pdfs, estimatedSize, signNodeName);
+            finished = poll(pollReqMsg, serverURI, responseId, interval, timeout, pdfs, estimatedSize, signNodeName, journalEntry);
         } else {
             System.out.print("FAILED to get successful AIS SigResponse for " + pdfNames);
+            for (PDF pdf : pdfs) {
+                pdf.getOutcome().failed(sigResponse.getResultMajor(), sigResponse.getResultMinor(), sigResponse.getResultMessage());
+            }
+        }
+
+        if (_verboseMode) {
+            logSigningResponse(sigResponse);
+        }
+        return finished;
+    }
+
+    /**
+     * Write the prepared documents of a pending request to the journal. If this fails the request goes on without
+     * journal
+     *
+     * @param responseId      Response id of the pending request
+     * @param claimedIdentity Signers identity
+     * @param deadline        Time in milliseconds since the epoch after which the polling stops
+     * @param estimatedSize   Estimated size of external signature
+     * @param signNodeName    Name of node where to find the signatures
+     * @param pdfs            Prepared pdf documents
+     * @return Entry of the journal or null if it could not be written
+     */
+    @Nullable
+    private PendingJournal.Entry appendToJournal(@Nonnull String responseId, @Nonnull String claimedIdentity, long deadline,
+                                                 int estimatedSize, @Nonnull String signNodeName, @Nonnull PDF[] pdfs) {
+        List<PendingJournal.Document> documents = new ArrayList<PendingJournal.Document>(pdfs.length);
+        try {
+            for (PDF pdf : pdfs) {
+                documents.add(pdf.persistPrepared(_journal.createPreparedFile()));
+            }
+            PendingJournal.Entry entry = new PendingJournal.Entry(responseId, claimedIdentity, deadline, estimatedSize,
+                    signNodeName, documents);
+            _journal.append(entry);
+            return entry;
+        } catch (IOException e) {
+            if (_debugMode || _verboseMode) {
+                System.out.println("Could not write pending request " + responseId + " to the journal: " + e.getMessage());
+            }
+            for (PendingJournal.Document document : documents) {
+                new File(document.preparedFilePath).delete();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Resume the asynchronous requests of the pending journal, e.g. after a restart of the application. The polling
+     * of all pending requests goes on until their deadline and the signatures are added to the documents which were
+     * prepared before. A request whose deadline has passed is polled once more. Does nothing if no journal is
+     * configured (PENDING_JOURNAL_DIR)
+     *
+     * @return Outcome of each document of the resumed requests
+     * @throws Exception If the journal can not be read
+     */
+    public DocumentOutcome[] resumePending() throws Exception {
+        if (_journal == null) {
+            return new DocumentOutcome[0];
+        }
+
+        long interval = 18000;
+        try {
+            interval = Long.parseLong(properties.getProperty("POLLING_INTERVAL"));
+        } catch (NumberFormatException e) {
+            // Default polling interval
+        }
+
+        // All requests are polled at the same time
+        List<PendingJournal.Entry> entries = _journal.load();
+        List<Future<SoapResponse>> results = new ArrayList<Future<SoapResponse>>(entries.size());
+        for (PendingJournal.Entry entry : entries) {
+            if (_debugMode || _verboseMode) {
+                System.out.println("Resuming pending request " + entry.responseId + " with " + entry.documents.size() + " documents");
+            }
+            SoapRequest pollReqMsg = createPendingMessage(RequestType.PendingRequest, entry.claimedIdentity, entry.responseId);
+            results.add(_pollScheduler.submit(pollReqMsg, entry.responseId, createPollSender(_url), interval,
+                    Math.max(0, entry.deadline - System.currentTimeMillis()), null));
         }
 
-        if (sigResponse != null && _verboseMode) {
-            logSigningResponse(sigResponse, responseResult);
+        List<DocumentOutcome> outcomes = new ArrayList<DocumentOutcome>();
+        for (int i = 0; i < entries.size(); i++) {
+            PendingJournal.Entry entry = entries.get(i);
+            PDF[] pdfs = new PDF[entry.documents.size()];
+            for (int j = 0; j < pdfs.length; j++) {
+                pdfs[j] = PDF.restore(entry.documents.get(j));
+                pdfs[j].getOutcome().attempt();
+                outcomes.add(pdfs[j].getOutcome());
+            }
+            try {
+                finishPoll(results.get(i), entry.deadline - System.currentTimeMillis(), pdfs, entry.estimatedSize,
+                        entry.signNodeName, entry);
+            } catch (Exception e) {
+                for (PDF pdf : pdfs) {
+                    if (!pdf.getOutcome().isDone()) {
+                        pdf.getOutcome().failed(e);
+                    }
+                }
+            } finally {
+                for (PDF pdf : pdfs) {
+                    pdf.close();
+                }
+            }
         }
+        return outcomes.toArray(new DocumentOutcome[outcomes.size()]);
     }
 
     /**
      * Poll the server until the asynchronous request does not return pending anymore.
      * @param pollReqMsg
      * @param serverURI
-     * @param interval: time between polling requests, in milliseconds.
-     * @throws Exception
+     * @param interval: maximal time between polling requests, in milliseconds.
+     * @param timeout: time after which the polling stops, in milliseconds.
+     * @param journalEntry: entry of the pending journal or null.
+     * @return Future which is completed when the signatures were added, see finishPoll
      */
-    private void poll(
-    		@Nonnull SOAPMessage pollReqMsg,
+    private CompletableFuture<Void> poll(
+    		@Nonnull SoapRequest pollReqMsg,
     		@Nonnull String serverURI,
     		@Nonnull String responseId,
     		@Nonnull long interval,
-    		@Nonnull int maxRetries,
-    		@Nonnull PDF[] pdfs,
-            int estimatedSize,
-            String signNodeName) throws Exception {
+    		@Nonnull final long timeout,
+    		@Nonnull final PDF[] pdfs,
+            final int estimatedSize,
+            final String signNodeName,
+            @Nullable final PendingJournal.Entry journalEntry) {
+
+    	// The poll requests are sent by the shared poll scheduler, no thread waits between them. Adding the
+    	// signatures writes the documents, this is handed over to the workers which embed the signatures
+    	final CompletableFuture<Void> finished = new CompletableFuture<Void>();
+    	_pollScheduler.submit(pollReqMsg, responseId, createPollSender(serverURI), interval, timeout,
+                new PollScheduler.Listener() {
+                    public void completed(@Nonnull final Future<SoapResponse> result) {
+                        try {
+                            _embedWorkers.execute(new Runnable() {
+                                public void run() {
+                                    try {
+                                        finishPoll(result, timeout, pdfs, estimatedSize, signNodeName, journalEntry);
+                                        finished.complete(null);
+                                    } catch (Exception e) {
+                                        finished.completeExceptionally(e);
+                                    }
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            finished.completeExceptionally(e);
+                        }
+                    }
+                });
+    	return finished;
+    }
 
-    	// Send poll request
-    	String sigResponse = sendRequest(pollReqMsg, serverURI);
-        ArrayList<String> responseResult = getTextFromXmlText(sigResponse, "ResultMajor");
-
-        boolean pending = (responseResult != null && Include.RequestResult.Pending.getResultUrn().equals(responseResult.get(0)));
-
-    	// Loop while response is pending and max number of retries wasn't reached
-    	int retries = 0;
-        while (pending && retries < maxRetries) {
-    		// Delay between polling requests: sleep during the given interval.
-    		TimeUnit.MILLISECONDS.sleep(interval);
-    		if (_debugMode) {
-    			System.out.println("Retry " + retries + " - Polling with RequestID " + responseId + "...");
-    		}
-    		sigResponse = sendRequest(pollReqMsg, serverURI);
-    		responseResult = getTextFromXmlText(sigResponse, "ResultMajor");
-    		pending = (responseResult != null && Include.RequestResult.Pending.getResultUrn().equals(responseResult.get(0)));
-    		retries++;
+    /**
+     * Wait until the polling of an asynchronous request is completed and add the signatures to the documents. The
+     * request is completed in the journal when the signatures were added or the response was not successful. If the
+     * polling failed or a signature could not be added the request stays in the journal, so resumePending can add the
+     * signatures again
+     *
+     * @param result        Result of the polling
+     * @param timeout       Time in milliseconds after which the polling stops
+     * @param pdfs          Pdf documents in the order of the request
+     * @param estimatedSize Estimated size of external signature
+     * @param signNodeName  Name of node where to find the signatures
+     * @param journalEntry  Entry of the pending journal or null
+     * @throws Exception If the polling failed or the signatures can not be added
+     */
+    private void finishPoll(
+            @Nonnull Future<SoapResponse> result,
+            long timeout,
+            @Nonnull PDF[] pdfs,
+            int estimatedSize,
+            String signNodeName,
+            @Nullable PendingJournal.Entry journalEntry) throws Exception {
+
+    	SoapResponse sigResponse;
+    	try {
+    		sigResponse = result.get();
+    	} catch (ExecutionException e) {
+    		throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
     	}
+        boolean pending = sigResponse.isPending();
 
-    	boolean signingSuccess = sigResponse != null && responseResult != null && Include.RequestResult.Success.getResultUrn().equals(responseResult.get(0));
+    	boolean signingSuccess = sigResponse.isSuccess();
 
     	if (_debugMode || _verboseMode) {
 
     		// Print a message if there was a timeout before completing the step-up
-            if (pending && retries == maxRetries) {
-            	System.out.println("Timeout - maximum number of retries (=" + maxRetries + ") was reached.");
+            if (pending) {
+            	System.out.println("Timeout - no approval within " + timeout + " milliseconds.");
             }
 
     		// Get PDF input file names for message output
@@ -668,109 +1506,175 @@ public class Soap {
                 System.out.print("SUCCEEDED to get AIS SigResponse for " + pdfNames);
             }
 
-            if (sigResponse != null && _verboseMode) {
-                logSigningResponse(sigResponse, responseResult);
+            if (_verboseMode) {
+                logSigningResponse(sigResponse);
             }
     	}
 
-        if (!signingSuccess) {
-            throw new Exception();
-        }
+        if (pending) {
+            for (PDF pdf : pdfs) {
+                pdf.getOutcome().failed(sigResponse.getResultMajor(), sigResponse.getResultMinor(),
+                        "Timeout - no approval within " + timeout + " milliseconds.");
+            }
+        } else {
+            // Documents without signature can not be sent again, this would need a new declaration of will
+            signDocuments(sigResponse, signNodeName, pdfs, estimatedSize);
 
-        // Retrieve the Revocation Information (OCSP/CRL validation information)
-        ArrayList<String> crl = getTextFromXmlText(sigResponse, "sc:CRL");
-        ArrayList<String> ocsp = getTextFromXmlText(sigResponse, "sc:OCSP");
+            // A document which failed locally, e.g. because the output file could not be written, keeps the request
+            for (PDF pdf : pdfs) {
+                if (pdf.getOutcome().getError() != null) {
+                    return;
+                }
+            }
+        }
 
-        ArrayList<String> signHashes = getTextFromXmlText(sigResponse, signNodeName);
-        signDocuments(signHashes, ocsp, crl, pdfs, estimatedSize, signNodeName.equals("RFC3161TimeStampToken"));
+        if (journalEntry != null) {
+            _journal.complete(journalEntry);
+        }
     }
 
     /**
-     * Add signature to pdf
+     * Add the signatures of a response to the documents. A signature is matched to a document by the id of the
+     * document hash, which is the index of the document in the request. Documents without signature are marked as
+     * failed with the result of the response, the outcome of the other documents is set when the signature was added
      *
-     * @param signHashes    Arraylist with Base64 encoded signatures
-     * @param ocsp          Arraylist with Base64 encoded ocsp responses
-     * @param crl           Arraylist with Base64 encoded crl responses
-     * @param pdfs          Pdf which will be signed
+     * @param sigResponse   Response with the signatures and the revocation information
+     * @param signNodeName  Name of node where to find the signatures
+     * @param pdfs          Pdf documents in the order of the request
      * @param estimatedSize Estimated size of external signature
-     * @throws Exception If adding signature to pdf failed.
+     * @return Indexes of the documents without signature in the response
+     * @throws Exception If the revocation information can not be decoded
      */
-    private void signDocuments(@Nonnull ArrayList<String> signHashes, ArrayList<String> ocsp, ArrayList<String> crl, @Nonnull PDF[] pdfs, int estimatedSize, boolean timestampOnly) throws Exception {
-        int counter = 0;
-        for (String signatureHash : signHashes) {
-        	
-			pdfs[counter].createSignedPdf(Base64.decode(signatureHash), estimatedSize);
-			
-			// if (timestampOnly) - Removed since we need to add the TS RI for CMS signatures as well
-				pdfs[counter].addValidationInformation(ocsp, crl);;
-				
-            counter++;
+    private int[] signDocuments(@Nonnull SoapResponse sigResponse, @Nonnull String signNodeName, @Nonnull PDF[] pdfs,
+                                int estimatedSize) throws Exception {
+        String[] signatures = new String[pdfs.length];
+        ValidationInformation[] validation = new ValidationInformation[pdfs.length];
+        int[] unsigned = collectSignatures(sigResponse, signNodeName, pdfs, signatures, validation);
+        if (embedSignatures(pdfs, signatures, validation, estimatedSize)) {
+            persistSignatures(pdfs, signatures);
         }
+        return unsigned;
     }
 
     /**
-     * Get text from a node from a xml text
+     * Get the signatures of a response for the documents. A signature is matched to a document by the id of the
+     * document hash, which is the index of the document in the request. Documents without signature are marked as
+     * failed with the result of the response
      *
-     * @param soapResponseText Text where to search
-     * @param nodeName         Name of the node which text should be returned
-     * @return If nodes with searched node names exist it will return an array list containing text from nodes
-     * @throws IOException                  If any IO errors occur
-     * @throws SAXException                 If any parse errors occur
-     * @throws ParserConfigurationException If a DocumentBuilder cannot be created which satisfies the configuration requested
+     * @param sigResponse  Response with the signatures and the revocation information
+     * @param signNodeName Name of node where to find the signatures
+     * @param pdfs         Pdf documents in the order of the request
+     * @param signatures   Base64 encoded signature of each document, set for the documents with signature
+     * @param validation   Revocation information of each document, set for the documents with signature
+     * @return Indexes of the documents without signature in the response
+     * @throws Exception If the revocation information can not be decoded
      */
-    @Nullable
-    private ArrayList<String> getTextFromXmlText(String soapResponseText, String nodeName) throws IOException, SAXException, ParserConfigurationException {
-        Element element = getNodeList(soapResponseText);
-
-        return getNodesFromNodeList(element, nodeName);
+    private int[] collectSignatures(@Nonnull SoapResponse sigResponse, @Nonnull String signNodeName, @Nonnull PDF[] pdfs,
+                                    @Nonnull String[] signatures, @Nonnull ValidationInformation[] validation) throws Exception {
+        Map<String, String> responseSignatures = sigResponse.getSignatures(signNodeName);
+
+        // The revocation information is decoded once and shared by all documents
+        ValidationInformation validationInformation = null;
+        int[] unsigned = new int[pdfs.length];
+        int unsignedCount = 0;
+        for (int i = 0; i < pdfs.length; i++) {
+            String signature = responseSignatures.get(String.valueOf(i));
+            if (signature != null) {
+                if (validationInformation == null) {
+                    validationInformation = ValidationInformation.decode(sigResponse.getOcsp(), sigResponse.getCrl());
+                }
+                signatures[i] = signature;
+                validation[i] = validationInformation;
+            } else {
+                pdfs[i].getOutcome().failed(sigResponse.getResultMajor(), sigResponse.getResultMinor(), sigResponse.getResultMessage());
+                unsigned[unsignedCount++] = i;
+            }
+        }
+        return Arrays.copyOf(unsigned, unsignedCount);
     }
 
     /**
-     * Get nodes text content
+     * Add the signatures to the temp files of the documents. The signatures are added on several threads. A document
+     * which fails is marked as failed and its signature is removed, so it is not saved
      *
-     * @param element
-     * @param nodeName
-     * @return if nodes with searched node names exist it will return an array list containing text from value from nodes
+     * @param pdfs          Pdf documents
+     * @param signatures    Base64 encoded signature of each document, null for documents without signature
+     * @param validation    Revocation information of each document
+     * @param estimatedSize Estimated size of external signature
+     * @return True if a signature was added
      */
-    @Nullable
-    private ArrayList<String> getNodesFromNodeList(@Nonnull Element element, @Nonnull String nodeName) {
-        ArrayList<String> returnlist = null;
-        NodeList nl = element.getElementsByTagName(nodeName);
-
-        for (int i = 0; i < nl.getLength(); i++) {
-            if (nodeName.equals(nl.item(i).getNodeName())) {
-                if (returnlist == null) {
-                    returnlist = new ArrayList<String>();
-                }
-                returnlist.add(nl.item(i).getTextContent());
+    private boolean embedSignatures(@Nonnull PDF[] pdfs, @Nonnull final String[] signatures,
+                                    @Nonnull final ValidationInformation[] validation, final int estimatedSize) {
+        List<PDF> signedPdfs = new ArrayList<PDF>(pdfs.length);
+        final List<Integer> signedIndexes = new ArrayList<Integer>(pdfs.length);
+        for (int i = 0; i < pdfs.length; i++) {
+            if (signatures[i] != null) {
+                signedPdfs.add(pdfs[i]);
+                signedIndexes.add(i);
             }
-
+        }
+        if (signedPdfs.isEmpty()) {
+            return false;
         }
 
-        return returnlist;
+        PDF[] documents = signedPdfs.toArray(new PDF[signedPdfs.size()]);
+        Exception[] errors = _embedWorkers.runAll(documents, new DocumentWorkers.Task<Object>() {
+            public Object run(@Nonnull PDF pdf, int index) throws Exception {
+                // The revocation information is added to timestamps and CMS signatures in the same pass as the signature
+                int i = signedIndexes.get(index);
+                pdf.embedSignature(Base64.decode(signatures[i]), estimatedSize, validation[i]);
+                return null;
+            }
+        });
+
+        boolean embedded = false;
+        for (int i = 0; i < documents.length; i++) {
+            if (errors[i] == null) {
+                embedded = true;
+            } else {
+                signatures[signedIndexes.get(i)] = null;
+                reportFailedSignature(documents[i], errors[i]);
+            }
+        }
+        return embedded;
     }
 
     /**
-     * Get a xml string as an xml element object
+     * Save the documents with the added signature to their output files and set their outcome
      *
-     * @param xmlString String to convert e.g. a server request or response
-     * @return org.w3c.dom.Element from XML String
-     * @throws ParserConfigurationException If a DocumentBuilder cannot be created which satisfies the configuration requested
-     * @throws IOException                  If any IO errors occur
-     * @throws SAXException                 If any parse errors occur
+     * @param pdfs       Pdf documents
+     * @param signatures Base64 encoded signature of each document, null for documents which are not saved
      */
-    private Element getNodeList(@Nonnull String xmlString) throws ParserConfigurationException, IOException, SAXException {
-
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        DocumentBuilder db = dbf.newDocumentBuilder();
-        ByteArrayInputStream bis = new ByteArrayInputStream(xmlString.getBytes());
-        Document doc = db.parse(bis);
+    private void persistSignatures(@Nonnull PDF[] pdfs, @Nonnull String[] signatures) {
+        for (int i = 0; i < pdfs.length; i++) {
+            if (signatures[i] == null) {
+                continue;
+            }
+            try {
+                pdfs[i].persist();
+                pdfs[i].getOutcome().signed();
+            } catch (Exception e) {
+                reportFailedSignature(pdfs[i], e);
+            }
+        }
+    }
 
-        return doc.getDocumentElement();
+    /**
+     * Mark a document as failed because its signature could not be added
+     *
+     * @param pdf   Pdf document
+     * @param error Error while adding the signature
+     */
+    private void reportFailedSignature(@Nonnull PDF pdf, @Nonnull Exception error) {
+        pdf.getOutcome().failed(error);
+        if (_debugMode || _verboseMode) {
+            System.out.println("FAILED to add the signature to " + new File(pdf.getInputFilePath()).getName()
+                    + ": " + pdf.getOutcome().getMessage());
+        }
     }
 
     /**
-     * Create SOAP message object for server request. Will print debug information if debug is set to true
+     * Create SOAP request for server. Will print debug information if debug is set to true
      *
      * @param reqType                  Type of request message e.g. singing or pending request
      * @param digestMethodAlgorithmURL Uri of hash algorithm
@@ -785,154 +1689,25 @@ public class Soap {
      * @param certReqMsgLang           Language from message which will be send to mobile id
      * @param responseId               Only necessary when asking the signing status on server
      * @param requestId                Request id to identify signature in response
-     * @return SOAP response from server. Depending on request profile it can be a signarure, signing status information or an error
-     * @throws SOAPException If there is an error creating SOAP message
-     * @throws IOException   If there is an error writing debug information
+     * @return SOAP request which is written directly to the connection
      */
-    private SOAPMessage createRequestMessage(@Nonnull Include.RequestType reqType, @Nonnull String digestMethodAlgorithmURL,
+    private SoapRequest createRequestMessage(@Nonnull Include.RequestType reqType, @Nonnull String digestMethodAlgorithmURL,
                                              boolean mobileIDStepUp, @Nonnull byte[][] hashList,
                                              String[] additionalProfiles, String claimedIdentity,
                                              @Nonnull String signatureType, String distinguishedName,
                                              String phoneNumber, String certReqMsg, String certReqMsgLang,
-                                             String certReqSerialNumber, String responseId, String requestId) throws SOAPException, IOException {
-
-        MessageFactory messageFactory = MessageFactory.newInstance();
-        SOAPMessage soapMessage = messageFactory.createMessage();
-        SOAPPart soapPart = soapMessage.getSOAPPart();
-
-        // SOAP Envelope
-        SOAPEnvelope envelope = soapPart.getEnvelope();
-        envelope.removeNamespaceDeclaration("SOAP-ENV");
-        envelope.setPrefix("soap");
-        envelope.addAttribute(new QName("xmlns"), "urn:oasis:names:tc:dss:1.0:core:schema");
-        envelope.addNamespaceDeclaration("dsig", "http://www.w3.org/2000/09/xmldsig#");
-        envelope.addNamespaceDeclaration("sc", "http://ais.swisscom.ch/1.0/schema");
-        envelope.addNamespaceDeclaration("ais", "http://service.ais.swisscom.com/");
-
-        //SOAP Header
-        SOAPHeader soapHeader = envelope.getHeader();
-        soapHeader.removeNamespaceDeclaration("SOAP-ENV");
-        soapHeader.setPrefix("soap");
-
-        // SOAP Body
-        SOAPBody soapBody = envelope.getBody();
-        soapBody.removeNamespaceDeclaration("SOAP-ENV");
-        soapBody.setPrefix("soap");
-
-        SOAPElement signElement = soapBody.addChildElement("sign", "ais");
-
-        SOAPElement requestElement = signElement.addChildElement(reqType.getRequestType());
-        requestElement.addAttribute(new QName("Profile"), reqType.getUrn());
-        requestElement.addAttribute(new QName("RequestID"), requestId);
-        SOAPElement inputDocumentsElement = requestElement.addChildElement("InputDocuments");
-
-        SOAPElement digestValueElement;
-        SOAPElement documentHashElement;
-        SOAPElement digestMethodElement;
-
-        for (int i = 0; i < hashList.length; i++) {
-            documentHashElement = inputDocumentsElement.addChildElement("DocumentHash");
-            if (hashList.length > 1)
-                documentHashElement.addAttribute(new QName("ID"), String.valueOf(i));
-            digestMethodElement = documentHashElement.addChildElement("DigestMethod", "dsig");
-            digestMethodElement.addAttribute(new QName("Algorithm"), digestMethodAlgorithmURL);
-            digestValueElement = documentHashElement.addChildElement("DigestValue", "dsig");
-
-            String s = com.itextpdf.text.pdf.codec.Base64.encodeBytes(hashList[i], Base64.DONT_BREAK_LINES);
-            digestValueElement.addTextNode(s);
-        }
-
-        if (additionalProfiles != null || claimedIdentity != null || signatureType != null) {
-            SOAPElement optionalInputsElement = requestElement.addChildElement("OptionalInputs");
-
-            SOAPElement additionalProfileelement;
-            if (additionalProfiles != null) {
-                for (String additionalProfile : additionalProfiles) {
-                    additionalProfileelement = optionalInputsElement.addChildElement("AdditionalProfile");
-                    additionalProfileelement.addTextNode(additionalProfile);
-                }
-            }
-
-            if (claimedIdentity != null) {
-                SOAPElement claimedIdentityElement = optionalInputsElement.addChildElement("ClaimedIdentity", "");
-                SOAPElement claimedIdNameElement = claimedIdentityElement.addChildElement("Name");
-                claimedIdNameElement.addTextNode(claimedIdentity);
-            }
-
-            if (mobileIDStepUp) {
-                SOAPElement certificateRequestElement = optionalInputsElement.addChildElement("CertificateRequest", "sc");
-                if (distinguishedName != null) {
-                    SOAPElement distinguishedNameElement = certificateRequestElement.addChildElement("DistinguishedName", "sc");
-                    distinguishedNameElement.addTextNode(distinguishedName);
-                    if (phoneNumber != null) {
-                        SOAPElement stepUpAuthorisationElement = certificateRequestElement.addChildElement("StepUpAuthorisation", "sc");
-                    	SOAPElement mobileIdElement = stepUpAuthorisationElement.addChildElement("Phone", "sc");
-                        SOAPElement msisdnElement = mobileIdElement.addChildElement("MSISDN", "sc");
-                        msisdnElement.addTextNode(phoneNumber);
-                        SOAPElement certReqMsgElement = mobileIdElement.addChildElement("Message", "sc");
-                        certReqMsgElement.addTextNode(certReqMsg);
-                        SOAPElement certReqMsgLangElement = mobileIdElement.addChildElement("Language", "sc");
-                        certReqMsgLangElement.addTextNode(certReqMsgLang);
-                        if (certReqSerialNumber != null) {
-                        	SOAPElement certReqMsgSerialNumberElement = mobileIdElement.addChildElement("SerialNumber", "sc");
-                        	certReqMsgSerialNumberElement.addTextNode(certReqSerialNumber);
-                        }
-                    }
-                }
-            }
-
-            if (signatureType != null) {
-                SOAPElement signatureTypeElement = optionalInputsElement.addChildElement("SignatureType");
-                signatureTypeElement.addTextNode(signatureType);
-            }
-
-            if (!signatureType.equals(_TIMESTAMP_URN)) {
-                SOAPElement addTimeStampelement = optionalInputsElement.addChildElement("AddTimestamp");
-                addTimeStampelement.addAttribute(new QName("Type"), _TIMESTAMP_URN);
-            }
-
-            // Set PADES as Signature Standard
-            // Signature standard only applies to CMS signatures
-            if (signatureType.equals(_CMS_URN)) {
-            	SOAPElement addSignatureStandardElement = optionalInputsElement.addChildElement("SignatureStandard", "sc");
-            	addSignatureStandardElement.setValue("PADES");
-            } 
-            
-            // Always add revocation information
-            SOAPElement addRevocationElement = optionalInputsElement.addChildElement("AddRevocationInformation", "sc");
-			
-            // Type="BOTH" means PADES+CADES
-            // PADES = signed attribute according to PAdES
-            // CADES = unsigned attribute according to CAdES
-            // PADES-attributes are signed and cannot be post-added to an already signed RFC3161-TimeStampToken
-            // So the RevocationInformation (RI) of a trusted timestamp will be delivered via OptionalOutputs
-         	// and they shall be added to the Adobe DSS in order to enable LTV for a Timestamp
-            
-            // For CMS signatures the revocation information type will match the signature standard (PADES)
-             
-            // Since for timestamping-only there is no signature standard, 
-            // the revocation type must be explicitely set
-            if (signatureType.equals(_TIMESTAMP_URN)) {
-            	addRevocationElement.addAttribute(new QName("Type"), "BOTH");
-            }
-
-            if (responseId != null) {
-                SOAPElement responseIdElement = optionalInputsElement.addChildElement("ResponseID");
-                responseIdElement.addTextNode(responseId);
-            }
-        }
+                                             String certReqSerialNumber, String responseId, String requestId) {
 
-        soapMessage.saveChanges();
+        SoapRequest soapRequest = SoapRequest.createSignRequest(reqType, digestMethodAlgorithmURL, mobileIDStepUp, hashList,
+                additionalProfiles, claimedIdentity, signatureType, distinguishedName, phoneNumber, certReqMsg,
+                certReqMsgLang, certReqSerialNumber, responseId, requestId);
 
         if (_debugMode) {
             System.out.print("\nRequest SOAP Message:\n");
-            ByteArrayOutputStream ba = new ByteArrayOutputStream();
-            soapMessage.writeTo(ba);
-            String msg = new String(ba.toByteArray());
-            System.out.println(getPrettyFormatedXml(msg, 2));
+            System.out.println(getPrettyFormatedXml(soapRequest.toString(), 2));
         }
 
-        return soapMessage;
+        return soapRequest;
     }
     
     /**
@@ -941,118 +1716,122 @@ public class Soap {
      * @param reqType
      * @param responseId
      * @return
-     * @throws SOAPException
-     * @throws IOException
      */
-    private SOAPMessage createPendingMessage(
+    private SoapRequest createPendingMessage(
     		@Nonnull Include.RequestType reqType, 
     		String claimedIdentity,
-    		String responseId) throws SOAPException, IOException {
-    	
-    	MessageFactory messageFactory = MessageFactory.newInstance();
-        SOAPMessage soapMessage = messageFactory.createMessage();
-        SOAPPart soapPart = soapMessage.getSOAPPart();
-
-        // SOAP Envelope
-        SOAPEnvelope envelope = soapPart.getEnvelope();
-        envelope.removeNamespaceDeclaration("SOAP-ENV");
-        envelope.setPrefix("soap");
-        envelope.addAttribute(new QName("xmlns"), "urn:oasis:names:tc:dss:1.0:core:schema");
-        envelope.addNamespaceDeclaration("dsig", "http://www.w3.org/2000/09/xmldsig#");
-        envelope.addNamespaceDeclaration("sc", "http://ais.swisscom.ch/1.0/schema");
-        envelope.addNamespaceDeclaration("ais", "http://service.ais.swisscom.com/");
-        
-        // Add async namespace
-        envelope.addNamespaceDeclaration("async", "urn:oasis:names:tc:dss:1.0:profiles:asynchronousprocessing:1.0");
-        
-        //SOAP Header
-        SOAPHeader soapHeader = envelope.getHeader();
-        soapHeader.removeNamespaceDeclaration("SOAP-ENV");
-        soapHeader.setPrefix("soap");
-
-        // SOAP Body
-        SOAPBody soapBody = envelope.getBody();
-        soapBody.removeNamespaceDeclaration("SOAP-ENV");
-        soapBody.setPrefix("soap");
+    		String responseId) {
 
-        SOAPElement pendingElement = soapBody.addChildElement("pending", "ais");
-        
-        SOAPElement requestElement = pendingElement.addChildElement(reqType.getRequestType(), "async");
-        requestElement.addAttribute(new QName("Profile"), reqType.getUrn());
-        
-        // Optional Inputs
-        SOAPElement optionalInputsElement = requestElement.addChildElement("OptionalInputs");
-
-        // Claimed Identity
-        if (claimedIdentity != null) {
-        	SOAPElement claimedIdentityElement = optionalInputsElement.addChildElement("ClaimedIdentity", "");
-        	SOAPElement claimedIdNameElement = claimedIdentityElement.addChildElement("Name");
-        	claimedIdNameElement.addTextNode(claimedIdentity);
-        }
-        
-        // async:ResponseID
-        SOAPElement responseIdElement = optionalInputsElement.addChildElement("ResponseID", "async");
-        responseIdElement.addTextNode(responseId);
-
-        soapMessage.saveChanges();
+        SoapRequest soapRequest = SoapRequest.createPendingRequest(reqType, claimedIdentity, responseId);
 
         if (_debugMode) {
             System.out.print("\nRequest SOAP Message:\n");
-            ByteArrayOutputStream ba = new ByteArrayOutputStream();
-            soapMessage.writeTo(ba);
-            String msg = new String(ba.toByteArray());
-            System.out.println(getPrettyFormatedXml(msg, 2));
+            System.out.println(getPrettyFormatedXml(soapRequest.toString(), 2));
         }
 
-        return soapMessage;
+        return soapRequest;
     }
 
     /**
-     * Creating connection object and send request to server. If debug is set to true it will print response message.
+     * Create a sender for the poll requests of the poll scheduler
      *
-     * @param soapMsg Message which will be send to server
-     * @param urlPath Url of server where to send the request
-     * @return Server response
-     * @throws Exception If creating connection ,sending request or reading response failed
+     * @param serverURI Url of server where to send the poll requests
+     * @return Sender which sends the poll requests with the transport without waiting for the response
      */
-    @Nullable
-    private String sendRequest(@Nonnull SOAPMessage soapMsg, @Nonnull String urlPath) throws Exception {
-
-        URLConnection conn = new Connect(urlPath, _privateKeyName, _serverCertPath, _clientCertPath, _timeout, _debugMode).getConnection();
-        if (conn instanceof HttpsURLConnection) {
-            ((HttpsURLConnection) conn).setRequestMethod("POST");
-        }
-        
-        conn.setAllowUserInteraction(true);
-        conn.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
-        conn.setDoOutput(true);
-
-        OutputStreamWriter out = new OutputStreamWriter(conn.getOutputStream());
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-        soapMsg.writeTo(baos);
-        String msg = baos.toString();
+    @Nonnull
+    private PollScheduler.Sender createPollSender(@Nonnull final String serverURI) {
+        return new PollScheduler.Sender() {
+            @Nonnull
+            public CompletableFuture<SoapResponse> send(@Nonnull SoapRequest pollRequest) {
+                return sendRequestAsync(pollRequest, serverURI);
+            }
+        };
+    }
 
-        out.write(msg);
-        out.flush();
-        if (out != null) {
-            out.close();
-        }
+    /**
+     * Send request to server with the transport without waiting for the response. The response is parsed on the
+     * thread which completes the request
+     *
+     * @param soapRequest Request which will be send to server
+     * @param urlPath     Url of server where to send the request
+     * @return Future which is completed with the server response or with the exception of the request
+     */
+    @Nonnull
+    private CompletableFuture<SoapResponse> sendRequestAsync(@Nonnull SoapRequest soapRequest, @Nonnull String urlPath) {
+        return _transport.sendAsync(urlPath, soapRequest, "text/xml; charset=utf-8")
+                .thenApply(new Function<InputStream, SoapResponse>() {
+                    @Override
+                    public SoapResponse apply(InputStream responseStream) {
+                        try {
+                            return readResponse(responseStream);
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        }
+                    }
+                });
+    }
 
-        String line = "";
-        BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+    /**
+     * Send request to server with the transport and parse the response. If debug is set to true it will print response message.
+     *
+     * @param soapRequest Request which will be send to server
+     * @param urlPath     Url of server where to send the request
+     * @return Server response
+     * @throws Transport.TransportException If sending request or reading response failed
+     * @throws Exception                    If the response can not be parsed
+     */
+    @Nonnull
+    private SoapResponse sendRequest(@Nonnull SoapRequest soapRequest, @Nonnull String urlPath) throws Exception {
 
-        String response = "";
-        while ((line = in.readLine()) != null) {
-            response = response.length() > 0 ? response + " " + line : response + line;
+        // The request is written directly to the connection, it is encoded in UTF-8
+        try {
+            return readResponse(_transport.send(urlPath, soapRequest, "text/xml; charset=utf-8"));
+        } catch (IOException e) {
+            throw new Transport.TransportException(e);
         }
+    }
 
-        if (in != null) {
-            in.close();
+    /**
+     * Parse the response of the server and close its stream. If debug is set to true it will print response message.
+     *
+     * @param responseStream Response body
+     * @return Server response
+     * @throws Exception If reading response failed
+     */
+    @Nonnull
+    private SoapResponse readResponse(@Nonnull InputStream responseStream) throws Exception {
+        SoapResponse response;
+        try {
+            if (_debugMode) {
+                // Keep the raw response for the output
+                ByteArrayOutputStream rawResponse = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = responseStream.read(buffer)) != -1) {
+                    rawResponse.write(buffer, 0, n);
+                }
+                System.out.println("\nSOAP response message:\n" + getPrettyFormatedXml(rawResponse.toString("UTF-8"), 2));
+                response = SoapResponse.parse(new ByteArrayInputStream(rawResponse.toByteArray()));
+            } else {
+                // The streams of the JDK fail if they are read again after the end, the parser may have reached it
+                InputStream body = new EndOfStreamInputStream(responseStream);
+                response = SoapResponse.parse(body);
+                // Read the rest of the response, so the connection can be reused
+                while (body.read() != -1) {
+                    ;
+                }
+            }
+        } finally {
+            responseStream.close();
         }
 
         if (_debugMode) {
-            System.out.println("\nSOAP response message:\n" + getPrettyFormatedXml(response, 2));
+            System.out.println("SSLContext built: " + Connect.getContextBuildCount() + ", reused: " + Connect.getContextReuseCount());
+            if (_transport instanceof ConnectionPool) {
+                ConnectionPool connectionPool = (ConnectionPool) _transport;
+                System.out.println("Connection pool hits: " + connectionPool.getHits() + ", misses: " + connectionPool.getMisses()
+                        + ", handshakes: " + connectionPool.getHandshakes());
+            }
         }
 
         return response;
@@ -1127,47 +1906,141 @@ public class Soap {
     /**
      * Dumps the signing response details to console
      * @param sigResponse
-     * @param responseResult
-     * @throws IOException
-     * @throws SAXException
-     * @throws ParserConfigurationException
      */
-    private void logSigningResponse(String sigResponse, ArrayList<String> responseResult) throws IOException, SAXException, ParserConfigurationException {
+    private void logSigningResponse(@Nonnull SoapResponse sigResponse) {
 
-        ArrayList<String> resultMinor = getTextFromXmlText(sigResponse, "ResultMinor");
-        ArrayList<String> errorMsg = getTextFromXmlText(sigResponse, "ResultMessage");
+        String resultMajor = sigResponse.getResultMajor();
+        String resultMinor = sigResponse.getResultMinor();
+        String errorMsg = sigResponse.getResultMessage();
 
-        if (responseResult != null || resultMinor != null || errorMsg != null) {
+        if (resultMajor != null || resultMinor != null || errorMsg != null) {
             System.out.println(" with following details:");
         }
 
-        if (responseResult != null) {
-            for (String s : responseResult) {
-                if (s.length() > 0) {
-                    System.out.println(" Result major: " + s);
-                }
-            }
+        if (resultMajor != null && resultMajor.length() > 0) {
+            System.out.println(" Result major: " + resultMajor);
         }
 
-        if (resultMinor != null) {
-            for (String s : resultMinor) {
-                if (s.length() > 0) {
-                    System.out.println(" Result minor: " + s);
-                }
-            }
+        if (resultMinor != null && resultMinor.length() > 0) {
+            System.out.println(" Result minor: " + resultMinor);
         }
 
-        if (errorMsg != null) {
-            for (String s : errorMsg) {
-                if (s.length() > 0) {
-                    System.out.println(" Result message: " + s);
-                }
-            }
+        if (errorMsg != null && errorMsg.length() > 0) {
+            System.out.println(" Result message: " + errorMsg);
         }
 
         // Newline
         System.out.println("");
     }
 
-}
 
+    /**
+     * Stream which keeps returning the end of the stream once it was reached. The response streams of the JDK, e.g. of
+     * HttpURLConnection and of the HTTP client, fail if they are read again after the end
+     */
+    private static class EndOfStreamInputStream extends FilterInputStream {
+
+        /**
+         * True if the end of the stream was reached
+         */
+        private boolean _end;
+
+        /**
+         * Constructor for this class
+         *
+         * @param in Response body
+         */
+        EndOfStreamInputStream(@Nonnull InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (_end) {
+                return -1;
+            }
+            int b = super.read();
+            _end = b == -1;
+            return b;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+            if (_end) {
+                return -1;
+            }
+            int n = super.read(b, off, len);
+            _end = n == -1;
+            return n;
+        }
+    }
+
+    /**
+     * Chunk of documents which is signed with one synchronous request. The stages fill in the request and the
+     * signatures
+     */
+    private static class SyncChunk {
+
+        final Include.Signature signatureType;
+        final PDF[] pdfs;
+        final Include.HashAlgorithm hashAlgo;
+        final String claimedIdentity;
+        final String distinguishedName;
+        final String requestId;
+
+        /**
+         * Request with the hashes of the documents, set when the documents are prepared
+         */
+        SoapRequest request;
+        String serverURI;
+        int estimatedSize;
+        String signNodeName;
+
+        /**
+         * Base64 encoded signature of each document, null for documents without signature
+         */
+        final String[] signatures;
+
+        /**
+         * Revocation information of the response of each document
+         */
+        final ValidationInformation[] validation;
+
+        /**
+         * Constructor for this class
+         *
+         * @param signatureType     Type of signature e.g. timestamp, ondemand or static
+         * @param pdfs              Pdf documents
+         * @param hashAlgo          Hash algorithm to use for signature
+         * @param claimedIdentity   Signers identity
+         * @param distinguishedName Information about signer e.g. name, country etc.
+         * @param requestId         An id for the request
+         */
+        SyncChunk(@Nonnull Include.Signature signatureType, @Nonnull PDF[] pdfs, @Nonnull Include.HashAlgorithm hashAlgo,
+                  @Nonnull String claimedIdentity, @Nullable String distinguishedName, @Nonnull String requestId) {
+            this.signatureType = signatureType;
+            this.pdfs = pdfs;
+            this.hashAlgo = hashAlgo;
+            this.claimedIdentity = claimedIdentity;
+            this.distinguishedName = distinguishedName;
+            this.requestId = requestId;
+            this.signatures = new String[pdfs.length];
+            this.validation = new ValidationInformation[pdfs.length];
+        }
+
+        /**
+         * Set the request of the prepared documents
+         *
+         * @param request       SOAP request message which will be send to the server
+         * @param serverURI     Uri of server
+         * @param estimatedSize Estimated size of external signature
+         * @param signNodeName  Name of node where to find the signatures
+         */
+        void setRequest(@Nonnull SoapRequest request, @Nonnull String serverURI, int estimatedSize, @Nonnull String signNodeName) {
+            this.request = request;
+            this.serverURI = serverURI;
+            this.estimatedSize = estimatedSize;
+            this.signNodeName = signNodeName;
+        }
+    }
+}
@@ -0,0 +1,541 @@
+/**
+ * Signing or pending request which is written directly to the connection
+ *
+ * Created:
+ * 17.10.26 KW42 15:20
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 15:20
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import com.itextpdf.text.pdf.codec.Base64;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SOAP request to the server. The envelope is written from constant parts, only the values of the request are
+ * escaped. Nothing is built in memory, so the time to write a request grows linearly with the number of documents.
+ * The output is the same as a SAAJ message with the same content, encoded in UTF-8
+ */
+public class SoapRequest implements Transport.RequestBody {
+
+    /**
+     * Encoding of the request
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Constant for timestamp urn
+     */
+    private static final String _TIMESTAMP_URN = "urn:ietf:rfc:3161";
+
+    /**
+     * Constant for CMS urn
+     */
+    private static final String _CMS_URN = "urn:ietf:rfc:3369";
+
+    /**
+     * Start of envelope of a signing request
+     */
+    private static final byte[] SIGN_ENVELOPE_START = bytes("<soap:Envelope"
+            + " xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\""
+            + " xmlns=\"urn:oasis:names:tc:dss:1.0:core:schema\""
+            + " xmlns:ais=\"http://service.ais.swisscom.com/\""
+            + " xmlns:dsig=\"http://www.w3.org/2000/09/xmldsig#\""
+            + " xmlns:sc=\"http://ais.swisscom.ch/1.0/schema\">"
+            + "<soap:Header/><soap:Body><ais:sign>");
+
+    /**
+     * Start of envelope of a pending request
+     */
+    private static final byte[] PENDING_ENVELOPE_START = bytes("<soap:Envelope"
+            + " xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\""
+            + " xmlns=\"urn:oasis:names:tc:dss:1.0:core:schema\""
+            + " xmlns:ais=\"http://service.ais.swisscom.com/\""
+            + " xmlns:async=\"urn:oasis:names:tc:dss:1.0:profiles:asynchronousprocessing:1.0\""
+            + " xmlns:dsig=\"http://www.w3.org/2000/09/xmldsig#\""
+            + " xmlns:sc=\"http://ais.swisscom.ch/1.0/schema\">"
+            + "<soap:Header/><soap:Body><ais:pending>");
+
+    private static final byte[] PROFILE = bytes(" Profile=\"");
+    private static final byte[] REQUEST_ID = bytes("\" RequestID=\"");
+    private static final byte[] INPUT_DOCUMENTS_START = bytes("\"><InputDocuments>");
+    private static final byte[] DOCUMENT_HASH_START = bytes("<DocumentHash>");
+    private static final byte[] DOCUMENT_HASH_ID = bytes("<DocumentHash ID=\"");
+    private static final byte[] DIGEST_METHOD = bytes("\"><dsig:DigestMethod Algorithm=\"");
+    private static final byte[] DIGEST_METHOD_NO_ID = bytes("<dsig:DigestMethod Algorithm=\"");
+    private static final byte[] DIGEST_VALUE = bytes("\"/><dsig:DigestValue>");
+    private static final byte[] DOCUMENT_HASH_END = bytes("</dsig:DigestValue></DocumentHash>");
+    private static final byte[] INPUT_DOCUMENTS_END = bytes("</InputDocuments><OptionalInputs>");
+    private static final byte[] ADDITIONAL_PROFILE_START = bytes("<AdditionalProfile>");
+    private static final byte[] ADDITIONAL_PROFILE_END = bytes("</AdditionalProfile>");
+    private static final byte[] CLAIMED_IDENTITY_START = bytes("<ClaimedIdentity><Name>");
+    private static final byte[] CLAIMED_IDENTITY_END = bytes("</Name></ClaimedIdentity>");
+    private static final byte[] CERTIFICATE_REQUEST_START = bytes("<sc:CertificateRequest>");
+    private static final byte[] CERTIFICATE_REQUEST_EMPTY = bytes("<sc:CertificateRequest/>");
+    private static final byte[] CERTIFICATE_REQUEST_END = bytes("</sc:CertificateRequest>");
+    private static final byte[] DISTINGUISHED_NAME_START = bytes("<sc:DistinguishedName>");
+    private static final byte[] DISTINGUISHED_NAME_END = bytes("</sc:DistinguishedName>");
+    private static final byte[] MSISDN_START = bytes("<sc:StepUpAuthorisation><sc:Phone><sc:MSISDN>");
+    private static final byte[] MESSAGE_START = bytes("</sc:MSISDN><sc:Message>");
+    private static final byte[] LANGUAGE_START = bytes("</sc:Message><sc:Language>");
+    private static final byte[] LANGUAGE_END = bytes("</sc:Language>");
+    private static final byte[] SERIAL_NUMBER_START = bytes("<sc:SerialNumber>");
+    private static final byte[] SERIAL_NUMBER_END = bytes("</sc:SerialNumber>");
+    private static final byte[] STEP_UP_END = bytes("</sc:Phone></sc:StepUpAuthorisation>");
+    private static final byte[] SIGNATURE_TYPE_START = bytes("<SignatureType>");
+    private static final byte[] SIGNATURE_TYPE_END = bytes("</SignatureType>");
+    private static final byte[] ADD_TIMESTAMP = bytes("<AddTimestamp Type=\"" + _TIMESTAMP_URN + "\"/>");
+    private static final byte[] SIGNATURE_STANDARD = bytes("<sc:SignatureStandard>PADES</sc:SignatureStandard>");
+    private static final byte[] ADD_REVOCATION = bytes("<sc:AddRevocationInformation/>");
+    private static final byte[] ADD_REVOCATION_BOTH = bytes("<sc:AddRevocationInformation Type=\"BOTH\"/>");
+    private static final byte[] RESPONSE_ID_START = bytes("<ResponseID>");
+    private static final byte[] RESPONSE_ID_END = bytes("</ResponseID>");
+    private static final byte[] ASYNC_RESPONSE_ID_START = bytes("<async:ResponseID>");
+    private static final byte[] ASYNC_RESPONSE_ID_END = bytes("</async:ResponseID>");
+    private static final byte[] OPTIONAL_INPUTS_START = bytes("\"><OptionalInputs>");
+    private static final byte[] OPTIONAL_INPUTS_END = bytes("</OptionalInputs></");
+    private static final byte[] SIGN_ENVELOPE_END = bytes("></ais:sign></soap:Body></soap:Envelope>");
+    private static final byte[] PENDING_ENVELOPE_END = bytes("></ais:pending></soap:Body></soap:Envelope>");
+
+    /**
+     * True for a pending request, false for a signing request
+     */
+    private boolean pending;
+
+    /**
+     * Type of request
+     */
+    private Include.RequestType reqType;
+
+    /**
+     * Uri of hash algorithm
+     */
+    private String digestMethodAlgorithmURL;
+
+    /**
+     * True if a certificate request is added
+     */
+    private boolean mobileIDStepUp;
+
+    /**
+     * Hashes of the documents
+     */
+    private byte[][] hashList;
+
+    /**
+     * Urn of additional profiles
+     */
+    private String[] additionalProfiles;
+
+    /**
+     * Signers identity
+     */
+    private String claimedIdentity;
+
+    /**
+     * Urn of signature type
+     */
+    private String signatureType;
+
+    /**
+     * Information about signer
+     */
+    private String distinguishedName;
+
+    /**
+     * Phone number for step-up
+     */
+    private String phoneNumber;
+
+    /**
+     * Message for step-up
+     */
+    private String certReqMsg;
+
+    /**
+     * Language of step-up message
+     */
+    private String certReqMsgLang;
+
+    /**
+     * Serial number of the signer for step-up
+     */
+    private String certReqSerialNumber;
+
+    /**
+     * Response id of an asynchronous request
+     */
+    private String responseId;
+
+    /**
+     * Request id to identify signature in response
+     */
+    private String requestId;
+
+    /**
+     * Use the create methods to create a request
+     */
+    private SoapRequest() {
+    }
+
+    /**
+     * Create a signing request
+     *
+     * @param reqType                  Type of request message e.g. singing or pending request
+     * @param digestMethodAlgorithmURL Uri of hash algorithm
+     * @param mobileIDStepUp           certificate request profile. Only necessary when on demand certificate is needed
+     * @param hashList                 Hashes from documents which should be signed
+     * @param additionalProfiles       Urn of additional profiles e.g. ondemand certificate, timestamp signature, batch process etc.
+     * @param claimedIdentity          Signers identity / profile
+     * @param signatureType            Urn of signature type e.g. signature type cms or timestamp
+     * @param distinguishedName        Information about signer e.g. name, country etc.
+     * @param phoneNumber              Mobile id for on demand certificates with mobile id request
+     * @param certReqMsg               Message which will be send to phone number if set
+     * @param certReqMsgLang           Language from message which will be send to mobile id
+     * @param certReqSerialNumber      Serial number of the signer which must match for the step-up
+     * @param responseId               Only necessary when asking the signing status on server
+     * @param requestId                Request id to identify signature in response
+     * @return Signing request
+     */
+    @Nonnull
+    public static SoapRequest createSignRequest(@Nonnull Include.RequestType reqType, @Nonnull String digestMethodAlgorithmURL,
+                                                boolean mobileIDStepUp, @Nonnull byte[][] hashList,
+                                                @Nullable String[] additionalProfiles, @Nullable String claimedIdentity,
+                                                @Nonnull String signatureType, @Nullable String distinguishedName,
+                                                @Nullable String phoneNumber, @Nullable String certReqMsg,
+                                                @Nullable String certReqMsgLang, @Nullable String certReqSerialNumber,
+                                                @Nullable String responseId, @Nullable String requestId) {
+        SoapRequest request = new SoapRequest();
+        request.reqType = reqType;
+        request.digestMethodAlgorithmURL = digestMethodAlgorithmURL;
+        request.mobileIDStepUp = mobileIDStepUp;
+        request.hashList = hashList;
+        request.additionalProfiles = additionalProfiles;
+        request.claimedIdentity = claimedIdentity;
+        request.signatureType = signatureType;
+        request.distinguishedName = distinguishedName;
+        request.phoneNumber = phoneNumber;
+        request.certReqMsg = certReqMsg;
+        request.certReqMsgLang = certReqMsgLang;
+        request.certReqSerialNumber = certReqSerialNumber;
+        request.responseId = responseId;
+        request.requestId = requestId;
+        return request;
+    }
+
+    /**
+     * Create a polling request for an asynchronous signing request
+     *
+     * @param reqType         Type of request message
+     * @param claimedIdentity Signers identity / profile
+     * @param responseId      Response id of the asynchronous signing request
+     * @return Pending request
+     */
+    @Nonnull
+    public static SoapRequest createPendingRequest(@Nonnull Include.RequestType reqType, @Nullable String claimedIdentity,
+                                                   @Nullable String responseId) {
+        SoapRequest request = new SoapRequest();
+        request.pending = true;
+        request.reqType = reqType;
+        request.claimedIdentity = claimedIdentity;
+        request.responseId = responseId;
+        return request;
+    }
+
+    /**
+     * Create a signing request for some of the documents of this request, e.g. to send the documents again which were
+     * not signed. The documents get new ids in the order of the indexes. The batch profile is removed if only one
+     * document is left
+     *
+     * @param indexes   Indexes of the documents in this request
+     * @param requestId Request id of the new request
+     * @return Signing request with the hashes of the documents
+     */
+    @Nonnull
+    public SoapRequest withDocuments(@Nonnull int[] indexes, @Nullable String requestId) {
+        byte[][] hashes = new byte[indexes.length][];
+        for (int i = 0; i < indexes.length; i++) {
+            hashes[i] = hashList[indexes[i]];
+        }
+
+        String[] profiles = additionalProfiles;
+        if (profiles != null && indexes.length == 1) {
+            List<String> remaining = new ArrayList<String>();
+            for (String profile : profiles) {
+                if (!Include.AdditionalProfiles.BATCH.getProfileName().equals(profile)) {
+                    remaining.add(profile);
+                }
+            }
+            profiles = remaining.isEmpty() ? null : remaining.toArray(new String[remaining.size()]);
+        }
+
+        return createSignRequest(reqType, digestMethodAlgorithmURL, mobileIDStepUp, hashes, profiles, claimedIdentity,
+                signatureType, distinguishedName, phoneNumber, certReqMsg, certReqMsgLang, certReqSerialNumber,
+                responseId, requestId);
+    }
+
+    @Override
+    public void writeTo(@Nonnull OutputStream out) throws IOException {
+        if (pending) {
+            writePendingRequest(out);
+        } else {
+            writeSignRequest(out);
+        }
+    }
+
+    /**
+     * Write a signing request
+     *
+     * @param out Stream where to write the request
+     * @throws IOException If writing failed
+     */
+    private void writeSignRequest(@Nonnull OutputStream out) throws IOException {
+
+        byte[] requestType = bytes(reqType.getRequestType());
+
+        out.write(SIGN_ENVELOPE_START);
+        out.write('<');
+        out.write(requestType);
+        out.write(PROFILE);
+        writeValue(out, reqType.getUrn(), true);
+        out.write(REQUEST_ID);
+        writeValue(out, requestId, true);
+        out.write(INPUT_DOCUMENTS_START);
+
+        // The algorithm is the same for all documents
+        byte[] algorithm = escape(digestMethodAlgorithmURL, true);
+        for (int i = 0; i < hashList.length; i++) {
+            if (hashList.length > 1) {
+                out.write(DOCUMENT_HASH_ID);
+                out.write(bytes(String.valueOf(i)));
+                out.write(DIGEST_METHOD);
+            } else {
+                out.write(DOCUMENT_HASH_START);
+                out.write(DIGEST_METHOD_NO_ID);
+            }
+            out.write(algorithm);
+            out.write(DIGEST_VALUE);
+            out.write(bytes(Base64.encodeBytes(hashList[i], Base64.DONT_BREAK_LINES)));
+            out.write(DOCUMENT_HASH_END);
+        }
+
+        out.write(INPUT_DOCUMENTS_END);
+
+        if (additionalProfiles != null) {
+            for (String additionalProfile : additionalProfiles) {
+                out.write(ADDITIONAL_PROFILE_START);
+                writeValue(out, additionalProfile, false);
+                out.write(ADDITIONAL_PROFILE_END);
+            }
+        }
+
+        if (claimedIdentity != null) {
+            out.write(CLAIMED_IDENTITY_START);
+            writeValue(out, claimedIdentity, false);
+            out.write(CLAIMED_IDENTITY_END);
+        }
+
+        if (mobileIDStepUp) {
+            if (distinguishedName == null) {
+                out.write(CERTIFICATE_REQUEST_EMPTY);
+            } else {
+                out.write(CERTIFICATE_REQUEST_START);
+                out.write(DISTINGUISHED_NAME_START);
+                writeValue(out, distinguishedName, false);
+                out.write(DISTINGUISHED_NAME_END);
+                if (phoneNumber != null) {
+                    out.write(MSISDN_START);
+                    writeValue(out, phoneNumber, false);
+                    out.write(MESSAGE_START);
+                    writeValue(out, certReqMsg, false);
+                    out.write(LANGUAGE_START);
+                    writeValue(out, certReqMsgLang, false);
+                    out.write(LANGUAGE_END);
+                    if (certReqSerialNumber != null) {
+                        out.write(SERIAL_NUMBER_START);
+                        writeValue(out, certReqSerialNumber, false);
+                        out.write(SERIAL_NUMBER_END);
+                    }
+                    out.write(STEP_UP_END);
+                }
+                out.write(CERTIFICATE_REQUEST_END);
+            }
+        }
+
+        out.write(SIGNATURE_TYPE_START);
+        writeValue(out, signatureType, false);
+        out.write(SIGNATURE_TYPE_END);
+
+        if (!signatureType.equals(_TIMESTAMP_URN)) {
+            out.write(ADD_TIMESTAMP);
+        }
+
+        // Signature standard only applies to CMS signatures
+        if (signatureType.equals(_CMS_URN)) {
+            out.write(SIGNATURE_STANDARD);
+        }
+
+        // Always add revocation information. For timestamping-only there is no signature standard, so the
+        // revocation type must be explicitly set (PADES+CADES)
+        out.write(signatureType.equals(_TIMESTAMP_URN) ? ADD_REVOCATION_BOTH : ADD_REVOCATION);
+
+        if (responseId != null) {
+            out.write(RESPONSE_ID_START);
+            writeValue(out, responseId, false);
+            out.write(RESPONSE_ID_END);
+        }
+
+        out.write(OPTIONAL_INPUTS_END);
+        out.write(requestType);
+        out.write(SIGN_ENVELOPE_END);
+    }
+
+    /**
+     * Write a pending request
+     *
+     * @param out Stream where to write the request
+     * @throws IOException If writing failed
+     */
+    private void writePendingRequest(@Nonnull OutputStream out) throws IOException {
+
+        byte[] requestType = bytes("async:" + reqType.getRequestType());
+
+        out.write(PENDING_ENVELOPE_START);
+        out.write('<');
+        out.write(requestType);
+        out.write(PROFILE);
+        writeValue(out, reqType.getUrn(), true);
+        out.write(OPTIONAL_INPUTS_START);
+
+        if (claimedIdentity != null) {
+            out.write(CLAIMED_IDENTITY_START);
+            writeValue(out, claimedIdentity, false);
+            out.write(CLAIMED_IDENTITY_END);
+        }
+
+        out.write(ASYNC_RESPONSE_ID_START);
+        writeValue(out, responseId, false);
+        out.write(ASYNC_RESPONSE_ID_END);
+
+        out.write(OPTIONAL_INPUTS_END);
+        out.write(requestType);
+        out.write(PENDING_ENVELOPE_END);
+    }
+
+    /**
+     * Get the request as string, e.g. for debug output
+     *
+     * @return Request as it is sent to the server
+     */
+    @Override
+    public String toString() {
+        ByteArrayOutputStream ba = new ByteArrayOutputStream();
+        try {
+            writeTo(ba);
+        } catch (IOException e) {
+            // Can not happen with a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return new String(ba.toByteArray(), UTF_8);
+    }
+
+    /**
+     * Write escaped value. A missing value is written as empty value
+     *
+     * @param out       Stream where to write the value
+     * @param value     Value of element or attribute
+     * @param attribute True if value is an attribute value
+     * @throws IOException If writing failed
+     */
+    private static void writeValue(@Nonnull OutputStream out, @Nullable String value, boolean attribute) throws IOException {
+        if (value != null) {
+            out.write(escape(value, attribute));
+        }
+    }
+
+    /**
+     * Escape value for XML and encode it in UTF-8. Text is escaped like SAAJ does: &amp;, &lt;, &gt; and carriage
+     * return in text, in addition quotes, tabs and line feeds in attribute values
+     *
+     * @param value     Value of element or attribute
+     * @param attribute True if value is an attribute value
+     * @return Escaped value encoded in UTF-8
+     */
+    @Nonnull
+    private static byte[] escape(@Nonnull String value, boolean attribute) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '\r':
+                    replacement = "&#13;";
+                    break;
+                case '"':
+                    replacement = attribute ? "&quot;" : null;
+                    break;
+                case '\t':
+                    replacement = attribute ? "&#9;" : null;
+                    break;
+                case '\n':
+                    replacement = attribute ? "&#10;" : null;
+                    break;
+                default:
+                    replacement = null;
+            }
+
+            if (replacement != null) {
+                if (escaped == null) {
+                    escaped = new StringBuilder(value.length() + 16);
+                    escaped.append(value, 0, i);
+                }
+                escaped.append(replacement);
+            } else if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        return bytes(escaped != null ? escaped.toString() : value);
+    }
+
+    /**
+     * Encode string in UTF-8
+     *
+     * @param value String to encode
+     * @return UTF-8 encoded bytes
+     */
+    @Nonnull
+    private static byte[] bytes(@Nonnull String value) {
+        return value.getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * Response of the server to a signing or pending request
+ *
+ * Created:
+ * 17.10.26 KW42 13:40
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 13:40
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Values of a SOAP response. The response is parsed in a single pass with StAX directly from the stream of the
+ * connection, without building a DOM.
+ */
+public class SoapResponse {
+
+    /**
+     * Name of the node of a CMS signature
+     */
+    public static final String BASE64_SIGNATURE = "Base64Signature";
+
+    /**
+     * Name of the node of a timestamp signature
+     */
+    public static final String TIMESTAMP_TOKEN = "RFC3161TimeStampToken";
+
+    /**
+     * Factory for stream readers. Reading DTDs and external entities is disabled
+     */
+    private static final XMLInputFactory _xmlInputFactory;
+
+    static {
+        _xmlInputFactory = XMLInputFactory.newInstance();
+        _xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        _xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        _xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    }
+
+    /**
+     * Result major of response
+     */
+    private String resultMajor;
+
+    /**
+     * Result minor of response
+     */
+    private String resultMinor;
+
+    /**
+     * Result message of response
+     */
+    private String resultMessage;
+
+    /**
+     * Response id of an asynchronous request
+     */
+    private String responseId;
+
+    /**
+     * Consent url for the declaration of will (step-up with PwdOTP)
+     */
+    private String consentUrl;
+
+    /**
+     * Base64 encoded CMS signatures, keyed by DocumentHash id
+     */
+    private Map<String, String> signatures = new LinkedHashMap<String, String>();
+
+    /**
+     * Base64 encoded timestamp tokens, keyed by DocumentHash id
+     */
+    private Map<String, String> timestampTokens = new LinkedHashMap<String, String>();
+
+    /**
+     * Base64 encoded OCSP responses
+     */
+    private List<String> ocsp = new ArrayList<String>();
+
+    /**
+     * Base64 encoded CRLs
+     */
+    private List<String> crl = new ArrayList<String>();
+
+    /**
+     * Parse response from a stream. The stream is not closed
+     *
+     * @param in Stream with SOAP response
+     * @return Parsed response
+     * @throws XMLStreamException If the response is not well-formed
+     */
+    @Nonnull
+    public static SoapResponse parse(@Nonnull InputStream in) throws XMLStreamException {
+
+        SoapResponse response = new SoapResponse();
+        XMLStreamReader reader = _xmlInputFactory.createXMLStreamReader(in);
+
+        try {
+            // Id of the document the signatures inside the current element belong to (batch processing)
+            String documentId = null;
+            int documentIdDepth = -1;
+            int depth = 0;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == documentIdDepth) {
+                        documentId = null;
+                        documentIdDepth = -1;
+                    }
+                    depth--;
+                    continue;
+                }
+
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                depth++;
+
+                String whichDocument = reader.getAttributeValue(null, "WhichDocument");
+                if (whichDocument != null) {
+                    documentId = whichDocument;
+                    documentIdDepth = depth;
+                }
+
+                String name = reader.getLocalName();
+                if ("ResultMajor".equals(name)) {
+                    response.resultMajor = readText(reader, response.resultMajor);
+                } else if ("ResultMinor".equals(name)) {
+                    response.resultMinor = readText(reader, response.resultMinor);
+                } else if ("ResultMessage".equals(name)) {
+                    response.resultMessage = readText(reader, response.resultMessage);
+                } else if ("ResponseID".equals(name)) {
+                    response.responseId = readText(reader, response.responseId);
+                } else if ("ConsentURL".equals(name)) {
+                    response.consentUrl = readText(reader, response.consentUrl);
+                } else if (BASE64_SIGNATURE.equals(name)) {
+                    addSignature(response.signatures, documentId, reader.getElementText().trim());
+                } else if (TIMESTAMP_TOKEN.equals(name)) {
+                    addSignature(response.timestampTokens, documentId, reader.getElementText().trim());
+                } else if ("OCSP".equals(name)) {
+                    response.ocsp.add(reader.getElementText().trim());
+                } else if ("CRL".equals(name)) {
+                    response.crl.add(reader.getElementText().trim());
+                } else {
+                    continue;
+                }
+
+                // getElementText moved the reader to the end element
+                depth--;
+            }
+        } finally {
+            reader.close();
+        }
+
+        return response;
+    }
+
+    /**
+     * Read text of the current element. Only the first occurrence of an element is kept
+     *
+     * @param reader  Reader positioned at a start element
+     * @param current Value of a previous occurrence of the element
+     * @return Text of the element or the previous value if there is one
+     * @throws XMLStreamException If the element is not a text-only element
+     */
+    private static String readText(@Nonnull XMLStreamReader reader, @Nullable String current) throws XMLStreamException {
+        String text = reader.getElementText().trim();
+        return current != null ? current : text;
+    }
+
+    /**
+     * Add a signature. Signatures without a document id are numbered in the order they appear
+     *
+     * @param signatures Signatures found so far
+     * @param documentId Id of the DocumentHash the signature belongs to
+     * @param signature  Base64 encoded signature
+     */
+    private static void addSignature(@Nonnull Map<String, String> signatures, @Nullable String documentId,
+                                     @Nonnull String signature) {
+        signatures.put(documentId != null ? documentId : String.valueOf(signatures.size()), signature);
+    }
+
+    /**
+     * Check if the request was successful
+     *
+     * @return True if result major is success
+     */
+    public boolean isSuccess() {
+        return Include.RequestResult.Success.getResultUrn().equals(resultMajor);
+    }
+
+    /**
+     * Check if the asynchronous request is still pending
+     *
+     * @return True if result major is pending
+     */
+    public boolean isPending() {
+        return Include.RequestResult.Pending.getResultUrn().equals(resultMajor);
+    }
+
+    /**
+     * Check if the request failed because of an error on the server, e.g. an outage, so sending it again may succeed
+     *
+     * @return True if result major is responder error
+     */
+    public boolean isResponderError() {
+        return Include.RequestResult.ResponderError.getResultUrn().equals(resultMajor);
+    }
+
+    /**
+     * Get result major
+     *
+     * @return Result major or null if response did not contain one
+     */
+    @Nullable
+    public String getResultMajor() {
+        return resultMajor;
+    }
+
+    /**
+     * Get result minor
+     *
+     * @return Result minor or null if response did not contain one
+     */
+    @Nullable
+    public String getResultMinor() {
+        return resultMinor;
+    }
+
+    /**
+     * Get result message
+     *
+     * @return Result message or null if response did not contain one
+     */
+    @Nullable
+    public String getResultMessage() {
+        return resultMessage;
+    }
+
+    /**
+     * Get response id of an asynchronous request
+     *
+     * @return Response id or null if response did not contain one
+     */
+    @Nullable
+    public String getResponseId() {
+        return responseId;
+    }
+
+    /**
+     * Get consent url for the declaration of will
+     *
+     * @return Consent url or null if response did not contain one
+     */
+    @Nullable
+    public String getConsentUrl() {
+        return consentUrl;
+    }
+
+    /**
+     * Get signatures
+     *
+     * @param signNodeName Name of the signature node, BASE64_SIGNATURE or TIMESTAMP_TOKEN
+     * @return Base64 encoded signatures keyed by DocumentHash id, in the order of the response
+     */
+    @Nonnull
+    public Map<String, String> getSignatures(@Nonnull String signNodeName) {
+        return TIMESTAMP_TOKEN.equals(signNodeName) ? timestampTokens : signatures;
+    }
+
+    /**
+     * Get OCSP responses
+     *
+     * @return Base64 encoded OCSP responses
+     */
+    @Nonnull
+    public List<String> getOcsp() {
+        return ocsp;
+    }
+
+    /**
+     * Get CRLs
+     *
+     * @return Base64 encoded CRLs
+     */
+    @Nonnull
+    public List<String> getCrl() {
+        return crl;
+    }
+}
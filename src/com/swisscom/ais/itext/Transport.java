@@ -0,0 +1,105 @@
+/**
+ * Transport of SOAP requests to the server
+ *
+ * Created:
+ * 17.10.26 KW42 11:05
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 11:05
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends requests to the server. Implementations must be thread safe, one instance is shared by all requests of a
+ * Soap instance. See Soap.setTransport to use a custom implementation
+ */
+public interface Transport {
+
+    /**
+     * Send a POST request to the server and wait for the response. The request body is written directly to the
+     * connection. The caller has to close the returned stream
+     *
+     * @param url         Url of server where to send the request
+     * @param body        Request body, may be written more than once if a request has to be repeated
+     * @param contentType Content type of request body
+     * @return Response body
+     * @throws IOException              If sending the request or reading the response failed or server did not answer with status 200
+     * @throws GeneralSecurityException If the secure connection can not be created
+     * @throws InterruptedException     If waiting for a connection was interrupted
+     */
+    @Nonnull
+    InputStream send(@Nonnull String url, @Nonnull RequestBody body, @Nonnull String contentType)
+            throws IOException, GeneralSecurityException, InterruptedException;
+
+    /**
+     * Send a POST request to the server without waiting for the response. The caller has to close the stream the
+     * future is completed with
+     *
+     * @param url         Url of server where to send the request
+     * @param body        Request body, may be written more than once if a request has to be repeated
+     * @param contentType Content type of request body
+     * @return Future which is completed with the response body or with the exception of the request
+     */
+    @Nonnull
+    CompletableFuture<InputStream> sendAsync(@Nonnull String url, @Nonnull RequestBody body, @Nonnull String contentType);
+
+    /**
+     * Close all open connections and release resources
+     */
+    void close();
+
+    /**
+     * Body of a request which is written directly to the connection
+     */
+    interface RequestBody {
+
+        /**
+         * Write the body to the stream of the connection
+         *
+         * @param out Stream of the connection. Must not be closed
+         * @throws IOException If writing failed
+         */
+        void writeTo(@Nonnull OutputStream out) throws IOException;
+    }
+
+    /**
+     * Error while sending a request or reading its response, e.g. the server can not be reached. Sending the request
+     * again later may succeed
+     */
+    class TransportException extends IOException {
+
+        /**
+         * Version of the serialized form
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor for this class
+         *
+         * @param cause Error of the transport, its message is kept
+         */
+        public TransportException(@Nonnull IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
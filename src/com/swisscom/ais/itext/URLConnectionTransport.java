@@ -0,0 +1,118 @@
+/**
+ * Transport of SOAP requests with HttpsURLConnection
+ *
+ * Created:
+ * 17.10.26 KW42 11:05
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 11:05
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import javax.net.ssl.HttpsURLConnection;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends requests with a HttpsURLConnection from Connect. Connections are kept alive by the JDK. This transport can be
+ * used instead of the connection pool with TRANSPORT=urlconnection in the properties file
+ */
+public class URLConnectionTransport implements Transport {
+
+    /**
+     * Connection used to create the URLConnection objects
+     */
+    private Connect _connect;
+
+    /**
+     * Threads for asynchronous requests
+     */
+    private ExecutorService _executor = Executors.newCachedThreadPool(new NamedThreadFactory("ais-urlconnection"));
+
+    /**
+     * Constructor to set relevant parameters
+     *
+     * @param connect Connection used to create the URLConnection objects
+     */
+    public URLConnectionTransport(@Nonnull Connect connect) {
+        this._connect = connect;
+    }
+
+    @Override
+    @Nonnull
+    public InputStream send(@Nonnull String url, @Nonnull RequestBody body, @Nonnull String contentType)
+            throws IOException, GeneralSecurityException {
+
+        URLConnection conn = _connect.getConnection(url);
+        if (conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setRequestMethod("POST");
+        }
+
+        conn.setAllowUserInteraction(true);
+        conn.setRequestProperty("Content-Type", contentType);
+        conn.setDoOutput(true);
+
+        // The body is a few KB of hashes, it is sent with its length because some proxies reject chunked bodies
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        body.writeTo(content);
+        if (conn instanceof HttpURLConnection) {
+            ((HttpURLConnection) conn).setFixedLengthStreamingMode(content.size());
+        }
+
+        OutputStream out = conn.getOutputStream();
+        try {
+            content.writeTo(out);
+            out.flush();
+        } finally {
+            out.close();
+        }
+
+        return conn.getInputStream();
+    }
+
+    @Override
+    @Nonnull
+    public CompletableFuture<InputStream> sendAsync(@Nonnull final String url, @Nonnull final RequestBody body,
+                                                    @Nonnull final String contentType) {
+
+        final CompletableFuture<InputStream> future = new CompletableFuture<InputStream>();
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(send(url, body, contentType));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void close() {
+        _executor.shutdown();
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Revocation information (OCSP responses and CRLs) of a signing response
+ *
+ * Created:
+ * 17.10.26 KW42 17:30
+ * </p>
+ * Last Modification:
+ * 17.10.26 KW42 17:30
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decoded revocation information which is added to the DSS dictionary of the signed documents (LTV). The base64
+ * encoded responses are decoded once, all documents of a batch share the same read-only instance. Decoded OCSP
+ * responses and CRLs are also shared by later requests, see RevocationCache
+ */
+public class ValidationInformation {
+
+    /**
+     * Decoded OCSP responses
+     */
+    private final List<RevocationCache.Entry> ocspEntries;
+
+    /**
+     * Decoded CRLs
+     */
+    private final List<RevocationCache.Entry> crlEntries;
+
+    /**
+     * ASN.1 encoded Basic OCSP Responses
+     */
+    private final Collection<byte[]> ocsp;
+
+    /**
+     * ASN.1 DER-encoded CRLs
+     */
+    private final Collection<byte[]> crl;
+
+    /**
+     * Constructor for this class
+     *
+     * @param ocspEntries Decoded OCSP responses
+     * @param crlEntries  Decoded CRLs
+     */
+    private ValidationInformation(@Nonnull List<RevocationCache.Entry> ocspEntries, @Nonnull List<RevocationCache.Entry> crlEntries) {
+        this.ocspEntries = ocspEntries;
+        this.crlEntries = crlEntries;
+        this.ocsp = encodings(ocspEntries);
+        this.crl = encodings(crlEntries);
+    }
+
+    /**
+     * Decode the revocation information of a response. OCSP responses and CRLs which were decoded before are taken
+     * from the cache
+     *
+     * @param ocspArr List of OCSP Responses as base64 encoded String
+     * @param crlArr  List of CRLs as base64 encoded String
+     * @return Decoded revocation information
+     * @throws Exception If a response or CRL can not be decoded
+     */
+    @Nonnull
+    public static ValidationInformation decode(@Nullable List<String> ocspArr, @Nullable List<String> crlArr) throws Exception {
+
+        List<RevocationCache.Entry> ocspEntries = new ArrayList<RevocationCache.Entry>();
+        List<RevocationCache.Entry> crlEntries = new ArrayList<RevocationCache.Entry>();
+
+        if (ocspArr != null) {
+            for (String ocspBase64 : ocspArr) {
+                ocspEntries.add(RevocationCache.getOcsp(ocspBase64));
+            }
+        }
+
+        if (crlArr != null) {
+            for (String crlBase64 : crlArr) {
+                crlEntries.add(RevocationCache.getCrl(crlBase64));
+            }
+        }
+
+        return new ValidationInformation(ocspEntries, crlEntries);
+    }
+
+    /**
+     * Get the revocation information which is not yet contained in a document
+     *
+     * @param digests Hex encoded SHA-256 hashes of the OCSP responses and CRLs in the DSS of the document
+     * @return Revocation information without the OCSP responses and CRLs of the document
+     */
+    @Nonnull
+    public ValidationInformation without(@Nonnull Set<String> digests) {
+        if (digests.isEmpty()) {
+            return this;
+        }
+        return new ValidationInformation(without(ocspEntries, digests), without(crlEntries, digests));
+    }
+
+    /**
+     * Check if there is revocation information to add
+     *
+     * @return True if there is no OCSP response and no CRL
+     */
+    public boolean isEmpty() {
+        return ocsp.isEmpty() && crl.isEmpty();
+    }
+
+    /**
+     * Get OCSP responses
+     *
+     * @return Read-only collection of ASN.1 encoded Basic OCSP Responses
+     */
+    @Nonnull
+    public Collection<byte[]> getOcsp() {
+        return ocsp;
+    }
+
+    /**
+     * Get CRLs
+     *
+     * @return Read-only collection of ASN.1 DER-encoded CRLs
+     */
+    @Nonnull
+    public Collection<byte[]> getCrl() {
+        return crl;
+    }
+
+    /**
+     * Get the encodings of decoded revocation information
+     *
+     * @param entries Decoded OCSP responses or CRLs
+     * @return Read-only collection of the encodings
+     */
+    @Nonnull
+    private static Collection<byte[]> encodings(@Nonnull List<RevocationCache.Entry> entries) {
+        List<byte[]> encodings = new ArrayList<byte[]>(entries.size());
+        for (RevocationCache.Entry entry : entries) {
+            encodings.add(entry.encoded);
+        }
+        return Collections.unmodifiableList(encodings);
+    }
+
+    /**
+     * Remove revocation information with one of the digests
+     *
+     * @param entries Decoded OCSP responses or CRLs
+     * @param digests Hex encoded SHA-256 hashes
+     * @return Entries without the ones with one of the digests
+     */
+    @Nonnull
+    private static List<RevocationCache.Entry> without(@Nonnull List<RevocationCache.Entry> entries, @Nonnull Set<String> digests) {
+        List<RevocationCache.Entry> result = new ArrayList<RevocationCache.Entry>(entries.size());
+        for (RevocationCache.Entry entry : entries) {
+            if (!digests.contains(entry.digest)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Compares the SOAP requests with the envelopes written by SAAJ
+ *
+ * Created:
+ * 18.10.26 KW42 10:20
+ * </p>
+ * Last Modification:
+ * 18.10.26 KW42 10:20
+ * <p/>
+ * Version:
+ * 1.0.0
+ * </p>
+ * Copyright:
+ * Copyright (C) 2013. All rights reserved.
+ * </p>
+ * License:
+ * Licensed under the Apache License, Version 2.0 or later; see LICENSE.md
+ * </p>
+ * Author:
+ * Swisscom (Schweiz) AG
+ */
+
+package com.swisscom.ais.itext;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Checks that the requests of SoapRequest are byte for byte identical with the golden envelopes in
+ * test/resources/soap. The golden envelopes were written by the SAAJ implementation which SoapRequest replaced, so a
+ * change of the template which changes the wire format is found. Run it from the project directory:
+ * <p/>
+ * java -cp "&lt;CLASS&gt;:&lt;LIB&gt;/*" com.swisscom.ais.itext.SoapRequestGoldenTest [directory of golden envelopes]
+ */
+public class SoapRequestGoldenTest {
+
+    /**
+     * Value with characters which must be escaped, non ASCII characters and whitespace
+     */
+    private static final String ESCAPING = "a&b<c>d\"e'f ü é ]]> \t x";
+
+    /**
+     * Directory of the golden envelopes
+     */
+    private static File _goldenDir;
+
+    /**
+     * Number of requests which differ from the golden envelopes
+     */
+    private static int _failed;
+
+    /**
+     * Compare all requests with their golden envelopes. Exits with 1 if a request differs
+     *
+     * @param args Optional directory of the golden envelopes
+     * @throws Exception If a golden envelope can not be read
+     */
+    public static void main(String[] args) throws Exception {
+        _goldenDir = new File(args.length > 0 ? args[0] : "test/resources/soap");
+
+        byte[][] one = {new byte[32]};
+        byte[][] two = {new byte[32], new byte[]{1, 2, 3, (byte) 250}};
+        String sha256 = Include.HashAlgorithm.SHA256.getHashUri();
+        String cms = Include.SignatureType.CMS.getSignatureType();
+        String timestamp = Include.SignatureType.TIMESTAMP.getSignatureType();
+        String onDemand = Include.AdditionalProfiles.ON_DEMAND_CERTIFICATE.getProfileName();
+        String batch = Include.AdditionalProfiles.BATCH.getProfileName();
+        String timestampProfile = Include.AdditionalProfiles.TIMESTAMP.getProfileName();
+        Include.RequestType sign = Include.RequestType.SignRequest;
+
+        check("static", SoapRequest.createSignRequest(sign, sha256, false, one, null, "cust:static", cms,
+                null, null, null, null, null, null, "REQ1"));
+        check("static_batch", SoapRequest.createSignRequest(sign, sha256, false, two, new String[]{batch}, "cust:static", cms,
+                null, null, null, null, null, null, "REQ2"));
+        check("timestamp", SoapRequest.createSignRequest(sign, sha256, false, one, new String[]{timestampProfile}, "cust", timestamp,
+                null, null, null, null, null, null, "REQ3"));
+        check("timestamp_batch", SoapRequest.createSignRequest(sign, Include.HashAlgorithm.SHA512.getHashUri(), false, two,
+                new String[]{timestampProfile, batch}, "cust", timestamp, null, null, null, null, null, null, "REQ4"));
+        check("ondemand", SoapRequest.createSignRequest(sign, sha256, true, one, new String[]{onDemand}, "cust:od", cms,
+                "cn=Alice Smith,c=CH", null, null, null, null, null, "REQ5"));
+        check("stepup", SoapRequest.createSignRequest(sign, sha256, true, two,
+                new String[]{onDemand, Include.AdditionalProfiles.REDIRECT.getProfileName(),
+                        Include.AdditionalProfiles.ASYNCHRON.getProfileName(), batch},
+                "cust:od", cms, "cn=Alice,c=CH", "41790000000", "Sign? (ABC)", "en", "MIDCHE123", null, "REQ6"));
+        check("stepup_noserial", SoapRequest.createSignRequest(sign, sha256, true, one, new String[]{onDemand}, "cust:od", cms,
+                "cn=Alice,c=CH", "41790000000", "Sign?", "de", null, null, "REQ7"));
+        check("mobile_nodn", SoapRequest.createSignRequest(sign, sha256, true, one, new String[]{onDemand}, "cust:od", cms,
+                null, "4179", "m", "en", null, null, "REQ8"));
+        check("escaping", SoapRequest.createSignRequest(sign, sha256, true, one, new String[]{onDemand}, ESCAPING, cms,
+                ESCAPING, ESCAPING, ESCAPING, ESCAPING, ESCAPING, null, ESCAPING));
+        check("pending", SoapRequest.createPendingRequest(Include.RequestType.PendingRequest, "cust:od", "RID-123"));
+        check("pending_escaping", SoapRequest.createPendingRequest(Include.RequestType.PendingRequest, ESCAPING, ESCAPING));
+
+        if (_failed > 0) {
+            System.out.println(_failed + " requests differ from the golden envelopes");
+            System.exit(1);
+        }
+        System.out.println("All requests are identical with the golden envelopes");
+    }
+
+    /**
+     * Compare a request with its golden envelope
+     *
+     * @param name    Name of the golden envelope without extension
+     * @param request Request to compare
+     * @throws Exception If the golden envelope can not be read
+     */
+    private static void check(@Nonnull String name, @Nonnull SoapRequest request) throws Exception {
+        byte[] golden = Files.readAllBytes(new File(_goldenDir, name + ".xml").toPath());
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        request.writeTo(written);
+
+        if (Arrays.equals(golden, written.toByteArray())) {
+            System.out.println("OK     " + name);
+        } else {
+            _failed++;
+            System.out.println("FAILED " + name + "\n  expected: " + new String(golden, "UTF-8")
+                    + "\n  written:  " + written.toString("UTF-8"));
+        }
+    }
+}